@@ -5,11 +5,13 @@ import me.cassayre.florian.dpu.network.architecture.FeedForwardNetwork;
 import me.cassayre.florian.dpu.network.Network;
 import me.cassayre.florian.dpu.network.trainer.AdadeltaTrainer;
 import me.cassayre.florian.dpu.network.trainer.Trainer;
+import me.cassayre.florian.dpu.network.trainer.TrainingEngine;
 import me.cassayre.florian.dpu.util.cifar.CIFAR10TrainingImage;
 import me.cassayre.florian.dpu.util.cifar.CIFARReader;
 import me.cassayre.florian.dpu.util.volume.Dimensions;
 import me.cassayre.florian.dpu.util.volume.Volume;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public class CIFAR10Convolutional
@@ -38,67 +40,29 @@ public class CIFAR10Convolutional
         final List<CIFAR10TrainingImage> trainingSet = CIFARReader.readAllBatches();
         final List<CIFAR10TrainingImage> testingSet = CIFARReader.readTestBatch();
 
-        final int sampling = 100; // Prints the state every 100 images
-
-        double sum = 0.0;
-        int correct = 0;
-
-        for(int i = 0; i < trainingSet.size(); i++)
+        final List<Volume> inputs = new ArrayList<>(trainingSet.size()), expected = new ArrayList<>(trainingSet.size());
+        for(CIFAR10TrainingImage trainingData : trainingSet)
         {
-            final CIFAR10TrainingImage trainingData = trainingSet.get(i);
-
-            final Volume input = trainingData.imageToVolume(); // Input
-            final Volume expected = trainingData.labelToVolume(); // Expected output
-
-            trainer.train(input, expected);
-
-            final Volume actual = network.getOutput(); // Actual output
-            final double loss = trainer.getLoss();
-
-            final int max = getActivation(actual);
-
-            sum += loss;
-
-            if(max == trainingData.getLabel())
-                correct++;
-
-            if(i != 0 && i % sampling == 0)
-            {
-                final double average = sum / sampling;
-
-                System.out.println("Seen: " + i + "\tLoss: " + average + "\tAccuracy: " + ((double) correct / sampling));
-
-                sum = 0.0;
-                correct = 0;
-            }
-
+            inputs.add(trainingData.imageToVolume());
+            expected.add(trainingData.labelToVolume());
         }
 
-        correct = 0;
-
-        for(final CIFAR10TrainingImage testingData : testingSet)
+        final List<Volume> testInputs = new ArrayList<>(testingSet.size()), testExpected = new ArrayList<>(testingSet.size());
+        for(CIFAR10TrainingImage testingData : testingSet)
         {
-            network.forwardPropagation(testingData.imageToVolume());
-
-            if(getActivation(network.getOutput()) == testingData.getLabel())
-                correct++;
+            testInputs.add(testingData.imageToVolume());
+            testExpected.add(testingData.labelToVolume());
         }
 
-        System.out.println("Test accuracy: " + (100.0 * correct / testingSet.size()) + "%");
-    }
+        final TrainingEngine engine = new TrainingEngine.Builder(trainer)
+                .epochs(1)
+                .validation(testInputs, testExpected, 0) // At the end of the epoch, spread across the available cores
+                .progress(100, System.out::println) // Prints the state every 100 images
+                .build();
 
-    private static int getActivation(Volume output)
-    {
-        int k = -1;
-
-        for(int i = 0; i < 10; i++)
-        {
-            if(k == -1 || output.get(0, 0, i) > output.get(0, 0, k))
-            {
-                k = i;
-            }
-        }
+        final TrainingEngine.Result result = engine.train(inputs, expected);
 
-        return k;
+        System.out.println(result);
+        System.out.println("Test accuracy: " + (100.0 * result.getValidationAccuracy()) + "%");
     }
 }
@@ -0,0 +1,113 @@
+package me.cassayre.florian.dpu;
+
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.network.architecture.FeedForwardNetwork;
+import me.cassayre.florian.dpu.network.trainer.HogwildTrainer;
+import me.cassayre.florian.dpu.network.trainer.StochasticTrainer;
+import me.cassayre.florian.dpu.network.trainer.Trainer;
+import me.cassayre.florian.dpu.util.Utils;
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class HogwildBenchmark
+{
+    private static final int FEATURES = 200, CLASSES = 10, SAMPLES = 20000, EPOCHS = 5;
+    private static final double LEARNING_RATE = 0.01;
+
+    public static void main(String[] args)
+    {
+        // Synthetic sparse classification problem: each sample activates a few features, the label is given by a random linear teacher
+        final Random random = new Random(0);
+        final double[][] teacher = new double[CLASSES][FEATURES];
+        for(double[] row : teacher)
+            for(int j = 0; j < FEATURES; j++)
+                row[j] = random.nextGaussian();
+
+        final List<Volume> inputs = new ArrayList<>(), expected = new ArrayList<>();
+        final List<Integer> labels = new ArrayList<>();
+        for(int i = 0; i < SAMPLES; i++)
+        {
+            final Volume input = new Volume(new Dimensions(FEATURES));
+            for(int j = 0; j < 10; j++)
+                input.set(random.nextInt(FEATURES), 1.0);
+
+            int label = 0;
+            double best = Double.NEGATIVE_INFINITY;
+            for(int c = 0; c < CLASSES; c++)
+            {
+                double score = 0.0;
+                for(int j = 0; j < FEATURES; j++)
+                    score += teacher[c][j] * input.get(j);
+                if(score > best)
+                {
+                    best = score;
+                    label = c;
+                }
+            }
+
+            final Volume output = new Volume(new Dimensions(CLASSES));
+            output.set(label, 1.0);
+
+            inputs.add(input);
+            expected.add(output);
+            labels.add(label);
+        }
+
+        final int threads = Runtime.getRuntime().availableProcessors();
+
+        System.out.println("Sequential trainer");
+        final FeedForwardNetwork sequential = createNetwork();
+        final Trainer trainer = new StochasticTrainer(sequential, LEARNING_RATE);
+        long time = 0; // Training time only, the evaluation is excluded
+        for(int epoch = 0; epoch < EPOCHS; epoch++)
+        {
+            final long start = System.nanoTime();
+            double sum = 0.0;
+            for(int i = 0; i < SAMPLES; i++)
+            {
+                trainer.train(inputs.get(i), expected.get(i));
+                sum += trainer.getLoss();
+            }
+            time += System.nanoTime() - start;
+            report(epoch, time, sum / SAMPLES, sequential, inputs, labels);
+        }
+
+        System.out.println("Hogwild trainer (" + threads + " threads)");
+        final FeedForwardNetwork hogwild = createNetwork();
+        time = 0;
+        try(HogwildTrainer hogwildTrainer = new HogwildTrainer(hogwild, LEARNING_RATE, threads))
+        {
+            for(int epoch = 0; epoch < EPOCHS; epoch++)
+            {
+                final long start = System.nanoTime();
+                final double loss = hogwildTrainer.train(inputs, expected);
+                time += System.nanoTime() - start;
+                report(epoch, time, loss, hogwild, inputs, labels);
+            }
+        }
+    }
+
+    private static FeedForwardNetwork createNetwork()
+    {
+        return new FeedForwardNetwork.Builder(new Dimensions(FEATURES))
+                .fullyConnected(new Dimensions(64), Layer.ActivationFunctionType.RELU)
+                .fullyConnected(new Dimensions(CLASSES), Layer.ActivationFunctionType.LINEAR)
+                .build(Layer.OutputFunctionType.SOFTMAX);
+    }
+
+    private static void report(int epoch, long time, double loss, FeedForwardNetwork network, List<Volume> inputs, List<Integer> labels)
+    {
+        final double seconds = time / 1E9;
+
+        int correct = 0;
+        for(int i = 0; i < inputs.size(); i++)
+            if(Utils.argmax(network.predict(inputs.get(i))) == labels.get(i))
+                correct++;
+
+        System.out.println("Epoch: " + epoch + "\tTime: " + String.format("%.2f", seconds) + "s\tLoss: " + loss + "\tAccuracy: " + ((double) correct / inputs.size()));
+    }
+}
@@ -2,14 +2,15 @@ package me.cassayre.florian.dpu;
 
 import me.cassayre.florian.dpu.layer.Layer;
 import me.cassayre.florian.dpu.network.architecture.FeedForwardNetwork;
-import me.cassayre.florian.dpu.network.Network;
 import me.cassayre.florian.dpu.network.trainer.AdadeltaTrainer;
 import me.cassayre.florian.dpu.network.trainer.Trainer;
+import me.cassayre.florian.dpu.network.trainer.TrainingEngine;
 import me.cassayre.florian.dpu.util.mnist.MNISTReader;
 import me.cassayre.florian.dpu.util.mnist.MNISTTrainingImage;
 import me.cassayre.florian.dpu.util.volume.Dimensions;
 import me.cassayre.florian.dpu.util.volume.Volume;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public class MNISTConvolutional
@@ -24,12 +25,7 @@ public class MNISTConvolutional
         - t10k-labels.idx1-ubyte
          */
 
-        // Network described here: http://cs.stanford.edu/people/karpathy/convnetjs/demo/mnist.html
-        final Network network = new FeedForwardNetwork.Builder(new Dimensions(24, 24, 1))
-                .convolution(new Dimensions(5, 5, 8), 2, Layer.ActivationFunctionType.RELU)
-                .convolution(new Dimensions(5, 5, 16), 3, Layer.ActivationFunctionType.RELU)
-                .fullyConnected(new Dimensions(10), Layer.ActivationFunctionType.LINEAR)
-                .build(Layer.OutputFunctionType.SOFTMAX);
+        final FeedForwardNetwork network = createNetwork();
 
         // Mini-batch size: 1
         final Trainer trainer = new AdadeltaTrainer(network, 0.95, 1E-6);
@@ -40,59 +36,40 @@ public class MNISTConvolutional
         final List<MNISTTrainingImage> testImages = MNISTReader.readTestImages();
         final List<Integer> testLabels = MNISTReader.readTestLabels();
 
-        final int sampling = 100; // Prints the state every 100 images
-
-        double sum = 0.0;
-        int correct = 0;
-
+        final List<Volume> inputs = new ArrayList<>(images.size()), expected = new ArrayList<>(images.size());
         for(int i = 0; i < images.size(); i++)
         {
-            final MNISTTrainingImage image = images.get(i);
-            final int label = labels.get(i);
-
-            final Volume input = imageTo24Volume(image); // Input
-
-            final Volume expected = new Volume(new Dimensions(10)); // Expected output
-            expected.set(0, 0, label, 1.0);
-
-            trainer.train(input, expected);
-
-            final Volume actual = network.getOutput(); // Actual output
-            final double loss = trainer.getLoss();
-
-            final int max = getActivation(actual);
-
-            sum += loss;
-
-            if(max == label)
-                correct++;
-
-            if(i != 0 && i % sampling == 0)
-            {
-                final double average = sum / sampling;
-
-                System.out.println("Seen: " + i + "\tLoss: " + average + "\tAccuracy: " + ((double) correct / sampling));
-
-                sum = 0.0;
-                correct = 0;
-            }
-
+            inputs.add(imageTo24Volume(images.get(i)));
+            expected.add(labelToVolume(labels.get(i)));
         }
 
-        correct = 0;
-
+        final List<Volume> testInputs = new ArrayList<>(testImages.size()), testExpected = new ArrayList<>(testImages.size());
         for(int i = 0; i < testImages.size(); i++)
         {
-            final MNISTTrainingImage testImage = testImages.get(i);
-            final int testLabel = testLabels.get(i);
+            testInputs.add(imageTo24Volume(testImages.get(i)));
+            testExpected.add(labelToVolume(testLabels.get(i)));
+        }
 
-            network.forwardPropagation(imageTo24Volume(testImage));
+        final TrainingEngine engine = new TrainingEngine.Builder(trainer)
+                .epochs(1)
+                .validation(testInputs, testExpected, 0) // At the end of the epoch, spread across the available cores
+                .progress(100, System.out::println) // Prints the state every 100 images
+                .build();
 
-            if(getActivation(network.getOutput()) == testLabel)
-                correct++;
-        }
+        final TrainingEngine.Result result = engine.train(inputs, expected);
 
-        System.out.println("Test accuracy: " + (100.0 * correct / testImages.size()) + "%");
+        System.out.println(result);
+        System.out.println("Test accuracy: " + (100.0 * result.getValidationAccuracy()) + "%");
+    }
+
+    // Network described here: http://cs.stanford.edu/people/karpathy/convnetjs/demo/mnist.html (also trained by TestGradientCompression)
+    static FeedForwardNetwork createNetwork()
+    {
+        return new FeedForwardNetwork.Builder(new Dimensions(24, 24, 1))
+                .convolution(new Dimensions(5, 5, 8), 2, Layer.ActivationFunctionType.RELU)
+                .convolution(new Dimensions(5, 5, 16), 3, Layer.ActivationFunctionType.RELU)
+                .fullyConnected(new Dimensions(10), Layer.ActivationFunctionType.LINEAR)
+                .build(Layer.OutputFunctionType.SOFTMAX);
     }
 
     private static Volume imageTo24Volume(MNISTTrainingImage image)
@@ -110,18 +87,11 @@ public class MNISTConvolutional
         return volume;
     }
 
-    private static int getActivation(Volume output)
+    private static Volume labelToVolume(int label)
     {
-        int k = -1;
-
-        for(int i = 0; i < 10; i++)
-        {
-            if(k == -1 || output.get(0, 0, i) > output.get(0, 0, k))
-            {
-                k = i;
-            }
-        }
+        final Volume volume = new Volume(new Dimensions(10));
+        volume.set(0, 0, label, 1.0);
 
-        return k;
+        return volume;
     }
 }
@@ -0,0 +1,356 @@
+package me.cassayre.florian.dpu.layer;
+
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+
+import java.util.Arrays;
+
+/**
+ * Normalizes each channel, then applies a learned scale and shift.
+ * When training, each channel is normalized with the mean and the variance of its values over the width, the height and
+ * the samples of the batch (see {@link Layer#forwardPropagation(Volume[], Volume[], boolean)}), and the gradient flows
+ * through these statistics. The trainers propagate whole mini-batches through the layer (see
+ * {@link me.cassayre.florian.dpu.network.Network#propagateBatch}), a sample trained alone is a batch of one: it must
+ * then have more than one value per channel, which rules out the outputs of fully connected layers.
+ * At inference, the running averages of the statistics are used instead; they are updated by the trainers after each
+ * update of the weights (see {@link Statistical}), with the statistics of all the values seen since the previous update.
+ */
+public class BatchNormalizationLayer extends Layer implements Statistical
+{
+    private final Volume gamma, beta; // Learned scale and shift, one per channel
+    private final Volume mean, variance; // Running statistics, one per channel
+    private final double momentum, epsilon;
+
+    // Sums of the values and of their squares since the last update, per channel, specific to this copy of the layer
+    private final double[] sums, squares;
+    private long values = 0;
+
+    public BatchNormalizationLayer(Dimensions dimensions, Volume gamma, Volume beta, Volume mean, Volume variance, double momentum, double epsilon)
+    {
+        super(dimensions);
+
+        final Dimensions channels = new Dimensions(dimensions.getDepth());
+        if(!gamma.getDimensions().equals(channels) || !beta.getDimensions().equals(channels) || !mean.getDimensions().equals(channels) || !variance.getDimensions().equals(channels))
+            throw new IllegalArgumentException("Parameters must have one value per channel");
+
+        if(momentum < 0.0 || momentum >= 1.0)
+            throw new IllegalArgumentException("Momentum must be in [0, 1)");
+
+        if(epsilon <= 0.0)
+            throw new IllegalArgumentException("Epsilon must be strictly positive");
+
+        this.gamma = gamma;
+        this.beta = beta;
+        this.mean = mean;
+        this.variance = variance;
+        this.momentum = momentum;
+        this.epsilon = epsilon;
+
+        this.sums = new double[dimensions.getDepth()];
+        this.squares = new double[dimensions.getDepth()];
+    }
+
+    public BatchNormalizationLayer(Dimensions dimensions, double momentum, double epsilon)
+    {
+        this(dimensions, filled(dimensions.getDepth(), 1.0), filled(dimensions.getDepth(), 0.0), filled(dimensions.getDepth(), 0.0), filled(dimensions.getDepth(), 1.0), momentum, epsilon);
+    }
+
+    public BatchNormalizationLayer(Dimensions dimensions)
+    {
+        this(dimensions, 0.99, 1E-5);
+    }
+
+    private static Volume filled(int depth, double value)
+    {
+        final Volume volume = new Volume(new Dimensions(depth));
+        volume.fillValues(i -> value);
+        return volume;
+    }
+
+    @Override
+    public Dimensions getInputDimensions()
+    {
+        return getOutputDimensions();
+    }
+
+    @Override
+    public void forwardPropagation(Volume input, Volume output)
+    {
+        for(int z = 0; z < output.getDepth(); z++)
+        {
+            final double scale = getScale(z), shift = getShift(z);
+
+            for(int y = 0; y < output.getHeight(); y++)
+            {
+                for(int x = 0; x < output.getWidth(); x++)
+                {
+                    output.set(x, y, z, input.get(x, y, z) * scale + shift);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void forwardPropagation(Volume input, Volume output, boolean isTraining)
+    {
+        forwardPropagation(new Volume[] {input}, new Volume[] {output}, isTraining);
+    }
+
+    @Override
+    public void forwardPropagation(Volume[] inputs, Volume[] outputs, boolean isTraining)
+    {
+        if(!isTraining)
+        {
+            for(int s = 0; s < inputs.length; s++)
+                forwardPropagation(inputs[s], outputs[s]);
+            return;
+        }
+
+        checkValues(inputs.length);
+
+        for(int z = 0; z < getOutputDimensions().getDepth(); z++)
+        {
+            final double m = channelMean(inputs, z);
+            final double inverse = 1.0 / Math.sqrt(channelVariance(inputs, z, m) + epsilon);
+            final double scale = gamma.get(z) * inverse, shift = beta.get(z) - m * scale;
+
+            for(int s = 0; s < inputs.length; s++)
+            {
+                final Volume input = inputs[s], output = outputs[s];
+
+                for(int y = 0; y < output.getHeight(); y++)
+                {
+                    for(int x = 0; x < output.getWidth(); x++)
+                    {
+                        output.set(x, y, z, input.get(x, y, z) * scale + shift);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void backwardPropagation(Volume input, Volume output)
+    {
+        backwardPropagation(new Volume[] {input}, new Volume[] {output});
+    }
+
+    // Follows a forward propagation of the same batch made when training: the statistics of the batch are recomputed from the inputs
+    @Override
+    public void backwardPropagation(Volume[] inputs, Volume[] outputs)
+    {
+        checkValues(inputs.length);
+
+        final int count = inputs.length * getOutputDimensions().getWidth() * getOutputDimensions().getHeight();
+
+        for(int z = 0; z < getOutputDimensions().getDepth(); z++)
+        {
+            final double m = channelMean(inputs, z), v = channelVariance(inputs, z, m);
+            final double inverse = 1.0 / Math.sqrt(v + epsilon);
+
+            double chainSum = 0.0, normalizedSum = 0.0;
+            for(int s = 0; s < inputs.length; s++)
+            {
+                final Volume input = inputs[s], output = outputs[s];
+
+                for(int y = 0; y < output.getHeight(); y++)
+                {
+                    for(int x = 0; x < output.getWidth(); x++)
+                    {
+                        final double chain = output.getGradient(x, y, z);
+
+                        chainSum += chain;
+                        normalizedSum += chain * (input.get(x, y, z) - m) * inverse;
+                    }
+                }
+            }
+
+            gamma.addGradient(z, normalizedSum);
+            beta.addGradient(z, chainSum);
+
+            // The mean and the variance depend on every value of the channel, in all the samples
+            final double scale = gamma.get(z) * inverse;
+            for(int s = 0; s < inputs.length; s++)
+            {
+                final Volume input = inputs[s], output = outputs[s];
+
+                for(int y = 0; y < output.getHeight(); y++)
+                {
+                    for(int x = 0; x < output.getWidth(); x++)
+                    {
+                        final double normalized = (input.get(x, y, z) - m) * inverse;
+                        input.setGradient(x, y, z, scale * (output.getGradient(x, y, z) - (chainSum + normalized * normalizedSum) / count));
+                    }
+                }
+            }
+
+            sums[z] += m * count;
+            squares[z] += (v + m * m) * count;
+        }
+
+        values += count;
+    }
+
+    private void checkValues(int samples)
+    {
+        if(samples * getOutputDimensions().getWidth() * getOutputDimensions().getHeight() < 2)
+            throw new IllegalStateException("Training requires more than one value per channel, in the batch");
+    }
+
+    private static double channelMean(Volume[] inputs, int z)
+    {
+        double sum = 0.0;
+        for(Volume input : inputs)
+            for(int y = 0; y < input.getHeight(); y++)
+                for(int x = 0; x < input.getWidth(); x++)
+                    sum += input.get(x, y, z);
+
+        return sum / (inputs.length * inputs[0].getWidth() * inputs[0].getHeight());
+    }
+
+    private static double channelVariance(Volume[] inputs, int z, double mean)
+    {
+        double sum = 0.0;
+        for(Volume input : inputs)
+        {
+            for(int y = 0; y < input.getHeight(); y++)
+            {
+                for(int x = 0; x < input.getWidth(); x++)
+                {
+                    final double d = input.get(x, y, z) - mean;
+                    sum += d * d;
+                }
+            }
+        }
+
+        return sum / (inputs.length * inputs[0].getWidth() * inputs[0].getHeight());
+    }
+
+    @Override
+    public void mergeStatistics(Statistical copy)
+    {
+        final BatchNormalizationLayer other = (BatchNormalizationLayer) copy;
+
+        for(int z = 0; z < sums.length; z++)
+        {
+            sums[z] += other.sums[z];
+            squares[z] += other.squares[z];
+        }
+        values += other.values;
+
+        other.clearStatistics();
+    }
+
+    // The running averages move towards the mean and the variance of all the values seen since the last update
+    @Override
+    public void updateStatistics()
+    {
+        if(values == 0)
+            return;
+
+        for(int z = 0; z < sums.length; z++)
+        {
+            final double m = sums[z] / values, v = Math.max(squares[z] / values - m * m, 0.0);
+
+            mean.set(z, momentum * mean.get(z) + (1 - momentum) * m);
+            variance.set(z, momentum * variance.get(z) + (1 - momentum) * v);
+        }
+
+        clearStatistics();
+    }
+
+    // The means, followed by the variances
+    @Override
+    public int getStatisticsSize()
+    {
+        return mean.getSize() + variance.getSize();
+    }
+
+    @Override
+    public void getStatistics(double[] statistics, int offset)
+    {
+        for(int z = 0; z < mean.getSize(); z++)
+        {
+            statistics[offset + z] = mean.get(z);
+            statistics[offset + mean.getSize() + z] = variance.get(z);
+        }
+    }
+
+    @Override
+    public void setStatistics(double[] statistics, int offset)
+    {
+        for(int z = 0; z < mean.getSize(); z++)
+        {
+            mean.set(z, statistics[offset + z]);
+            variance.set(z, statistics[offset + mean.getSize() + z]);
+        }
+
+        clearStatistics();
+    }
+
+    private void clearStatistics()
+    {
+        Arrays.fill(sums, 0.0);
+        Arrays.fill(squares, 0.0);
+        values = 0;
+    }
+
+    public double getScale(int z)
+    {
+        return gamma.get(z) / Math.sqrt(variance.get(z) + epsilon);
+    }
+
+    public double getShift(int z)
+    {
+        return beta.get(z) - mean.get(z) * getScale(z);
+    }
+
+    public Volume getMean()
+    {
+        return mean;
+    }
+
+    public Volume getVariance()
+    {
+        return variance;
+    }
+
+    public double getMomentum()
+    {
+        return momentum;
+    }
+
+    public double getEpsilon()
+    {
+        return epsilon;
+    }
+
+    @Override
+    public Layer withWeights(Volume[] weights)
+    {
+        // The running statistics are shared, like the weights; the statistics of the samples are specific to each copy
+        final Layer layer = new BatchNormalizationLayer(getOutputDimensions(), weights[0], weights[1], mean, variance, momentum, epsilon);
+        layer.setTrainable(isTrainable());
+
+        return layer;
+    }
+
+    /**
+     * Creates a copy of this layer sharing its weights but not its running statistics, which are copied: training this
+     * layer further no longer changes the copy at inference.
+     * @return the copy
+     */
+    public BatchNormalizationLayer withOwnStatistics()
+    {
+        final BatchNormalizationLayer layer = new BatchNormalizationLayer(getOutputDimensions(), gamma, beta, mean.clone(), variance.clone(), momentum, epsilon);
+        layer.setTrainable(isTrainable());
+
+        return layer;
+    }
+
+    @Override
+    public Volume[] getWeights()
+    {
+        return new Volume[] {gamma, beta};
+    }
+}
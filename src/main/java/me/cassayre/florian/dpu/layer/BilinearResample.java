@@ -7,6 +7,10 @@ public class BilinearResample extends Layer
 {
     private final Dimensions inputDimensions;
 
+    // Interpolation tables, one entry per output column (x) / row (y)
+    private final int[] xLower, xUpper, yLower, yUpper;
+    private final double[] xWeights, yWeights;
+
     public BilinearResample(Dimensions inputDimensions, Dimensions outputDimensions)
     {
         super(outputDimensions);
@@ -15,6 +19,29 @@ public class BilinearResample extends Layer
             throw new IllegalArgumentException("Depths must be equal");
 
         this.inputDimensions = inputDimensions;
+
+        this.xLower = new int[outputDimensions.getWidth()];
+        this.xUpper = new int[outputDimensions.getWidth()];
+        this.xWeights = new double[outputDimensions.getWidth()];
+        computeTable(inputDimensions.getWidth(), outputDimensions.getWidth(), xLower, xUpper, xWeights);
+
+        this.yLower = new int[outputDimensions.getHeight()];
+        this.yUpper = new int[outputDimensions.getHeight()];
+        this.yWeights = new double[outputDimensions.getHeight()];
+        computeTable(inputDimensions.getHeight(), outputDimensions.getHeight(), yLower, yUpper, yWeights);
+    }
+
+    private static void computeTable(int inputSize, int outputSize, int[] lower, int[] upper, double[] weights)
+    {
+        for(int i = 0; i < outputSize; i++)
+        {
+            final double position = outputSize > 1 ? (double) i * (inputSize - 1) / (outputSize - 1) : 0.0;
+            final int a = Math.min((int) Math.floor(position), inputSize - 1);
+
+            lower[i] = a;
+            upper[i] = Math.min(a + 1, inputSize - 1);
+            weights[i] = position - a;
+        }
     }
 
     @Override
@@ -24,27 +51,19 @@ public class BilinearResample extends Layer
     }
 
     @Override
-    public void forwardPropagation(Volume input)
+    public void forwardPropagation(Volume input, Volume output)
     {
-        for(int y = 0; y < volume.getHeight(); y++)
+        for(int y = 0; y < output.getHeight(); y++)
         {
-            final double yCurrentScaled = (double) y / (volume.getHeight() - 1);
-            final int ya = (int) Math.floor(yCurrentScaled * (input.getHeight() - 1)), yb = Math.min(ya + 1, input.getHeight() - 1);
-            final double yaScaled = (double) ya / (input.getHeight() - 1);
-            final double dy = 1.0 / (input.getHeight() - 1);
+            final int ya = yLower[y], yb = yUpper[y];
+            final double vert = yWeights[y];
 
-            final double vert = (yCurrentScaled - yaScaled) / dy;
-
-            for(int x = 0; x < volume.getWidth(); x++)
+            for(int x = 0; x < output.getWidth(); x++)
             {
-                final double xCurrentScaled = (double) x / (volume.getWidth() - 1);
-                final int xa = (int) Math.floor(xCurrentScaled * (input.getWidth() - 1)), xb = Math.min(xa + 1, input.getWidth() - 1);
-                final double xaScaled = (double) xa / (input.getWidth() - 1);
-                final double dx = 1.0 / (input.getWidth() - 1);
-
-                final double hor = (xCurrentScaled - xaScaled) / dx;
+                final int xa = xLower[x], xb = xUpper[x];
+                final double hor = xWeights[x];
 
-                for(int z = 0; z < volume.getDepth(); z++)
+                for(int z = 0; z < output.getDepth(); z++)
                 {
                     final double vaa = input.get(xa, ya, z), vba = input.get(xb, ya, z);
                     final double v1 = hor * (vba - vaa) + vaa;
@@ -52,48 +71,39 @@ public class BilinearResample extends Layer
                     final double vab = input.get(xa, yb, z), vbb = input.get(xb, yb, z);
                     final double v2 = hor * (vbb - vab) + vab;
 
-                    final double vf = vert * (v2 - v1) + v1;
-
-                    volume.set(x, y, z, vf);
+                    output.set(x, y, z, vert * (v2 - v1) + v1);
                 }
             }
         }
     }
 
     @Override
-    public void backwardPropagation(Volume input)
+    public void backwardPropagation(Volume input, Volume output)
     {
         input.fillGradients(i -> 0.0);
 
-        for(int y = 0; y < input.getHeight(); y++)
+        // Adjoint of the forward pass: scatter each output gradient back with the same weights
+        for(int y = 0; y < output.getHeight(); y++)
         {
-            final double yCurrentScaled = (double) y / (input.getHeight() - 1);
-            final int ya = (int) Math.floor(yCurrentScaled * (volume.getHeight() - 1)), yb = Math.min(ya + 1, volume.getHeight() - 1);
-            final double yaScaled = (double) ya / (volume.getHeight() - 1);
-            final double dy = 1.0 / (volume.getHeight() - 1);
-
-            final double vert = (yCurrentScaled - yaScaled) / dy;
+            final int ya = yLower[y], yb = yUpper[y];
+            final double vert = yWeights[y];
 
-            for(int x = 0; x < input.getWidth(); x++)
+            for(int x = 0; x < output.getWidth(); x++)
             {
-                final double xCurrentScaled = (double) x / (input.getWidth() - 1);
-                final int xa = (int) Math.floor(xCurrentScaled * (volume.getWidth() - 1)), xb = Math.min(xa + 1, volume.getWidth() - 1);
-                final double xaScaled = (double) xa / (volume.getWidth() - 1);
-                final double dx = 1.0 / (volume.getWidth() - 1);
+                final int xa = xLower[x], xb = xUpper[x];
+                final double hor = xWeights[x];
 
-                final double hor = (xCurrentScaled - xaScaled) / dx;
+                final double waa = (1 - hor) * (1 - vert), wba = hor * (1 - vert);
+                final double wab = (1 - hor) * vert, wbb = hor * vert;
 
-                for(int z = 0; z < input.getDepth(); z++)
+                for(int z = 0; z < output.getDepth(); z++)
                 {
-                    final double vaa = volume.getGradient(xa, ya, z), vba = volume.getGradient(xb, ya, z);
-                    final double v1 = hor * (vba - vaa) + vaa;
-
-                    final double vab = volume.getGradient(xa, yb, z), vbb = volume.getGradient(xb, yb, z);
-                    final double v2 = hor * (vbb - vab) + vab;
-
-                    final double vf = vert * (v2 - v1) + v1;
+                    final double chain = output.getGradient(x, y, z);
 
-                    input.addGradient(x, y, z, vf);
+                    input.addGradient(xa, ya, z, waa * chain);
+                    input.addGradient(xb, ya, z, wba * chain);
+                    input.addGradient(xa, yb, z, wab * chain);
+                    input.addGradient(xb, yb, z, wbb * chain);
                 }
             }
         }
@@ -3,15 +3,21 @@ package me.cassayre.florian.dpu.layer;
 import me.cassayre.florian.dpu.util.volume.Dimensions;
 import me.cassayre.florian.dpu.util.volume.Volume;
 
-public class ConvolutionLayer extends Layer
+import java.util.stream.IntStream;
+
+public class ConvolutionLayer extends Layer implements Tunable<ConvolutionLayer.Algorithm>
 {
     private final Volume[] filters;
     private final Volume biases;
     private final Dimensions inputDimensions;
     private final int strideX, strideY;
     private final int paddingX, paddingY;
+    private final ActivationFunctionType activationFunction; // Fused into the output
+
+    private Algorithm algorithm = Algorithm.DIRECT;
+    private final ThreadLocal<double[][]> scratch; // Columns and filters of the im2col algorithm
 
-    public ConvolutionLayer(Dimensions imageDimensions, Volume[] filters, Volume biases, int strideX, int strideY, int paddingX, int paddingY) // filter: (width, height, previous_depth)[next_depth]
+    public ConvolutionLayer(Dimensions imageDimensions, Volume[] filters, Volume biases, int strideX, int strideY, int paddingX, int paddingY, ActivationFunctionType activationFunction) // filter: (width, height, previous_depth)[next_depth]
     {
         super(new Dimensions((imageDimensions.getWidth() - filters[0].getWidth() + 2 * paddingX) / strideX + 1, (imageDimensions.getHeight() - filters[0].getHeight() + 2 * paddingY) / strideY + 1, filters.length));
 
@@ -43,6 +49,17 @@ public class ConvolutionLayer extends Layer
 
         this.filters = filters;
         this.biases = biases; // One dimensional
+        this.activationFunction = activationFunction;
+
+        this.scratch = ThreadLocal.withInitial(() -> new double[][] {
+                new double[getOutputDimensions().getWidth() * getOutputDimensions().getHeight() * filters[0].getSize()],
+                new double[filters.length * filters[0].getSize()]
+        });
+    }
+
+    public ConvolutionLayer(Dimensions imageDimensions, Volume[] filters, Volume biases, int strideX, int strideY, int paddingX, int paddingY)
+    {
+        this(imageDimensions, filters, biases, strideX, strideY, paddingX, paddingY, ActivationFunctionType.LINEAR);
     }
 
     public ConvolutionLayer(Dimensions imageDimensions, Volume[] filters, Volume biases)
@@ -57,20 +74,123 @@ public class ConvolutionLayer extends Layer
     }
 
     @Override
-    public void forwardPropagation(Volume input)
+    public void forwardPropagation(Volume input, Volume output)
+    {
+        switch(algorithm)
+        {
+            case DIRECT:
+                for(int i = 0; i < output.getDepth(); i++)
+                    forwardFilter(input, output, i);
+                break;
+            case IM2COL:
+                forwardColumns(input, output);
+                break;
+            case PARALLEL:
+                IntStream.range(0, output.getDepth()).parallel().forEach(i -> forwardFilter(input, output, i));
+                break;
+        }
+    }
+
+    private void forwardFilter(Volume input, Volume output, int i)
     {
         final int rx = (filters[0].getWidth() - 1) >> 1, ry = (filters[0].getHeight() - 1) >> 1;
 
-        for(int i = 0; i < volume.getDepth(); i++)
+        final Volume filter = this.filters[i];
+        final int sx = (filter.getWidth() >> 1) - paddingX, sy = (filter.getHeight() >> 1) - paddingY;
+
+        for(int y = 0; y < output.getHeight(); y++)
+        {
+            for(int x = 0; x < output.getWidth(); x++)
+            {
+                double sum = biases.get(0, 0, i);
+
+                for(int y1 = -ry; y1 <= ry; y1++)
+                {
+                    final int yf = y * strideY + y1 + sy;
+                    if(!isYBounds(yf))
+                        continue;
+                    for(int x1 = -rx; x1 <= rx; x1++)
+                    {
+                        final int xf = x * strideX + x1 + sx;
+                        if(!isXBounds(xf))
+                            continue;
+                        for(int j = 0; j < filter.getDepth(); j++)
+                        {
+                            sum += input.get(xf, yf, j) * filter.get(x1 + rx, y1 + ry, j);
+                        }
+                    }
+                }
+
+                output.set(x, y, i, activationFunction.apply(sum));
+            }
+        }
+    }
+
+    // Copies the receptive field of each output position into a row, the convolution becomes a matrix product
+    private void forwardColumns(Volume input, Volume output)
+    {
+        final double[][] arrays = scratch.get();
+        final double[] columns = arrays[0], weights = arrays[1];
+        final int taps = filters[0].getSize(), positions = output.getWidth() * output.getHeight();
+
+        toColumns(input, columns);
+        for(int i = 0; i < filters.length; i++)
+            for(int t = 0; t < taps; t++)
+                weights[i * taps + t] = filters[i].get(t);
+
+        for(int p = 0; p < positions; p++)
         {
-            final Volume filter = this.filters[i];
+            final int row = p * taps;
+            for(int i = 0; i < filters.length; i++)
+            {
+                final int base = i * taps;
+                double sum = biases.get(i);
+                for(int t = 0; t < taps; t++)
+                    sum += columns[row + t] * weights[base + t];
+
+                output.set(p * filters.length + i, activationFunction.apply(sum));
+            }
+        }
+    }
+
+    @Override
+    public void backwardPropagation(Volume input, Volume output)
+    {
+        input.fillGradients(i -> 0.0);
+
+        switch(algorithm)
+        {
+            case DIRECT:
+                backwardDirect(input, output);
+                break;
+            case IM2COL:
+                backwardColumns(input, output);
+                break;
+            case PARALLEL:
+                // The gradients of the input and of the filters are partitioned by input channel
+                IntStream.range(0, inputDimensions.getDepth()).parallel().forEach(j -> backwardChannel(input, output, j));
+                for(int i = 0; i < output.getDepth(); i++)
+                    for(int y = 0; y < output.getHeight(); y++)
+                        for(int x = 0; x < output.getWidth(); x++)
+                            biases.addGradient(0, 0, i, output.getGradient(x, y, i) * activationFunction.derivative(output.get(x, y, i)));
+                break;
+        }
+    }
+
+    private void backwardDirect(Volume input, Volume output)
+    {
+        final int rx = (filters[0].getWidth() - 1) >> 1, ry = (filters[0].getHeight() - 1) >> 1;
+
+        for(int i = 0; i < output.getDepth(); i++)
+        {
+            final Volume filter = filters[i];
             final int sx = (filter.getWidth() >> 1) - paddingX, sy = (filter.getHeight() >> 1) - paddingY;
 
-            for(int y = 0; y < volume.getHeight(); y++)
+            for(int y = 0; y < output.getHeight(); y++)
             {
-                for(int x = 0; x < volume.getWidth(); x++)
+                for(int x = 0; x < output.getWidth(); x++)
                 {
-                    double sum = biases.get(0, 0, i);
+                    final double chain = output.getGradient(x, y, i) * activationFunction.derivative(output.get(x, y, i));
 
                     for(int y1 = -ry; y1 <= ry; y1++)
                     {
@@ -84,34 +204,32 @@ public class ConvolutionLayer extends Layer
                                 continue;
                             for(int j = 0; j < filter.getDepth(); j++)
                             {
-                                sum += input.get(xf, yf, j) * filter.get(x1 + rx, y1 + rx, j);
+                                filter.addGradient(x1 + rx, y1 + ry, j, input.get(xf, yf, j) * chain);
+                                input.addGradient(xf, yf, j, filter.get(x1 + rx, y1 + ry, j) * chain);
                             }
                         }
                     }
 
-                    volume.set(x, y, i, sum);
+                    biases.addGradient(0, 0, i, chain);
                 }
             }
         }
     }
 
-    @Override
-    public void backwardPropagation(Volume input)
+    private void backwardChannel(Volume input, Volume output, int j)
     {
-        input.fillGradients(i -> 0.0);
-
         final int rx = (filters[0].getWidth() - 1) >> 1, ry = (filters[0].getHeight() - 1) >> 1;
 
-        for(int i = 0; i < volume.getDepth(); i++)
+        for(int i = 0; i < output.getDepth(); i++)
         {
             final Volume filter = filters[i];
             final int sx = (filter.getWidth() >> 1) - paddingX, sy = (filter.getHeight() >> 1) - paddingY;
 
-            for(int y = 0; y < volume.getHeight(); y++)
+            for(int y = 0; y < output.getHeight(); y++)
             {
-                for(int x = 0; x < volume.getWidth(); x++)
+                for(int x = 0; x < output.getWidth(); x++)
                 {
-                    final double chain = volume.getGradient(x, y, i);
+                    final double chain = output.getGradient(x, y, i) * activationFunction.derivative(output.get(x, y, i));
 
                     for(int y1 = -ry; y1 <= ry; y1++)
                     {
@@ -123,20 +241,161 @@ public class ConvolutionLayer extends Layer
                             final int xf = x * strideX + x1 + sx;
                             if(!isXBounds(xf))
                                 continue;
-                            for(int j = 0; j < filter.getDepth(); j++)
-                            {
-                                filter.addGradient(x1 + rx, y1 + ry, j, input.get(xf, yf, j) * chain);
-                                input.addGradient(xf, yf, j, filter.get(x1 + rx, y1 + ry, j) * chain);
-                            }
+                            filter.addGradient(x1 + rx, y1 + ry, j, input.get(xf, yf, j) * chain);
+                            input.addGradient(xf, yf, j, filter.get(x1 + rx, y1 + ry, j) * chain);
                         }
                     }
-
-                    biases.addGradient(0, 0, i, chain);
                 }
             }
         }
     }
 
+    private void backwardColumns(Volume input, Volume output)
+    {
+        final double[][] arrays = scratch.get();
+        final double[] columns = arrays[0], weights = arrays[1];
+        final int taps = filters[0].getSize(), positions = output.getWidth() * output.getHeight();
+
+        toColumns(input, columns); // The columns of the forward pass may have been overwritten by another layer
+        for(int i = 0; i < filters.length; i++)
+            for(int t = 0; t < taps; t++)
+                weights[i * taps + t] = 0.0; // Gradients of the filters
+
+        final double[] chains = new double[filters.length];
+        for(int p = 0; p < positions; p++)
+        {
+            final int row = p * taps;
+            for(int i = 0; i < filters.length; i++)
+            {
+                final int o = p * filters.length + i, base = i * taps;
+                final double chain = output.getGradient(o) * activationFunction.derivative(output.get(o));
+
+                for(int t = 0; t < taps; t++)
+                    weights[base + t] += columns[row + t] * chain;
+                biases.addGradient(i, chain);
+
+                chains[i] = chain;
+            }
+
+            // The columns are not needed anymore for this position: they now hold its gradient
+            for(int t = 0; t < taps; t++)
+                columns[row + t] = 0.0;
+            for(int i = 0; i < filters.length; i++)
+            {
+                final Volume filter = filters[i];
+                for(int t = 0; t < taps; t++)
+                    columns[row + t] += filter.get(t) * chains[i];
+            }
+        }
+
+        for(int i = 0; i < filters.length; i++)
+            for(int t = 0; t < taps; t++)
+                filters[i].addGradient(t, weights[i * taps + t]);
+
+        fromColumns(columns, input);
+    }
+
+    private void toColumns(Volume input, double[] columns)
+    {
+        final int width = filters[0].getWidth(), height = filters[0].getHeight(), depth = filters[0].getDepth();
+        final int outputWidth = getOutputDimensions().getWidth(), outputHeight = getOutputDimensions().getHeight();
+
+        int k = 0;
+        for(int y = 0; y < outputHeight; y++)
+            for(int x = 0; x < outputWidth; x++)
+                for(int fy = 0; fy < height; fy++)
+                {
+                    final int yf = y * strideY + fy - paddingY;
+                    for(int fx = 0; fx < width; fx++)
+                    {
+                        final int xf = x * strideX + fx - paddingX;
+                        final boolean isInside = isXBounds(xf) && isYBounds(yf);
+                        for(int j = 0; j < depth; j++)
+                            columns[k++] = isInside ? input.get(xf, yf, j) : 0.0;
+                    }
+                }
+    }
+
+    // Accumulates the gradients of the columns into the input
+    private void fromColumns(double[] columns, Volume input)
+    {
+        final int width = filters[0].getWidth(), height = filters[0].getHeight(), depth = filters[0].getDepth();
+        final int outputWidth = getOutputDimensions().getWidth(), outputHeight = getOutputDimensions().getHeight();
+
+        int k = 0;
+        for(int y = 0; y < outputHeight; y++)
+            for(int x = 0; x < outputWidth; x++)
+                for(int fy = 0; fy < height; fy++)
+                {
+                    final int yf = y * strideY + fy - paddingY;
+                    for(int fx = 0; fx < width; fx++)
+                    {
+                        final int xf = x * strideX + fx - paddingX;
+                        if(isXBounds(xf) && isYBounds(yf))
+                            for(int j = 0; j < depth; j++)
+                                input.addGradient(xf, yf, j, columns[k++]);
+                        else
+                            k += depth;
+                    }
+                }
+    }
+
+    @Override
+    public Layer withWeights(Volume[] weights)
+    {
+        final Volume[] filters = new Volume[weights.length - 1];
+        System.arraycopy(weights, 0, filters, 0, filters.length);
+
+        final ConvolutionLayer layer = new ConvolutionLayer(inputDimensions, filters, weights[weights.length - 1], strideX, strideY, paddingX, paddingY, activationFunction);
+        layer.setTrainable(isTrainable());
+        layer.setAlgorithm(algorithm);
+
+        return layer;
+    }
+
+    @Override
+    public Algorithm[] getAlgorithms()
+    {
+        return Algorithm.values();
+    }
+
+    @Override
+    public Algorithm getAlgorithm()
+    {
+        return algorithm;
+    }
+
+    @Override
+    public void setAlgorithm(Algorithm algorithm)
+    {
+        this.algorithm = algorithm;
+    }
+
+    public ActivationFunctionType getActivationFunction()
+    {
+        return activationFunction;
+    }
+
+    public int getStrideX()
+    {
+        return strideX;
+    }
+
+    public int getStrideY()
+    {
+        return strideY;
+    }
+
+    public int getPaddingX()
+    {
+        return paddingX;
+    }
+
+    public int getPaddingY()
+    {
+        return paddingY;
+    }
+
     private boolean isXBounds(int x)
     {
         return x >= 0 && x < inputDimensions.getWidth();
@@ -147,6 +406,12 @@ public class ConvolutionLayer extends Layer
         return y >= 0 && y < inputDimensions.getHeight();
     }
 
+    @Override
+    public int getFilterCount()
+    {
+        return filters.length;
+    }
+
     @Override
     public Volume[] getWeights()
     {
@@ -156,4 +421,11 @@ public class ConvolutionLayer extends Layer
 
         return array;
     }
+
+    public static enum Algorithm
+    {
+        DIRECT, // Loops over the filters and the output positions
+        IM2COL, // Copies the receptive fields into a matrix, more memory but contiguous accesses
+        PARALLEL // Direct, with the filters (forward) or the input channels (backward) split between threads
+    }
 }
@@ -54,13 +54,13 @@ public class DeconvolutionLayer extends Layer
     }
 
     @Override
-    public void forwardPropagation(Volume input)
+    public void forwardPropagation(Volume input, Volume output)
     {
-        volume.fillValues((i) -> 0.0);
+        output.fillValues((i) -> 0.0);
 
         final int rx = (filters[0].getWidth() - 1) >> 1, ry = (filters[0].getHeight() - 1) >> 1;
 
-        for(int i = 0; i < volume.getDepth(); i++)
+        for(int i = 0; i < output.getDepth(); i++)
         {
             final Volume filter = this.filters[i];
 
@@ -83,31 +83,31 @@ public class DeconvolutionLayer extends Layer
                                 continue;
                             for(int j = 0; j < filter.getDepth(); j++)
                             {
-                                volume.add(xf, yf, i, input.get(x, y, j) * filter.get(rx + x1, ry + y1, j));
+                                output.add(xf, yf, i, input.get(x, y, j) * filter.get(rx + x1, ry + y1, j));
                             }
                         }
                     }
                 }
             }
 
-            for(int y = 0; y < volume.getHeight(); y++)
+            for(int y = 0; y < output.getHeight(); y++)
             {
-                for(int x = 0; x < volume.getWidth(); x++)
+                for(int x = 0; x < output.getWidth(); x++)
                 {
-                    volume.add(x, y, i, biases.get(i));
+                    output.add(x, y, i, biases.get(i));
                 }
             }
         }
     }
 
     @Override
-    public void backwardPropagation(Volume input)
+    public void backwardPropagation(Volume input, Volume output)
     {
         input.fillGradients(i -> 0.0);
 
         final int rx = (filters[0].getWidth() - 1) >> 1, ry = (filters[0].getHeight() - 1) >> 1;
 
-        for(int i = 0; i < volume.getDepth(); i++)
+        for(int i = 0; i < output.getDepth(); i++)
         {
             final Volume filter = this.filters[i];
 
@@ -131,19 +131,19 @@ public class DeconvolutionLayer extends Layer
 
                             for(int j = 0; j < filter.getDepth(); j++)
                             {
-                                filter.addGradient(rx + x1, ry + y1, j, volume.getGradient(xf, yf, i) * input.get(x, y, j));
-                                input.addGradient(x, y, j, volume.getGradient(xf, yf, i) * filter.get(rx + x1, ry + y1, j));
+                                filter.addGradient(rx + x1, ry + y1, j, output.getGradient(xf, yf, i) * input.get(x, y, j));
+                                input.addGradient(x, y, j, output.getGradient(xf, yf, i) * filter.get(rx + x1, ry + y1, j));
                             }
                         }
                     }
                 }
             }
 
-            for(int y = 0; y < volume.getHeight(); y++)
+            for(int y = 0; y < output.getHeight(); y++)
             {
-                for(int x = 0; x < volume.getWidth(); x++)
+                for(int x = 0; x < output.getWidth(); x++)
                 {
-                    biases.addGradient(i, volume.getGradient(x, y, i));
+                    biases.addGradient(i, output.getGradient(x, y, i));
                 }
             }
         }
@@ -151,12 +151,50 @@ public class DeconvolutionLayer extends Layer
 
     private boolean isXInBounds(int x)
     {
-        return x >= 0 && x < volume.getWidth();
+        return x >= 0 && x < getOutputDimensions().getWidth();
     }
 
     private boolean isYInBounds(int y)
     {
-        return y >= 0 && y < volume.getHeight();
+        return y >= 0 && y < getOutputDimensions().getHeight();
+    }
+
+    public int getStrideX()
+    {
+        return strideX;
+    }
+
+    public int getStrideY()
+    {
+        return strideY;
+    }
+
+    public int getPaddingX()
+    {
+        return paddingX;
+    }
+
+    public int getPaddingY()
+    {
+        return paddingY;
+    }
+
+    @Override
+    public Layer withWeights(Volume[] weights)
+    {
+        final Volume[] filters = new Volume[weights.length - 1];
+        System.arraycopy(weights, 0, filters, 0, filters.length);
+
+        final Layer layer = new DeconvolutionLayer(inputDimensions, filters, weights[weights.length - 1], strideX, strideY, paddingX, paddingY);
+        layer.setTrainable(isTrainable());
+
+        return layer;
+    }
+
+    @Override
+    public int getFilterCount()
+    {
+        return filters.length;
     }
 
     @Override
@@ -3,12 +3,17 @@ package me.cassayre.florian.dpu.layer;
 import me.cassayre.florian.dpu.util.volume.Dimensions;
 import me.cassayre.florian.dpu.util.volume.Volume;
 
-public class FullyConnectedLayer extends Layer
+import java.util.stream.IntStream;
+
+public class FullyConnectedLayer extends Layer implements Tunable<FullyConnectedLayer.Algorithm>
 {
     private final Volume[] weights;
     private final Volume biases;
+    private final ActivationFunctionType activationFunction; // Fused into the output
 
-    public FullyConnectedLayer(Volume[] weights, Volume biases)
+    private Algorithm algorithm = Algorithm.SEQUENTIAL;
+
+    public FullyConnectedLayer(Volume[] weights, Volume biases, ActivationFunctionType activationFunction)
     {
         super(new Dimensions(weights.length));
 
@@ -17,6 +22,12 @@ public class FullyConnectedLayer extends Layer
 
         this.weights = weights;
         this.biases = biases;
+        this.activationFunction = activationFunction;
+    }
+
+    public FullyConnectedLayer(Volume[] weights, Volume biases)
+    {
+        this(weights, biases, ActivationFunctionType.LINEAR);
     }
 
     @Override
@@ -26,29 +37,62 @@ public class FullyConnectedLayer extends Layer
     }
 
     @Override
-    public void forwardPropagation(Volume input)
+    public void forwardPropagation(Volume input, Volume output)
     {
-        for(int i = 0; i < weights.length; i++)
-        {
-            final int j = i;
-            final Volume multipliers = weights[i];
-            final double bias = biases.get(0, 0, i);
+        if(algorithm == Algorithm.PARALLEL)
+            IntStream.range(0, weights.length).parallel().forEach(i -> forwardNeuron(input, output, i));
+        else
+            for(int i = 0; i < weights.length; i++)
+                forwardNeuron(input, output, i);
+    }
 
-            volume.set(0, 0, i, bias);
+    private void forwardNeuron(Volume input, Volume output, int i)
+    {
+        final Volume multipliers = weights[i];
+        double sum = biases.get(0, 0, i);
 
-            input.foreach(k -> volume.add(0, 0, j, input.get(k) * multipliers.get(k)));
-        }
+        for(int k = 0; k < input.getSize(); k++)
+            sum += input.get(k) * multipliers.get(k);
+
+        output.set(0, 0, i, activationFunction.apply(sum));
     }
 
     @Override
-    public void backwardPropagation(Volume input)
+    public void backwardPropagation(Volume input, Volume output)
     {
         input.fillGradients(k -> 0.0);
 
+        if(algorithm == Algorithm.PARALLEL)
+        {
+            final double[] chains = new double[weights.length];
+            for(int i = 0; i < weights.length; i++)
+                chains[i] = output.getGradient(0, 0, i) * activationFunction.derivative(output.get(0, 0, i));
+
+            // The gradients of the weights are partitioned by neuron, those of the input by input value
+            IntStream.range(0, weights.length).parallel().forEach(i ->
+            {
+                final Volume multipliers = weights[i];
+                for(int k = 0; k < input.getSize(); k++)
+                    multipliers.addGradient(k, input.get(k) * chains[i]);
+
+                biases.addGradient(0, 0, i, chains[i]);
+            });
+            IntStream.range(0, input.getSize()).parallel().forEach(k ->
+            {
+                double sum = 0.0;
+                for(int i = 0; i < weights.length; i++)
+                    sum += weights[i].get(k) * chains[i];
+
+                input.addGradient(k, sum);
+            });
+
+            return;
+        }
+
         for(int i = 0; i < weights.length; i++)
         {
             final Volume multipliers = weights[i];
-            final double chain = volume.getGradient(0, 0, i);
+            final double chain = output.getGradient(0, 0, i) * activationFunction.derivative(output.get(0, 0, i));
 
             input.foreach(k ->
             {
@@ -60,6 +104,48 @@ public class FullyConnectedLayer extends Layer
         }
     }
 
+    @Override
+    public Layer withWeights(Volume[] weights)
+    {
+        final Volume[] neurons = new Volume[weights.length - 1];
+        System.arraycopy(weights, 0, neurons, 0, neurons.length);
+
+        final FullyConnectedLayer layer = new FullyConnectedLayer(neurons, weights[weights.length - 1], activationFunction);
+        layer.setTrainable(isTrainable());
+        layer.setAlgorithm(algorithm);
+
+        return layer;
+    }
+
+    @Override
+    public Algorithm[] getAlgorithms()
+    {
+        return Algorithm.values();
+    }
+
+    @Override
+    public Algorithm getAlgorithm()
+    {
+        return algorithm;
+    }
+
+    @Override
+    public void setAlgorithm(Algorithm algorithm)
+    {
+        this.algorithm = algorithm;
+    }
+
+    public ActivationFunctionType getActivationFunction()
+    {
+        return activationFunction;
+    }
+
+    @Override
+    public int getFilterCount()
+    {
+        return weights.length;
+    }
+
     @Override
     public Volume[] getWeights()
     {
@@ -69,4 +155,10 @@ public class FullyConnectedLayer extends Layer
 
         return array;
     }
+
+    public static enum Algorithm
+    {
+        SEQUENTIAL,
+        PARALLEL // The neurons (and the input values, backward) are split between threads
+    }
 }
@@ -0,0 +1,42 @@
+package me.cassayre.florian.dpu.layer;
+
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+
+public class GlobalAveragePoolingLayer extends Layer
+{
+    private final Dimensions inputDimensions;
+
+    public GlobalAveragePoolingLayer(Dimensions inputDimensions)
+    {
+        super(new Dimensions(inputDimensions.getDepth()));
+
+        this.inputDimensions = inputDimensions;
+    }
+
+    @Override
+    public Dimensions getInputDimensions()
+    {
+        return inputDimensions;
+    }
+
+    @Override
+    public void forwardPropagation(Volume input, Volume output)
+    {
+        final int area = input.getWidth() * input.getHeight();
+
+        output.fillValues(i -> 0.0);
+
+        input.foreach((x, y, z) -> output.add(z, input.get(x, y, z)));
+
+        output.fillValues(i -> output.get(i) / area);
+    }
+
+    @Override
+    public void backwardPropagation(Volume input, Volume output)
+    {
+        final int area = input.getWidth() * input.getHeight();
+
+        input.fillGradients((x, y, z) -> output.getGradient(z) / area);
+    }
+}
@@ -0,0 +1,55 @@
+package me.cassayre.florian.dpu.layer;
+
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+
+public class GlobalMaxPoolingLayer extends Layer
+{
+    private final Dimensions inputDimensions;
+
+    public GlobalMaxPoolingLayer(Dimensions inputDimensions)
+    {
+        super(new Dimensions(inputDimensions.getDepth()));
+
+        this.inputDimensions = inputDimensions;
+    }
+
+    @Override
+    public Dimensions getInputDimensions()
+    {
+        return inputDimensions;
+    }
+
+    @Override
+    public void forwardPropagation(Volume input, Volume output)
+    {
+        output.fillValues(i -> Double.NEGATIVE_INFINITY);
+
+        input.foreach((x, y, z) -> output.set(z, Math.max(input.get(x, y, z), output.get(z))));
+    }
+
+    @Override
+    public void backwardPropagation(Volume input, Volume output)
+    {
+        input.fillGradients(i -> 0.0);
+
+        // Only the first maximum of each channel receives the gradient
+        for(int z = 0; z < input.getDepth(); z++)
+        {
+            final double max = output.get(z);
+
+            search:
+            for(int y = 0; y < input.getHeight(); y++)
+            {
+                for(int x = 0; x < input.getWidth(); x++)
+                {
+                    if(input.get(x, y, z) == max)
+                    {
+                        input.setGradient(x, y, z, output.getGradient(z));
+                        break search;
+                    }
+                }
+            }
+        }
+    }
+}
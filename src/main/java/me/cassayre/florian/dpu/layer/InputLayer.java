@@ -15,17 +15,17 @@ public class InputLayer extends Layer
     @Override
     public Dimensions getInputDimensions()
     {
-        return volume.getDimensions();
+        return getOutputDimensions();
     }
 
     @Override
-    public void forwardPropagation(Volume input)
+    public void forwardPropagation(Volume input, Volume output)
     {
-        volume.fillValues((Function<Integer, Double>) input::get);
+        output.fillValues((Function<Integer, Double>) input::get);
     }
 
     @Override
-    public void backwardPropagation(Volume input)
+    public void backwardPropagation(Volume input, Volume output)
     {
         // Empty
     }
@@ -1,21 +1,24 @@
 package me.cassayre.florian.dpu.layer;
 
 import me.cassayre.florian.dpu.util.volume.Dimensions;
-import me.cassayre.florian.dpu.util.Utils;
 import me.cassayre.florian.dpu.util.volume.Volume;
 
 public abstract class Layer
 {
-    protected final Volume volume;
+    private final Dimensions outputDimensions;
+    private Volume volume; // Allocated on first use, layers run from an execution plan never need it
     private boolean isTrainable = true;
 
     public Layer(Dimensions dimensions)
     {
-        this.volume = new Volume(dimensions);
+        this.outputDimensions = dimensions;
     }
 
     public Volume getOutput()
     {
+        if(volume == null)
+            volume = new Volume(outputDimensions);
+
         return volume;
     }
 
@@ -23,18 +26,63 @@ public abstract class Layer
 
     public Dimensions getOutputDimensions()
     {
-        return volume.getDimensions();
+        return outputDimensions;
+    }
+
+    public void forwardPropagation(Volume input)
+    {
+        forwardPropagation(input, getOutput());
     }
 
-    public abstract void forwardPropagation(Volume input);
+    // Must only write to the output volume: the same layer may run concurrently in several execution contexts
+    public abstract void forwardPropagation(Volume input, Volume output);
 
-    public abstract void backwardPropagation(Volume input);
+    // A forward propagation followed by a backward one only differs for layers normalizing with the statistics of the batch
+    public void forwardPropagation(Volume input, Volume output, boolean isTraining)
+    {
+        forwardPropagation(input, output);
+    }
+
+    // Propagates the samples of a batch one after the other, layers depending on the whole batch override both methods
+    public void forwardPropagation(Volume[] inputs, Volume[] outputs, boolean isTraining)
+    {
+        for(int s = 0; s < inputs.length; s++)
+            forwardPropagation(inputs[s], outputs[s], isTraining);
+    }
+
+    public void backwardPropagation(Volume[] inputs, Volume[] outputs)
+    {
+        for(int s = 0; s < inputs.length; s++)
+            backwardPropagation(inputs[s], outputs[s]);
+    }
+
+    public void backwardPropagation(Volume input)
+    {
+        backwardPropagation(input, getOutput());
+    }
+
+    public abstract void backwardPropagation(Volume input, Volume output);
 
     public Volume[] getWeights()
     {
         return new Volume[] {};
     }
 
+    // Number of leading volumes of getWeights holding the filters (the rows of the weight matrix), the following ones are vectors such as the biases
+    public int getFilterCount()
+    {
+        return 0;
+    }
+
+    // Creates a layer computing the same function with other weights (given in the order of getWeights)
+    public Layer withWeights(Volume[] weights)
+    {
+        if(weights.length != 0)
+            throw new IllegalArgumentException("The layer has no weights");
+
+        return this; // Layers without weights can be shared
+    }
+
     public boolean isTrainable()
     {
         return isTrainable;
@@ -47,7 +95,7 @@ public abstract class Layer
 
     protected void checkSameDimensions(Volume input)
     {
-        if(!Utils.areSameDimensions(input, volume))
+        if(!input.getDimensions().equals(outputDimensions))
             throw new IllegalArgumentException("Incompatible dimensions");
     }
 
@@ -59,10 +107,67 @@ public abstract class Layer
 
     public static enum ActivationFunctionType
     {
-        LINEAR,
-        RELU,
-        SIGMOID,
-        TANH;
+        LINEAR
+        {
+            @Override
+            public double apply(double x)
+            {
+                return x;
+            }
+
+            @Override
+            public double derivative(double y)
+            {
+                return 1.0;
+            }
+        },
+        RELU
+        {
+            @Override
+            public double apply(double x)
+            {
+                return Math.max(x, 0.0);
+            }
+
+            @Override
+            public double derivative(double y)
+            {
+                return y > 0.0 ? 1.0 : 0.0;
+            }
+        },
+        SIGMOID
+        {
+            @Override
+            public double apply(double x)
+            {
+                return 1.0 / (1 + Math.exp(-x));
+            }
+
+            @Override
+            public double derivative(double y)
+            {
+                return y * (1 - y);
+            }
+        },
+        TANH
+        {
+            @Override
+            public double apply(double x)
+            {
+                return Math.tanh(x);
+            }
+
+            @Override
+            public double derivative(double y)
+            {
+                return 1 - y * y;
+            }
+        };
+
+        public abstract double apply(double x);
+
+        // Expressed in terms of the output y = apply(x), so that fused layers don't need to keep x
+        public abstract double derivative(double y);
     }
 
     public static enum OutputFunctionType
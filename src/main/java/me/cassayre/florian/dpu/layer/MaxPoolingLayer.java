@@ -20,13 +20,15 @@ public class MaxPoolingLayer extends Layer
     @Override
     public Dimensions getInputDimensions()
     {
-        return new Dimensions(volume.getWidth() * stride, volume.getHeight() * stride, volume.getDepth());
+        final Dimensions outputDimensions = getOutputDimensions();
+
+        return new Dimensions(outputDimensions.getWidth() * stride, outputDimensions.getHeight() * stride, outputDimensions.getDepth());
     }
 
     @Override
-    public void forwardPropagation(Volume input)
+    public void forwardPropagation(Volume input, Volume output)
     {
-        volume.foreach((x, y, z) ->
+        output.foreach((x, y, z) ->
         {
             double max = Double.NEGATIVE_INFINITY;
 
@@ -38,18 +40,18 @@ public class MaxPoolingLayer extends Layer
                 }
             }
 
-            volume.set(x, y, z, max);
+            output.set(x, y, z, max);
         });
     }
 
     @Override
-    public void backwardPropagation(Volume input)
+    public void backwardPropagation(Volume input, Volume output)
     {
-        volume.foreach((x, y, z) ->
+        output.foreach((x, y, z) ->
         {
-            final double chain = volume.getGradient(x, y, z);
+            final double chain = output.getGradient(x, y, z);
 
-            final double max = volume.get(x, y, z);
+            final double max = output.get(x, y, z);
 
             for(int y1 = 0; y1 < stride; y1++)
             {
@@ -62,4 +64,9 @@ public class MaxPoolingLayer extends Layer
             }
         });
     }
+
+    public int getStride()
+    {
+        return stride;
+    }
 }
@@ -15,33 +15,35 @@ public class MeanSquaresLayer extends OutputLayer
     @Override
     public Dimensions getInputDimensions()
     {
-        return volume.getDimensions();
+        return getOutputDimensions();
     }
 
     @Override
-    public void forwardPropagation(Volume input)
+    public void forwardPropagation(Volume input, Volume output)
     {
-        volume.fillValues((Function<Integer, Double>) input::get);
+        output.fillValues((Function<Integer, Double>) input::get);
     }
 
     @Override
-    public void backwardPropagation(Volume input)
+    public void backwardPropagation(Volume input, Volume output)
     {
-        input.fillGradients((Function<Integer, Double>) volume::getGradient);
+        input.fillGradients((Function<Integer, Double>) output::getGradient);
     }
 
     @Override
-    public void backwardPropagationExpected(Volume expected)
+    public double backwardPropagationExpected(Volume output, Volume expected)
     {
-        loss = 0.0;
+        double loss = 0.0;
 
-        volume.foreach(i ->
+        for(int i = 0; i < output.getSize(); i++)
         {
-            final double v = volume.get(i) - expected.get(i);
+            final double v = output.get(i) - expected.get(i);
 
-            volume.setGradient(i, v);
+            output.setGradient(i, v);
 
             loss += v * v;
-        });
+        }
+
+        return loss;
     }
 }
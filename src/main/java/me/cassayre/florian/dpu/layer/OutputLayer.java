@@ -15,10 +15,15 @@ public abstract class OutputLayer extends Layer
     @Override
     public Dimensions getInputDimensions()
     {
-        return volume.getDimensions();
+        return getOutputDimensions();
     }
 
-    public abstract void backwardPropagationExpected(Volume expected);
+    public void backwardPropagationExpected(Volume expected)
+    {
+        loss = backwardPropagationExpected(getOutput(), expected);
+    }
+
+    public abstract double backwardPropagationExpected(Volume output, Volume expected);
 
     public double getLoss()
     {
@@ -28,9 +28,9 @@ public class PaddingLayer extends Layer
     }
 
     @Override
-    public void forwardPropagation(Volume input)
+    public void forwardPropagation(Volume input, Volume output)
     {
-        volume.fillValues((x, y, z) ->
+        output.fillValues((x, y, z) ->
         {
             if(isInBounds(x - padX, y - padY))
                 return input.get(x - padX, y - padY, z);
@@ -39,10 +39,10 @@ public class PaddingLayer extends Layer
     }
 
     @Override
-    public void backwardPropagation(Volume input)
+    public void backwardPropagation(Volume input, Volume output)
     {
         // Not working properly
-        volume.fillGradients((x, y, z) ->
+        output.fillGradients((x, y, z) ->
         {
             if(isInBounds(x - padX, y - padY))
                 return input.getGradient(x - padX, y - padY, z);
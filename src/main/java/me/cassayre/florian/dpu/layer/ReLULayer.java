@@ -13,18 +13,18 @@ public class ReLULayer extends Layer
     @Override
     public Dimensions getInputDimensions()
     {
-        return volume.getDimensions();
+        return getOutputDimensions();
     }
 
     @Override
-    public void forwardPropagation(Volume input)
+    public void forwardPropagation(Volume input, Volume output)
     {
-        volume.fillValues(i -> Math.max(input.get(i), 0.0));
+        output.fillValues(i -> Math.max(input.get(i), 0.0));
     }
 
     @Override
-    public void backwardPropagation(Volume input)
+    public void backwardPropagation(Volume input, Volume output)
     {
-        input.fillGradients(i -> input.get(i) > 0.0 ? volume.getGradient(i) : 0.0);
+        input.fillGradients(i -> input.get(i) > 0.0 ? output.getGradient(i) : 0.0);
     }
 }
@@ -24,16 +24,16 @@ public class ReshapeLayer extends Layer
     }
 
     @Override
-    public void forwardPropagation(Volume input)
+    public void forwardPropagation(Volume input, Volume output)
     {
         int i = 0;
-        for(int z = 0; z < volume.getDepth(); z++)
+        for(int z = 0; z < output.getDepth(); z++)
         {
-            for(int y = 0; y < volume.getHeight(); y++)
+            for(int y = 0; y < output.getHeight(); y++)
             {
-                for(int x = 0; x < volume.getWidth(); x++)
+                for(int x = 0; x < output.getWidth(); x++)
                 {
-                    volume.set(x, y, z, input.get(i));
+                    output.set(x, y, z, input.get(i));
                     i++;
                 }
             }
@@ -41,16 +41,16 @@ public class ReshapeLayer extends Layer
     }
 
     @Override
-    public void backwardPropagation(Volume input)
+    public void backwardPropagation(Volume input, Volume output)
     {
         int i = 0;
-        for(int z = 0; z < volume.getDepth(); z++)
+        for(int z = 0; z < output.getDepth(); z++)
         {
-            for(int y = 0; y < volume.getHeight(); y++)
+            for(int y = 0; y < output.getHeight(); y++)
             {
-                for(int x = 0; x < volume.getWidth(); x++)
+                for(int x = 0; x < output.getWidth(); x++)
                 {
-                    input.setGradient(i, volume.getGradient(x, y, z));
+                    input.setGradient(i, output.getGradient(x, y, z));
                     i++;
                 }
             }
@@ -13,22 +13,22 @@ public class SigmoidLayer extends Layer
     @Override
     public Dimensions getInputDimensions()
     {
-        return volume.getDimensions();
+        return getOutputDimensions();
     }
 
     @Override
-    public void forwardPropagation(Volume input)
+    public void forwardPropagation(Volume input, Volume output)
     {
-        volume.fillValues(i -> sigmoid(input.get(i)));
+        output.fillValues(i -> sigmoid(input.get(i)));
     }
 
     @Override
-    public void backwardPropagation(Volume input)
+    public void backwardPropagation(Volume input, Volume output)
     {
         input.fillGradients(i ->
         {
-            final double v = volume.get(i);
-            return v * (1 - v) * volume.getGradient(i);
+            final double v = output.get(i);
+            return v * (1 - v) * output.getGradient(i);
         });
     }
 
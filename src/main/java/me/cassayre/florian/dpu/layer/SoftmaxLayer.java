@@ -3,70 +3,74 @@ package me.cassayre.florian.dpu.layer;
 import me.cassayre.florian.dpu.util.volume.Dimensions;
 import me.cassayre.florian.dpu.util.volume.Volume;
 
-import java.util.function.Function;
-
 public class SoftmaxLayer extends OutputLayer
 {
-    private double max, sum;
-
     private static final double LN_2 = Math.log(2);
 
-    public SoftmaxLayer(Dimensions dimensions)
+    private final ActivationFunctionType inputFunction; // Fused activation applied to the input
+
+    public SoftmaxLayer(Dimensions dimensions, ActivationFunctionType inputFunction)
     {
         super(dimensions);
+
+        this.inputFunction = inputFunction;
+    }
+
+    public SoftmaxLayer(Dimensions dimensions)
+    {
+        this(dimensions, ActivationFunctionType.LINEAR);
     }
 
     @Override
     public Dimensions getInputDimensions()
     {
-        return volume.getDimensions();
+        return getOutputDimensions();
     }
 
     @Override
-    public void forwardPropagation(Volume input)
+    public void forwardPropagation(Volume input, Volume output)
     {
-        max = Double.NEGATIVE_INFINITY;
-        input.foreach(i ->
-        {
-            final double d = input.get(i);
-            max = Math.max(d, max);
-        });
+        double max = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < input.getSize(); i++)
+            max = Math.max(inputFunction.apply(input.get(i)), max);
 
-        sum = 0.0;
-        input.foreach(i ->
-        {
-            final double d = input.get(i);
-            sum += Math.exp(d - max);
-        });
+        double sum = 0.0;
+        for(int i = 0; i < input.getSize(); i++)
+            sum += Math.exp(inputFunction.apply(input.get(i)) - max);
 
-        input.foreach(i ->
-        {
-            volume.set(i, Math.exp(input.get(i) - max) / sum);
-        });
+        for(int i = 0; i < input.getSize(); i++)
+            output.set(i, Math.exp(inputFunction.apply(input.get(i)) - max) / sum);
     }
 
     @Override
-    public void backwardPropagation(Volume input)
+    public void backwardPropagation(Volume input, Volume output)
     {
-        input.fillGradients((Function<Integer, Double>) volume::getGradient);
+        input.fillGradients(i -> output.getGradient(i) * inputFunction.derivative(inputFunction.apply(input.get(i))));
     }
 
     @Override
-    public void backwardPropagationExpected(Volume expected)
+    public double backwardPropagationExpected(Volume output, Volume expected)
     {
-        loss = 0.0;
+        double loss = 0.0;
 
-        expected.foreach(i ->
+        for(int i = 0; i < expected.getSize(); i++)
         {
-            volume.setGradient(i, (volume.get(i) - expected.get(i)));
+            output.setGradient(i, (output.get(i) - expected.get(i)));
 
             final double exp = expected.get(i);
-            final double actual = volume.get(i);
+            final double actual = output.get(i);
 
             final double l = exp * log2(actual);
 
             loss -= l;
-        });
+        }
+
+        return loss;
+    }
+
+    public ActivationFunctionType getInputFunction()
+    {
+        return inputFunction;
     }
 
     private double log2(double x)
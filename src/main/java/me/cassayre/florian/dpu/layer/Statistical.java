@@ -0,0 +1,36 @@
+package me.cassayre.florian.dpu.layer;
+
+/**
+ * A layer keeping statistics of the training samples, such as the running averages of {@link BatchNormalizationLayer}.
+ * Like the gradients of the weights, the statistics of the samples are accumulated by the backward propagations into
+ * each copy of the layer (see {@link Layer#withWeights}), so that copies can be trained concurrently. The trainers merge
+ * the copies and apply the statistics along with each update of the weights.
+ */
+public interface Statistical
+{
+    /**
+     * Adds the statistics accumulated by a copy of this layer to the ones of this layer, and clears them in the copy.
+     * @param copy the copy
+     */
+    void mergeStatistics(Statistical copy);
+
+    // Applies the accumulated statistics and clears them
+    void updateStatistics();
+
+    // The running statistics are saved and restored by checkpoints, as a flat array, see getStatistics
+    int getStatisticsSize();
+
+    /**
+     * Copies the running statistics, the ones used at inference.
+     * @param statistics the destination
+     * @param offset the index of the first value in the destination
+     */
+    void getStatistics(double[] statistics, int offset);
+
+    /**
+     * Replaces the running statistics, and clears the statistics accumulated since the last update.
+     * @param statistics the source
+     * @param offset the index of the first value in the source
+     */
+    void setStatistics(double[] statistics, int offset);
+}
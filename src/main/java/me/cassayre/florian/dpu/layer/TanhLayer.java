@@ -13,19 +13,19 @@ public class TanhLayer extends Layer
     @Override
     public Dimensions getInputDimensions()
     {
-        return volume.getDimensions();
+        return getOutputDimensions();
     }
 
     @Override
-    public void forwardPropagation(Volume input)
+    public void forwardPropagation(Volume input, Volume output)
     {
-        volume.fillValues(i -> Math.tanh(input.get(i)));
+        output.fillValues(i -> Math.tanh(input.get(i)));
     }
 
     @Override
-    public void backwardPropagation(Volume input)
+    public void backwardPropagation(Volume input, Volume output)
     {
-        input.fillGradients(i -> 1 - square(volume.get(i)));
+        input.fillGradients(i -> (1 - square(output.get(i))) * output.getGradient(i));
     }
 
     private double square(double x)
@@ -0,0 +1,15 @@
+package me.cassayre.florian.dpu.layer;
+
+/**
+ * A layer with several implementations of the same function, the fastest one depending on the dimensions and on the
+ * machine. See {@link me.cassayre.florian.dpu.network.execution.Autotuner}.
+ * @param <A> the enumeration of the implementations
+ */
+public interface Tunable<A extends Enum<A>>
+{
+    A[] getAlgorithms();
+
+    A getAlgorithm();
+
+    void setAlgorithm(A algorithm);
+}
@@ -27,7 +27,7 @@ public class UpSampleLayer extends Layer
     }
 
     @Override
-    public void forwardPropagation(Volume input)
+    public void forwardPropagation(Volume input, Volume output)
     {
         input.foreach((x, y, z) ->
         {
@@ -36,14 +36,14 @@ public class UpSampleLayer extends Layer
             {
                 for(int x1 = 0; x1 < stride; x1++)
                 {
-                    volume.set(x * stride + x1, y * stride + y1, z, v);
+                    output.set(x * stride + x1, y * stride + y1, z, v);
                 }
             }
         });
     }
 
     @Override
-    public void backwardPropagation(Volume input)
+    public void backwardPropagation(Volume input, Volume output)
     {
         input.foreach((x, y, z) ->
         {
@@ -52,11 +52,16 @@ public class UpSampleLayer extends Layer
             {
                 for(int x1 = 0; x1 < stride; x1++)
                 {
-                    v += volume.getGradient(x * stride + x1, y * stride + y1, z);
+                    v += output.getGradient(x * stride + x1, y * stride + y1, z);
                 }
             }
 
             input.setGradient(x, y, z, v / strideSq);
         });
     }
+
+    public int getStride()
+    {
+        return stride;
+    }
 }
@@ -9,11 +9,53 @@ public abstract class Network
 {
     public abstract void forwardPropagation(Volume input);
 
+    // The trainers go forward with isTraining set, see Layer#forwardPropagation(Volume, Volume, boolean)
+    public void forwardPropagation(Volume input, boolean isTraining)
+    {
+        forwardPropagation(input);
+    }
+
     public abstract void backwardPropagation(Volume expectedOutput);
 
+    /**
+     * Propagates a mini-batch forward, when training, then backward, accumulating the gradients of all its samples.
+     * By default the samples are propagated one after the other; networks running the layers on the whole batch at once
+     * let the layers normalize with the statistics of the batch (see {@link Layer#forwardPropagation(Volume[], Volume[], boolean)}).
+     * @param inputs the inputs
+     * @param expectedOutputs the expected outputs
+     * @return the sum of the losses of the samples
+     */
+    public double propagateBatch(List<Volume> inputs, List<Volume> expectedOutputs)
+    {
+        double sum = 0.0;
+
+        for(int i = 0; i < inputs.size(); i++)
+        {
+            forwardPropagation(inputs.get(i), true);
+
+            backwardPropagation(expectedOutputs.get(i));
+
+            sum += getLoss();
+        }
+
+        return sum;
+    }
+
     public abstract Volume getOutput();
 
     public abstract double getLoss();
 
     public abstract List<Layer> getLayers();
+
+    public abstract Parameters getParameters();
+
+    // Factor by which the gradients are scaled by the backward propagation (trainers divide by it before updating)
+    public double getLossScale()
+    {
+        return 1.0;
+    }
+
+    // Called by trainers after each update, depending on whether the scaled gradients overflowed
+    public void updateLossScale(boolean isFinite)
+    {}
 }
@@ -0,0 +1,124 @@
+package me.cassayre.florian.dpu.network;
+
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.util.volume.Volume;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The weights of a list of layers laid out in a single contiguous array, along with their gradients.
+ * The weight volumes of the layers are views into these arrays, so optimizers and gradient exchange can work on the
+ * arrays directly. The weights of layer <code>l</code> occupy the indices <code>[getOffset(l), getOffset(l + 1))</code>.
+ */
+public final class Parameters
+{
+    private final List<Layer> layers;
+    private final double[] values, gradients;
+    private final int[] offsets;
+
+    private Parameters(List<Layer> source, double[] values, double[] gradients, boolean copy)
+    {
+        this.values = values;
+        this.gradients = gradients;
+        this.offsets = new int[source.size() + 1];
+
+        final List<Layer> layers = new ArrayList<>(source.size());
+
+        int offset = 0;
+        for(int l = 0; l < source.size(); l++)
+        {
+            final Layer layer = source.get(l);
+            final Volume[] weights = layer.getWeights();
+
+            offsets[l] = offset;
+
+            if(weights.length == 0)
+            {
+                layers.add(layer);
+                continue;
+            }
+
+            final Volume[] views = new Volume[weights.length];
+            for(int j = 0; j < weights.length; j++)
+            {
+                final Volume weight = weights[j];
+
+                views[j] = Volume.wrap(weight.getDimensions(), values, gradients, offset);
+
+                if(copy)
+                {
+                    for(int k = 0; k < weight.getSize(); k++)
+                    {
+                        values[offset + k] = weight.get(k);
+                        gradients[offset + k] = weight.getGradient(k);
+                    }
+                }
+
+                offset += weight.getSize();
+            }
+
+            layers.add(layer.withWeights(views));
+        }
+
+        offsets[source.size()] = offset;
+
+        this.layers = Collections.unmodifiableList(layers);
+    }
+
+    /**
+     * Copies the weights of the layers into a new contiguous buffer.
+     * @param layers the layers
+     * @return the parameters, holding new layers bound to the buffer (layers without weights are reused)
+     */
+    public static Parameters of(List<Layer> layers)
+    {
+        int size = 0;
+        for(Layer layer : layers)
+            for(Volume weight : layer.getWeights())
+                size += weight.getSize();
+
+        return new Parameters(layers, new double[size], new double[size], true);
+    }
+
+    /**
+     * Creates layers sharing the values of these parameters but having their own gradients (initialized with zeroes).
+     * @return the replicated parameters
+     */
+    public Parameters replicate()
+    {
+        return new Parameters(layers, values, new double[gradients.length], false);
+    }
+
+    public List<Layer> getLayers()
+    {
+        return layers;
+    }
+
+    public double[] getValues()
+    {
+        return values;
+    }
+
+    public double[] getGradients()
+    {
+        return gradients;
+    }
+
+    public int getOffset(int layer)
+    {
+        return offsets[layer];
+    }
+
+    public int getSize()
+    {
+        return values.length;
+    }
+
+    public void zeroGradients()
+    {
+        Arrays.fill(gradients, 0.0);
+    }
+}
@@ -0,0 +1,91 @@
+package me.cassayre.florian.dpu.network.architecture;
+
+import me.cassayre.florian.dpu.layer.*;
+import me.cassayre.florian.dpu.util.volume.Volume;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Removes the {@link me.cassayre.florian.dpu.layer.BatchNormalizationLayer}s of a network by folding their scale and shift
+ * into the weights and biases of the {@link me.cassayre.florian.dpu.layer.ConvolutionLayer} or
+ * {@link me.cassayre.florian.dpu.layer.FullyConnectedLayer} right before them (provided they have no fused activation).
+ */
+public final class BatchNormalizationFolding
+{
+    private BatchNormalizationFolding()
+    {}
+
+    /**
+     * Creates a network computing the same function as <code>network</code> at inference time, without batch normalization layers.
+     * Normalization layers that do not directly follow a convolution or a fully connected layer are kept.
+     * The new network has its own copy of the weights and of the running statistics.
+     * @param network the network to fold
+     * @return the folded network
+     */
+    public static FeedForwardNetwork fold(FeedForwardNetwork network)
+    {
+        final List<Layer> layers = network.getLayers();
+        final List<Layer> hiddenLayers = new ArrayList<>(layers.size());
+
+        for(int i = 1; i < layers.size() - 1; i++)
+        {
+            final Layer layer = layers.get(i);
+            final Layer next = layers.get(i + 1);
+
+            if(next instanceof BatchNormalizationLayer && isFoldable(layer))
+            {
+                final BatchNormalizationLayer normalization = (BatchNormalizationLayer) next;
+                final Volume[] weights = layer.getWeights();
+                final Volume[] filters = new Volume[weights.length - 1];
+                final Volume biases = new Volume(weights[weights.length - 1].getDimensions());
+
+                for(int j = 0; j < filters.length; j++)
+                {
+                    final Volume filter = weights[j];
+                    final double scale = normalization.getScale(j);
+
+                    filters[j] = new Volume(filter.getDimensions());
+                    filters[j].fillValues(k -> filter.get(k) * scale);
+
+                    biases.set(j, weights[weights.length - 1].get(j) * scale + normalization.getShift(j));
+                }
+
+                final Layer folded;
+                if(layer instanceof ConvolutionLayer)
+                {
+                    final ConvolutionLayer convolution = (ConvolutionLayer) layer;
+                    folded = new ConvolutionLayer(convolution.getInputDimensions(), filters, biases, convolution.getStrideX(), convolution.getStrideY(), convolution.getPaddingX(), convolution.getPaddingY());
+                }
+                else
+                {
+                    folded = new FullyConnectedLayer(filters, biases);
+                }
+
+                folded.setTrainable(layer.isTrainable());
+                hiddenLayers.add(folded);
+
+                i++; // Skip the normalization layer
+            }
+            else if(layer instanceof BatchNormalizationLayer)
+            {
+                hiddenLayers.add(((BatchNormalizationLayer) layer).withOwnStatistics()); // The network only copies the weights
+            }
+            else
+            {
+                hiddenLayers.add(layer);
+            }
+        }
+
+        return new FeedForwardNetwork((InputLayer) layers.get(0), hiddenLayers, (OutputLayer) layers.get(layers.size() - 1));
+    }
+
+    private static boolean isFoldable(Layer layer)
+    {
+        if(layer instanceof ConvolutionLayer)
+            return ((ConvolutionLayer) layer).getActivationFunction() == Layer.ActivationFunctionType.LINEAR;
+        else if(layer instanceof FullyConnectedLayer)
+            return ((FullyConnectedLayer) layer).getActivationFunction() == Layer.ActivationFunctionType.LINEAR;
+        return false;
+    }
+}
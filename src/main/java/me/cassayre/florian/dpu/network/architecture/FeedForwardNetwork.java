@@ -2,18 +2,42 @@ package me.cassayre.florian.dpu.network.architecture;
 
 import me.cassayre.florian.dpu.layer.*;
 import me.cassayre.florian.dpu.network.Network;
+import me.cassayre.florian.dpu.network.Parameters;
+import me.cassayre.florian.dpu.network.execution.Autotuner;
+import me.cassayre.florian.dpu.network.execution.ExecutionContext;
+import me.cassayre.florian.dpu.network.execution.ExecutionPlan;
 import me.cassayre.florian.dpu.util.volume.Dimensions;
 import me.cassayre.florian.dpu.util.Utils;
 import me.cassayre.florian.dpu.util.volume.Volume;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
 
 public class FeedForwardNetwork extends Network
 {
     private final List<Layer> layers;
+    private final Parameters parameters;
 
+    private final ThreadLocal<ExecutionContext> contexts; // Activations used by predict, one set per thread
+
+    private static final int PREDICTION_CHUNKS_PER_THREAD = 4; // Balances the load when some inputs take longer
+
+    private static final double INITIAL_LOSS_SCALE = 65536.0;
+    private static final int LOSS_SCALE_GROWTH_INTERVAL = 2000; // Number of finite updates before the scale is doubled
+
+    private int checkpointInterval = 1;
+    private ExecutionPlan.Precision precision = ExecutionPlan.Precision.DOUBLE;
+    private ExecutionContext training; // Runs the propagations when checkpoints or mixed precision are used
+    private ExecutionContext batch; // Runs the mini-batches through normalizations otherwise, created on first use
+
+    private double lossScale = INITIAL_LOSS_SCALE;
+    private int finiteUpdates = 0;
+
+    // The weights of the layers are copied into a contiguous buffer, see Parameters
     public FeedForwardNetwork(InputLayer inputLayer, List<Layer> hiddenLayers, OutputLayer outputLayer)
     {
         final List<Layer> layers = new ArrayList<>(hiddenLayers.size() + 2);
@@ -33,16 +57,32 @@ public class FeedForwardNetwork extends Network
             previous = layer.getOutputDimensions();
         }
 
-        this.layers = Collections.unmodifiableList(layers);
+        this.parameters = Parameters.of(layers);
+        this.layers = parameters.getLayers();
+
+        final ExecutionPlan plan = ExecutionPlan.compile(parameters, ExecutionPlan.Mode.INFERENCE);
+        this.contexts = ThreadLocal.withInitial(plan::createContext);
     }
 
     @Override
     public void forwardPropagation(Volume input)
     {
+        forwardPropagation(input, false);
+    }
+
+    @Override
+    public void forwardPropagation(Volume input, boolean isTraining)
+    {
+        if(training != null)
+        {
+            training.forwardPropagation(input, isTraining);
+            return;
+        }
+
         Volume previous = input;
         for(Layer layer : layers)
         {
-            layer.forwardPropagation(previous);
+            layer.forwardPropagation(previous, layer.getOutput(), isTraining);
             previous = layer.getOutput();
         }
     }
@@ -50,6 +90,13 @@ public class FeedForwardNetwork extends Network
     @Override
     public void backwardPropagation(Volume expectedOutput)
     {
+        if(training != null)
+        {
+            training.setLossScale(getLossScale());
+            training.backwardPropagation(expectedOutput);
+            return;
+        }
+
         ((OutputLayer) layers.get(layers.size() - 1)).backwardPropagationExpected(expectedOutput); // Output layer
 
         for(int i = layers.size() - 1; i >= 1; i--)
@@ -61,15 +108,44 @@ public class FeedForwardNetwork extends Network
         }
     }
 
+    /**
+     * Propagates a mini-batch, see {@link Network#propagateBatch(List, List)}. When the network contains normalizations
+     * (see {@link Statistical}), the batch runs layer by layer in an execution context, so that they normalize with the
+     * statistics of the batch; the other networks propagate the samples one after the other.
+     */
+    @Override
+    public double propagateBatch(List<Volume> inputs, List<Volume> expectedOutputs)
+    {
+        if(training != null)
+        {
+            training.setLossScale(getLossScale());
+            return training.propagateBatch(inputs, expectedOutputs);
+        }
+
+        if(layers.stream().noneMatch(layer -> layer instanceof Statistical))
+            return super.propagateBatch(inputs, expectedOutputs);
+
+        if(batch == null)
+            batch = ExecutionPlan.compile(parameters, ExecutionPlan.Mode.TRAINING).createContext();
+
+        return batch.propagateBatch(inputs, expectedOutputs);
+    }
+
     @Override
     public Volume getOutput()
     {
+        if(training != null)
+            return training.getOutput();
+
         return layers.get(layers.size() - 1).getOutput();
     }
 
     @Override
     public double getLoss()
     {
+        if(training != null)
+            return training.getLoss();
+
         return ((OutputLayer) layers.get(layers.size() - 1)).getLoss();
     }
 
@@ -79,6 +155,184 @@ public class FeedForwardNetwork extends Network
         return layers;
     }
 
+    /**
+     * Computes the output of the network without using the volumes owned by the layers.
+     * Each thread runs in its own execution context and only reads the weights, so this method can be called
+     * concurrently on the same network (as long as it isn't being trained at the same time).
+     * @param input the input of the network
+     * @param output the volume in which the output is copied
+     */
+    public void predict(Volume input, Volume output)
+    {
+        final ExecutionContext context = contexts.get();
+
+        context.forwardPropagation(input);
+
+        final Volume result = context.getOutput();
+        for(int i = 0; i < result.getSize(); i++)
+            output.set(i, result.get(i));
+    }
+
+    /**
+     * Computes the output of the network, see {@link #predict(Volume, Volume)}.
+     * @param input the input of the network
+     * @return a new volume containing the output
+     */
+    public Volume predict(Volume input)
+    {
+        final Volume output = new Volume(layers.get(layers.size() - 1).getOutputDimensions());
+
+        predict(input, output);
+
+        return output;
+    }
+
+    /**
+     * Computes the outputs of the network for a list of inputs, split into contiguous chunks processed concurrently
+     * by the threads of the pool (see {@link #predict(Volume, Volume)}).
+     * @param inputs the inputs
+     * @param pool the threads to use
+     * @return new volumes containing the outputs, in the order of the inputs
+     */
+    public List<Volume> predictAll(List<Volume> inputs, ForkJoinPool pool)
+    {
+        final Volume[] outputs = new Volume[inputs.size()];
+        final int chunks = Math.min(inputs.size(), pool.getParallelism() * PREDICTION_CHUNKS_PER_THREAD);
+
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks);
+        for(int c = 0; c < chunks; c++)
+        {
+            final int from = (int) ((long) inputs.size() * c / chunks), to = (int) ((long) inputs.size() * (c + 1) / chunks);
+
+            tasks.add(pool.submit(() ->
+            {
+                for(int i = from; i < to; i++)
+                    outputs[i] = predict(inputs.get(i));
+            }));
+        }
+
+        for(ForkJoinTask<?> task : tasks)
+            task.join();
+
+        return Arrays.asList(outputs);
+    }
+
+    /**
+     * Computes the outputs of the network for a list of inputs, using the common pool, see {@link #predictAll(List, ForkJoinPool)}.
+     * @param inputs the inputs
+     * @return new volumes containing the outputs, in the order of the inputs
+     */
+    public List<Volume> predictAll(List<Volume> inputs)
+    {
+        return predictAll(inputs, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Lazily maps a stream of inputs to their outputs. The propagations run concurrently if the stream is parallel,
+     * and the outputs keep the order of the inputs if the stream is ordered.
+     * @param inputs the inputs
+     * @return a stream of new volumes containing the outputs
+     */
+    public Stream<Volume> predictAll(Stream<Volume> inputs)
+    {
+        return inputs.map(this::predict);
+    }
+
+    @Override
+    public Parameters getParameters()
+    {
+        return parameters;
+    }
+
+    public ExecutionPlan compile(ExecutionPlan.Mode mode)
+    {
+        return ExecutionPlan.compile(parameters, mode);
+    }
+
+    /**
+     * Trades computation for memory when training: only the output of every <code>interval</code>-th layer is kept
+     * after the forward propagation, the others are recomputed during the backward propagation (see {@link ExecutionPlan}).
+     * An interval close to the square root of the number of layers minimizes the memory used by the activations.
+     * The outputs of the layers themselves are no longer updated while an interval is set.
+     * @param interval the number of layers between two checkpoints, or <code>1</code> to keep all the activations (default)
+     */
+    public void setCheckpointInterval(int interval)
+    {
+        if(interval < 1)
+            throw new IllegalArgumentException("The checkpoint interval must be strictly positive");
+
+        this.checkpointInterval = interval;
+
+        recompile();
+    }
+
+    public int getCheckpointInterval()
+    {
+        return checkpointInterval;
+    }
+
+    /**
+     * Enables mixed precision training: the activations and the gradients flowing between layers are stored in single
+     * precision (halving their memory, see {@link ExecutionPlan.Precision#MIXED}), while the weights, their gradients
+     * and the state of the trainers remain in double precision.
+     * The loss is scaled dynamically to keep small gradients representable: the scale is halved (and the update skipped)
+     * whenever the gradients overflow, and doubled after a number of updates without overflow.
+     * As with checkpoints, the outputs of the layers themselves are no longer updated.
+     * @param isMixed whether to use mixed precision
+     */
+    public void setMixedPrecision(boolean isMixed)
+    {
+        this.precision = isMixed ? ExecutionPlan.Precision.MIXED : ExecutionPlan.Precision.DOUBLE;
+        this.lossScale = INITIAL_LOSS_SCALE;
+        this.finiteUpdates = 0;
+
+        recompile();
+    }
+
+    public boolean isMixedPrecision()
+    {
+        return precision == ExecutionPlan.Precision.MIXED;
+    }
+
+    private void recompile()
+    {
+        training = checkpointInterval > 1 || isMixedPrecision() ? ExecutionPlan.compile(parameters, checkpointInterval, precision).createContext() : null;
+    }
+
+    @Override
+    public double getLossScale()
+    {
+        return isMixedPrecision() ? lossScale : 1.0;
+    }
+
+    @Override
+    public void updateLossScale(boolean isFinite)
+    {
+        if(!isMixedPrecision())
+            return;
+
+        if(!isFinite)
+        {
+            lossScale = Math.max(lossScale / 2, 1.0);
+            finiteUpdates = 0;
+        }
+        else if(++finiteUpdates == LOSS_SCALE_GROWTH_INTERVAL)
+        {
+            lossScale *= 2;
+            finiteUpdates = 0;
+        }
+    }
+
+    /**
+     * Creates an inference-only copy of this network: batch normalizations are folded, adjacent layers are fused
+     * and the gradients are dropped. The frozen network does not change when this one is trained further.
+     * @return the frozen network
+     */
+    public FrozenNetwork freeze()
+    {
+        return new FrozenNetwork(LayerFusion.fuse(BatchNormalizationFolding.fold(this).getLayers()));
+    }
+
     public static class Builder
     {
         private InputLayer inputLayer;
@@ -87,6 +341,10 @@ public class FeedForwardNetwork extends Network
 
         private Layer previous;
 
+        private boolean isFused = false;
+        private boolean isMixedPrecision = false;
+        private boolean isAutotuned = false;
+
         private boolean isBuilt = false;
 
         public Builder(Dimensions inputDimensions)
@@ -173,6 +431,33 @@ public class FeedForwardNetwork extends Network
             return this;
         }
 
+        public Builder batchNormalization()
+        {
+            checkBuilt();
+
+            layer(new BatchNormalizationLayer(previous.getOutputDimensions()));
+
+            return this;
+        }
+
+        public Builder globalAveragePool()
+        {
+            checkBuilt();
+
+            layer(new GlobalAveragePoolingLayer(previous.getOutputDimensions()));
+
+            return this;
+        }
+
+        public Builder globalMaxPool()
+        {
+            checkBuilt();
+
+            layer(new GlobalMaxPoolingLayer(previous.getOutputDimensions()));
+
+            return this;
+        }
+
         public Builder activationFunction(Layer.ActivationFunctionType functionType)
         {
             checkBuilt();
@@ -239,6 +524,36 @@ public class FeedForwardNetwork extends Network
             return this;
         }
 
+        // Fuses adjacent layers when the network is built, see LayerFusion (disabled by default)
+        public Builder fusion(boolean isFused)
+        {
+            checkBuilt();
+
+            this.isFused = isFused;
+
+            return this;
+        }
+
+        // Trains with single precision activations and gradients, see FeedForwardNetwork#setMixedPrecision (disabled by default)
+        public Builder mixedPrecision(boolean isMixedPrecision)
+        {
+            checkBuilt();
+
+            this.isMixedPrecision = isMixedPrecision;
+
+            return this;
+        }
+
+        // Chooses the fastest implementation of each layer when the network is built, see Autotuner (disabled by default)
+        public Builder autotune(boolean isAutotuned)
+        {
+            checkBuilt();
+
+            this.isAutotuned = isAutotuned;
+
+            return this;
+        }
+
         public void layer(Layer layer)
         {
             hiddenLayers.add(layer);
@@ -264,7 +579,28 @@ public class FeedForwardNetwork extends Network
 
             isBuilt = true;
 
-            return new FeedForwardNetwork(inputLayer, hiddenLayers, outputLayer);
+            final FeedForwardNetwork network;
+            if(isFused)
+            {
+                final List<Layer> layers = new ArrayList<>(hiddenLayers);
+                layers.add(outputLayer);
+
+                final List<Layer> fused = LayerFusion.fuse(layers);
+
+                network = new FeedForwardNetwork(inputLayer, fused.subList(0, fused.size() - 1), (OutputLayer) fused.get(fused.size() - 1));
+            }
+            else
+            {
+                network = new FeedForwardNetwork(inputLayer, hiddenLayers, outputLayer);
+            }
+
+            if(isMixedPrecision)
+                network.setMixedPrecision(true);
+
+            if(isAutotuned)
+                new Autotuner(Autotuner.getDefaultCache()).tune(network);
+
+            return network;
         }
 
         private void checkBuilt()
@@ -0,0 +1,244 @@
+package me.cassayre.florian.dpu.network.architecture;
+
+import me.cassayre.florian.dpu.layer.BatchNormalizationLayer;
+import me.cassayre.florian.dpu.layer.FullyConnectedLayer;
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.network.Network;
+import me.cassayre.florian.dpu.network.Parameters;
+import me.cassayre.florian.dpu.network.execution.ExecutionContext;
+import me.cassayre.florian.dpu.network.execution.ExecutionPlan;
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An inference-only copy of a {@link FeedForwardNetwork}, see {@link FeedForwardNetwork#freeze()}.
+ * Neither the weights nor the activations carry gradients, the output layer only computes its function (no loss) and
+ * the weights of the fully connected layers are packed for the forward pass.
+ * Any attempt to go backward or to train the network fails.
+ * Like {@link FeedForwardNetwork#predict(Volume, Volume)}, each thread runs in its own execution context, so the network
+ * can be evaluated concurrently.
+ */
+public final class FrozenNetwork extends Network
+{
+    private final List<Layer> layers;
+    private final long weightCount;
+
+    private final ThreadLocal<ExecutionContext> contexts;
+
+    FrozenNetwork(List<Layer> source)
+    {
+        int size = 0;
+        for(Layer layer : source)
+            if(!(layer instanceof FullyConnectedLayer))
+                for(Volume weight : layer.getWeights())
+                    size += weight.getSize();
+
+        final double[] values = new double[size]; // Shared by all the layers that aren't packed
+        final List<Layer> layers = new ArrayList<>(source.size());
+
+        long weightCount = 0;
+        int offset = 0;
+        for(Layer layer : source)
+        {
+            final Layer frozen;
+
+            if(layer instanceof FullyConnectedLayer)
+            {
+                frozen = new PackedFullyConnectedLayer((FullyConnectedLayer) layer);
+            }
+            else
+            {
+                final Volume[] weights = layer.getWeights();
+                final Volume[] views = new Volume[weights.length];
+
+                for(int j = 0; j < weights.length; j++)
+                {
+                    final Volume weight = weights[j];
+
+                    views[j] = Volume.wrap(weight.getDimensions(), values, null, offset);
+                    for(int k = 0; k < weight.getSize(); k++)
+                        values[offset + k] = weight.get(k);
+
+                    offset += weight.getSize();
+                }
+
+                final Layer copy = layer.withWeights(views);
+
+                // Unlike the weights, the running statistics of a normalization are shared by its copies
+                frozen = copy instanceof BatchNormalizationLayer ? ((BatchNormalizationLayer) copy).withOwnStatistics() : copy;
+            }
+
+            for(Volume weight : layer.getWeights())
+                weightCount += weight.getSize();
+
+            // Layers without weights are shared with the source network, which must not change
+            if(frozen != layer)
+                frozen.setTrainable(false);
+            layers.add(frozen);
+        }
+
+        this.layers = Collections.unmodifiableList(layers);
+        this.weightCount = weightCount;
+
+        final ExecutionPlan plan = ExecutionPlan.compile(layers, ExecutionPlan.Mode.INFERENCE); // Activations without gradients
+        this.contexts = ThreadLocal.withInitial(plan::createContext);
+    }
+
+    @Override
+    public void forwardPropagation(Volume input)
+    {
+        contexts.get().forwardPropagation(input);
+    }
+
+    @Override
+    public void backwardPropagation(Volume expectedOutput)
+    {
+        throw new UnsupportedOperationException("The network is frozen");
+    }
+
+    // The output of the last forward propagation made by the current thread
+    @Override
+    public Volume getOutput()
+    {
+        return contexts.get().getOutput();
+    }
+
+    @Override
+    public double getLoss()
+    {
+        throw new UnsupportedOperationException("The network is frozen");
+    }
+
+    @Override
+    public List<Layer> getLayers()
+    {
+        return layers;
+    }
+
+    // Frozen networks have no gradients, hence trainers reject them
+    @Override
+    public Parameters getParameters()
+    {
+        return null;
+    }
+
+    /**
+     * Computes the output of the network. This method can be called concurrently.
+     * @param input the input of the network
+     * @param output the volume in which the output is copied
+     */
+    public void predict(Volume input, Volume output)
+    {
+        final ExecutionContext context = contexts.get();
+
+        context.forwardPropagation(input);
+
+        final Volume result = context.getOutput();
+        for(int i = 0; i < result.getSize(); i++)
+            output.set(i, result.get(i));
+    }
+
+    /**
+     * Computes the output of the network, see {@link #predict(Volume, Volume)}.
+     * @param input the input of the network
+     * @return a new volume containing the output
+     */
+    public Volume predict(Volume input)
+    {
+        final Volume output = new Volume(layers.get(layers.size() - 1).getOutputDimensions());
+
+        predict(input, output);
+
+        return output;
+    }
+
+    /**
+     * The number of weights of the network (biases included).
+     * @return the number of weights
+     */
+    public long getWeightCount()
+    {
+        return weightCount;
+    }
+
+    // Weights interleaved by blocks of BLOCK neurons: each input value is read once per block instead of once per neuron
+    private static final class PackedFullyConnectedLayer extends Layer
+    {
+        private static final int BLOCK = 4;
+
+        private final Dimensions inputDimensions;
+        private final int inputs, neurons;
+        private final double[] weights; // [block][input][neuron in block], padded with zeroes
+        private final double[] biases;
+        private final ActivationFunctionType activationFunction;
+
+        PackedFullyConnectedLayer(FullyConnectedLayer layer)
+        {
+            super(layer.getOutputDimensions());
+
+            final Volume[] source = layer.getWeights();
+
+            this.inputDimensions = layer.getInputDimensions();
+            this.inputs = inputDimensions.getSize();
+            this.neurons = source.length - 1;
+            this.activationFunction = layer.getActivationFunction();
+
+            final int blocks = (neurons + BLOCK - 1) / BLOCK;
+            this.weights = new double[blocks * inputs * BLOCK];
+            this.biases = new double[neurons];
+
+            for(int i = 0; i < neurons; i++)
+            {
+                final int base = (i / BLOCK) * inputs * BLOCK + i % BLOCK;
+                for(int k = 0; k < inputs; k++)
+                    weights[base + k * BLOCK] = source[i].get(k);
+
+                biases[i] = source[neurons].get(i);
+            }
+        }
+
+        @Override
+        public Dimensions getInputDimensions()
+        {
+            return inputDimensions;
+        }
+
+        @Override
+        public void forwardPropagation(Volume input, Volume output)
+        {
+            for(int b = 0, start = 0; start < neurons; b++, start += BLOCK)
+            {
+                double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+
+                int w = b * inputs * BLOCK;
+                for(int k = 0; k < inputs; k++, w += BLOCK)
+                {
+                    final double v = input.get(k);
+                    s0 += v * weights[w];
+                    s1 += v * weights[w + 1];
+                    s2 += v * weights[w + 2];
+                    s3 += v * weights[w + 3];
+                }
+
+                final int remaining = neurons - start; // The last block may be partial
+                output.set(start, activationFunction.apply(s0 + biases[start]));
+                if(remaining > 1)
+                    output.set(start + 1, activationFunction.apply(s1 + biases[start + 1]));
+                if(remaining > 2)
+                    output.set(start + 2, activationFunction.apply(s2 + biases[start + 2]));
+                if(remaining > 3)
+                    output.set(start + 3, activationFunction.apply(s3 + biases[start + 3]));
+            }
+        }
+
+        @Override
+        public void backwardPropagation(Volume input, Volume output)
+        {
+            throw new UnsupportedOperationException("The network is frozen");
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package me.cassayre.florian.dpu.network.architecture;
+
+import me.cassayre.florian.dpu.layer.*;
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges adjacent layers into single layers so that the intermediate volumes are never materialized:
+ * <ul>
+ *     <li>a convolution or fully connected layer followed by an activation function applies it right after adding the bias;</li>
+ *     <li>a reshape that preserves the order of the values followed by a fully connected layer is removed;</li>
+ *     <li>an activation function followed by a softmax is applied by the softmax itself.</li>
+ * </ul>
+ * The fused layers compute the same function as the original ones; in a list they share their weights, in a network the
+ * weights are copied into the buffer of the new network.
+ */
+public final class LayerFusion
+{
+    private LayerFusion()
+    {}
+
+    /**
+     * Fuses the compatible adjacent layers of the list.
+     * @param layers the layers, in order
+     * @return a new list of layers
+     */
+    public static List<Layer> fuse(List<Layer> layers)
+    {
+        final List<Layer> fused = new ArrayList<>(layers);
+
+        int i = 0;
+        while(i + 1 < fused.size())
+        {
+            final Layer merged = merge(fused.get(i), fused.get(i + 1));
+
+            if(merged != null)
+            {
+                fused.set(i, merged);
+                fused.remove(i + 1); // The merged layer may be fused again with the next one
+            }
+            else
+            {
+                i++;
+            }
+        }
+
+        return fused;
+    }
+
+    /**
+     * Creates a network computing the same function as <code>network</code> with its compatible adjacent layers fused.
+     * @param network the network
+     * @return the fused network
+     */
+    public static FeedForwardNetwork fuse(FeedForwardNetwork network)
+    {
+        final List<Layer> layers = fuse(network.getLayers().subList(1, network.getLayers().size()));
+
+        return new FeedForwardNetwork((InputLayer) network.getLayers().get(0), layers.subList(0, layers.size() - 1), (OutputLayer) layers.get(layers.size() - 1));
+    }
+
+    private static Layer merge(Layer first, Layer second)
+    {
+        final Layer.ActivationFunctionType function = getActivationFunction(second);
+
+        if(first instanceof FullyConnectedLayer && function != null)
+        {
+            final FullyConnectedLayer layer = (FullyConnectedLayer) first;
+            if(layer.getActivationFunction() != Layer.ActivationFunctionType.LINEAR)
+                return null;
+
+            final Volume[] weights = layer.getWeights();
+
+            return trainable(new FullyConnectedLayer(neurons(weights), weights[weights.length - 1], function), layer);
+        }
+        else if(first instanceof ConvolutionLayer && function != null)
+        {
+            final ConvolutionLayer layer = (ConvolutionLayer) first;
+            if(layer.getActivationFunction() != Layer.ActivationFunctionType.LINEAR)
+                return null;
+
+            final Volume[] weights = layer.getWeights();
+
+            return trainable(new ConvolutionLayer(layer.getInputDimensions(), neurons(weights), weights[weights.length - 1], layer.getStrideX(), layer.getStrideY(), layer.getPaddingX(), layer.getPaddingY(), function), layer);
+        }
+        else if(first instanceof ReshapeLayer && second instanceof FullyConnectedLayer && isOrderPreserving(first.getOutputDimensions()))
+        {
+            final FullyConnectedLayer layer = (FullyConnectedLayer) second;
+            final Volume[] weights = layer.getWeights();
+            final Volume[] reshaped = neurons(weights);
+
+            for(int i = 0; i < reshaped.length; i++)
+                reshaped[i] = reshaped[i].reshape(first.getInputDimensions());
+
+            return trainable(new FullyConnectedLayer(reshaped, weights[weights.length - 1], layer.getActivationFunction()), layer);
+        }
+        else if(getActivationFunction(first) != null && second instanceof SoftmaxLayer && ((SoftmaxLayer) second).getInputFunction() == Layer.ActivationFunctionType.LINEAR)
+        {
+            return new SoftmaxLayer(second.getOutputDimensions(), getActivationFunction(first));
+        }
+
+        return null;
+    }
+
+    private static Layer.ActivationFunctionType getActivationFunction(Layer layer)
+    {
+        if(layer instanceof ReLULayer)
+            return Layer.ActivationFunctionType.RELU;
+        else if(layer instanceof SigmoidLayer)
+            return Layer.ActivationFunctionType.SIGMOID;
+        else if(layer instanceof TanhLayer)
+            return Layer.ActivationFunctionType.TANH;
+        return null;
+    }
+
+    // A reshape is a no-op on the storage when the values are written in the order they are read
+    private static boolean isOrderPreserving(Dimensions dimensions)
+    {
+        return dimensions.getDepth() == 1 || (dimensions.getWidth() == 1 && dimensions.getHeight() == 1);
+    }
+
+    private static Volume[] neurons(Volume[] weights)
+    {
+        final Volume[] array = new Volume[weights.length - 1];
+        System.arraycopy(weights, 0, array, 0, array.length);
+        return array;
+    }
+
+    private static Layer trainable(Layer fused, Layer original)
+    {
+        fused.setTrainable(original.isTrainable());
+        return fused;
+    }
+}
@@ -0,0 +1,376 @@
+package me.cassayre.florian.dpu.network.architecture;
+
+import me.cassayre.florian.dpu.layer.*;
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary file format for {@link FeedForwardNetwork}s.
+ * The file starts with a header followed by the descriptors of the layers (type, dimensions and hyper-parameters),
+ * then the weight section, aligned on {@value #ALIGNMENT} bytes: the parameter buffer of the network (see
+ * {@link me.cassayre.florian.dpu.network.Parameters}) stored as is. All the values are little-endian.
+ * Loading a network maps the file and copies the weight section into the parameter buffer in bulk, without parsing it.
+ */
+public final class NetworkFile
+{
+    public static final int MAGIC_VALUE = 0x4D555044; // "DPUM"
+    public static final int VERSION = 1;
+
+    private static final int ALIGNMENT = 64;
+    private static final long CHUNK_SIZE = 1 << 30; // Mappings are limited to 2 GB
+
+    private static final int INPUT = 0, FULLY_CONNECTED = 1, CONVOLUTION = 2, DECONVOLUTION = 3, BATCH_NORMALIZATION = 4,
+            MAX_POOLING = 5, GLOBAL_AVERAGE_POOLING = 6, GLOBAL_MAX_POOLING = 7, RELU = 8, SIGMOID = 9, TANH = 10,
+            RESHAPE = 11, UP_SAMPLE = 12, BILINEAR_RESAMPLE = 13, SOFTMAX = 14, MEAN_SQUARES = 15;
+
+    private NetworkFile()
+    {}
+
+    /**
+     * Writes the network to a file, replacing it if it exists.
+     * @param network the network
+     * @param path the file
+     * @throws IOException if the file can't be written
+     * @throws IllegalArgumentException if the network contains a layer that can't be saved
+     */
+    public static void save(FeedForwardNetwork network, Path path) throws IOException
+    {
+        final List<Layer> layers = network.getLayers();
+        final double[] values = network.getParameters().getValues();
+
+        int capacity = ALIGNMENT;
+        for(Layer layer : layers)
+            capacity += 128 + 2 * Double.BYTES * layer.getOutputDimensions().getDepth(); // Enough for the largest descriptor
+
+        final ByteBuffer header = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+
+        header.putInt(MAGIC_VALUE);
+        header.putInt(VERSION);
+        header.putInt(layers.size());
+        header.putInt(values.length);
+        header.putLong(0); // Offset of the weight section, written below
+
+        for(Layer layer : layers)
+            putLayer(header, layer);
+
+        final int offset = (header.position() + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+        header.putLong(16, offset);
+        header.put(new byte[offset - header.position()]); // Padding
+        header.flip();
+
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            while(header.hasRemaining())
+                channel.write(header);
+
+            for(int from = 0; from < values.length; from += CHUNK_SIZE / Double.BYTES)
+            {
+                final int length = (int) Math.min(CHUNK_SIZE / Double.BYTES, values.length - from);
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, offset + (long) from * Double.BYTES, (long) length * Double.BYTES);
+
+                buffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(values, from, length);
+                buffer.force();
+            }
+        }
+    }
+
+    /**
+     * Reads a network written by {@link #save(FeedForwardNetwork, Path)}.
+     * @param path the file
+     * @return the network
+     * @throws IOException if the file can't be read, or isn't a valid network file
+     */
+    public static FeedForwardNetwork load(Path path) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            final ByteBuffer start = map(channel, 0, 24);
+
+            if(start.getInt() != MAGIC_VALUE)
+                throw new IOException("Not a network file");
+            if(start.getInt() != VERSION)
+                throw new IOException("Unsupported version");
+
+            final int count = start.getInt(), size = start.getInt();
+            final long offset = start.getLong();
+
+            if(count < 2 || offset < 24 || offset + (long) size * Double.BYTES > channel.size())
+                throw new IOException("Corrupted network file");
+
+            final ByteBuffer header = map(channel, 24, offset - 24);
+            final Placeholders placeholders = new Placeholders();
+
+            final List<Layer> layers = new ArrayList<>(count);
+            try
+            {
+                for(int i = 0; i < count; i++)
+                    layers.add(getLayer(header, placeholders));
+            }
+            catch(RuntimeException e)
+            {
+                throw new IOException("Corrupted network file", e);
+            }
+
+            if(!(layers.get(0) instanceof InputLayer) || !(layers.get(count - 1) instanceof OutputLayer))
+                throw new IOException("Corrupted network file");
+
+            final FeedForwardNetwork network = new FeedForwardNetwork((InputLayer) layers.get(0), layers.subList(1, count - 1), (OutputLayer) layers.get(count - 1));
+            final double[] values = network.getParameters().getValues();
+
+            if(values.length != size)
+                throw new IOException("Corrupted network file");
+
+            for(int from = 0; from < size; from += CHUNK_SIZE / Double.BYTES)
+            {
+                final int length = (int) Math.min(CHUNK_SIZE / Double.BYTES, size - from);
+
+                map(channel, offset + (long) from * Double.BYTES, (long) length * Double.BYTES).asDoubleBuffer().get(values, from, length);
+            }
+
+            return network;
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException
+    {
+        if(position + size > channel.size())
+            throw new IOException("Corrupted network file");
+
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void putLayer(ByteBuffer buffer, Layer layer)
+    {
+        if(layer instanceof InputLayer)
+        {
+            buffer.putInt(INPUT);
+            putDimensions(buffer, layer.getOutputDimensions());
+        }
+        else if(layer instanceof FullyConnectedLayer)
+        {
+            final FullyConnectedLayer fullyConnected = (FullyConnectedLayer) layer;
+
+            buffer.putInt(FULLY_CONNECTED);
+            putDimensions(buffer, layer.getInputDimensions());
+            buffer.putInt(layer.getOutputDimensions().getDepth());
+            buffer.putInt(fullyConnected.getActivationFunction().ordinal());
+        }
+        else if(layer instanceof ConvolutionLayer)
+        {
+            final ConvolutionLayer convolution = (ConvolutionLayer) layer;
+
+            buffer.putInt(CONVOLUTION);
+            putDimensions(buffer, layer.getInputDimensions());
+            putDimensions(buffer, layer.getWeights()[0].getDimensions());
+            buffer.putInt(layer.getOutputDimensions().getDepth());
+            buffer.putInt(convolution.getStrideX()).putInt(convolution.getStrideY());
+            buffer.putInt(convolution.getPaddingX()).putInt(convolution.getPaddingY());
+            buffer.putInt(convolution.getActivationFunction().ordinal());
+        }
+        else if(layer instanceof DeconvolutionLayer)
+        {
+            final DeconvolutionLayer deconvolution = (DeconvolutionLayer) layer;
+
+            buffer.putInt(DECONVOLUTION);
+            putDimensions(buffer, layer.getInputDimensions());
+            putDimensions(buffer, layer.getWeights()[0].getDimensions());
+            buffer.putInt(layer.getOutputDimensions().getDepth());
+            buffer.putInt(deconvolution.getStrideX()).putInt(deconvolution.getStrideY());
+            buffer.putInt(deconvolution.getPaddingX()).putInt(deconvolution.getPaddingY());
+        }
+        else if(layer instanceof BatchNormalizationLayer)
+        {
+            final BatchNormalizationLayer normalization = (BatchNormalizationLayer) layer;
+
+            buffer.putInt(BATCH_NORMALIZATION);
+            putDimensions(buffer, layer.getOutputDimensions());
+            buffer.putDouble(normalization.getMomentum()).putDouble(normalization.getEpsilon());
+
+            // The running statistics aren't weights, they are stored with the descriptor
+            for(int z = 0; z < layer.getOutputDimensions().getDepth(); z++)
+                buffer.putDouble(normalization.getMean().get(z)).putDouble(normalization.getVariance().get(z));
+        }
+        else if(layer instanceof MaxPoolingLayer)
+        {
+            buffer.putInt(MAX_POOLING);
+            putDimensions(buffer, layer.getInputDimensions());
+            buffer.putInt(((MaxPoolingLayer) layer).getStride());
+        }
+        else if(layer instanceof GlobalAveragePoolingLayer)
+        {
+            buffer.putInt(GLOBAL_AVERAGE_POOLING);
+            putDimensions(buffer, layer.getInputDimensions());
+        }
+        else if(layer instanceof GlobalMaxPoolingLayer)
+        {
+            buffer.putInt(GLOBAL_MAX_POOLING);
+            putDimensions(buffer, layer.getInputDimensions());
+        }
+        else if(layer instanceof ReLULayer || layer instanceof SigmoidLayer || layer instanceof TanhLayer)
+        {
+            buffer.putInt(layer instanceof ReLULayer ? RELU : layer instanceof SigmoidLayer ? SIGMOID : TANH);
+            putDimensions(buffer, layer.getOutputDimensions());
+        }
+        else if(layer instanceof ReshapeLayer || layer instanceof BilinearResample)
+        {
+            buffer.putInt(layer instanceof ReshapeLayer ? RESHAPE : BILINEAR_RESAMPLE);
+            putDimensions(buffer, layer.getInputDimensions());
+            putDimensions(buffer, layer.getOutputDimensions());
+        }
+        else if(layer instanceof UpSampleLayer)
+        {
+            buffer.putInt(UP_SAMPLE);
+            putDimensions(buffer, layer.getInputDimensions());
+            buffer.putInt(((UpSampleLayer) layer).getStride());
+        }
+        else if(layer instanceof SoftmaxLayer)
+        {
+            buffer.putInt(SOFTMAX);
+            putDimensions(buffer, layer.getOutputDimensions());
+            buffer.putInt(((SoftmaxLayer) layer).getInputFunction().ordinal());
+        }
+        else if(layer instanceof MeanSquaresLayer)
+        {
+            buffer.putInt(MEAN_SQUARES);
+            putDimensions(buffer, layer.getOutputDimensions());
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unsupported layer: " + layer.getClass().getSimpleName());
+        }
+
+        buffer.put((byte) (layer.isTrainable() ? 1 : 0));
+    }
+
+    private static Layer getLayer(ByteBuffer buffer, Placeholders placeholders)
+    {
+        final Layer.ActivationFunctionType[] functions = Layer.ActivationFunctionType.values();
+        final int type = buffer.getInt();
+
+        final Layer layer;
+        switch(type)
+        {
+            case INPUT:
+                layer = new InputLayer(getDimensions(buffer));
+                break;
+            case FULLY_CONNECTED:
+            {
+                final Dimensions inputDimensions = getDimensions(buffer);
+                final Volume[] weights = placeholders.get(inputDimensions, buffer.getInt());
+                layer = new FullyConnectedLayer(weights, placeholders.get(new Dimensions(weights.length)), functions[buffer.getInt()]);
+                break;
+            }
+            case CONVOLUTION:
+            case DECONVOLUTION:
+            {
+                final Dimensions inputDimensions = getDimensions(buffer), filterDimensions = getDimensions(buffer);
+                final Volume[] filters = placeholders.get(filterDimensions, buffer.getInt());
+                final Volume biases = placeholders.get(new Dimensions(filters.length));
+                final int strideX = buffer.getInt(), strideY = buffer.getInt(), paddingX = buffer.getInt(), paddingY = buffer.getInt();
+
+                if(type == CONVOLUTION)
+                    layer = new ConvolutionLayer(inputDimensions, filters, biases, strideX, strideY, paddingX, paddingY, functions[buffer.getInt()]);
+                else
+                    layer = new DeconvolutionLayer(inputDimensions, filters, biases, strideX, strideY, paddingX, paddingY);
+                break;
+            }
+            case BATCH_NORMALIZATION:
+            {
+                final Dimensions dimensions = getDimensions(buffer);
+                final Dimensions channels = new Dimensions(dimensions.getDepth());
+                final double momentum = buffer.getDouble(), epsilon = buffer.getDouble();
+
+                final Volume mean = new Volume(channels), variance = new Volume(channels);
+                for(int z = 0; z < channels.getDepth(); z++)
+                {
+                    mean.set(z, buffer.getDouble());
+                    variance.set(z, buffer.getDouble());
+                }
+
+                layer = new BatchNormalizationLayer(dimensions, placeholders.get(channels), placeholders.get(channels), mean, variance, momentum, epsilon);
+                break;
+            }
+            case MAX_POOLING:
+                layer = new MaxPoolingLayer(getDimensions(buffer), buffer.getInt());
+                break;
+            case GLOBAL_AVERAGE_POOLING:
+                layer = new GlobalAveragePoolingLayer(getDimensions(buffer));
+                break;
+            case GLOBAL_MAX_POOLING:
+                layer = new GlobalMaxPoolingLayer(getDimensions(buffer));
+                break;
+            case RELU:
+                layer = new ReLULayer(getDimensions(buffer));
+                break;
+            case SIGMOID:
+                layer = new SigmoidLayer(getDimensions(buffer));
+                break;
+            case TANH:
+                layer = new TanhLayer(getDimensions(buffer));
+                break;
+            case RESHAPE:
+                layer = new ReshapeLayer(getDimensions(buffer), getDimensions(buffer));
+                break;
+            case UP_SAMPLE:
+                layer = new UpSampleLayer(getDimensions(buffer), buffer.getInt());
+                break;
+            case BILINEAR_RESAMPLE:
+                layer = new BilinearResample(getDimensions(buffer), getDimensions(buffer));
+                break;
+            case SOFTMAX:
+                layer = new SoftmaxLayer(getDimensions(buffer), functions[buffer.getInt()]);
+                break;
+            case MEAN_SQUARES:
+                layer = new MeanSquaresLayer(getDimensions(buffer));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown layer type: " + type);
+        }
+
+        layer.setTrainable(buffer.get() != 0);
+
+        return layer;
+    }
+
+    private static void putDimensions(ByteBuffer buffer, Dimensions dimensions)
+    {
+        buffer.putInt(dimensions.getWidth()).putInt(dimensions.getHeight()).putInt(dimensions.getDepth());
+    }
+
+    private static Dimensions getDimensions(ByteBuffer buffer)
+    {
+        return new Dimensions(buffer.getInt(), buffer.getInt(), buffer.getInt());
+    }
+
+    // Weights of the layers being loaded: they are all backed by the same zeroed array, the actual values are copied afterwards
+    private static final class Placeholders
+    {
+        private double[] array = new double[0];
+
+        Volume get(Dimensions dimensions)
+        {
+            if(array.length < dimensions.getSize())
+                array = new double[dimensions.getSize()];
+
+            return Volume.wrap(dimensions, array, array);
+        }
+
+        Volume[] get(Dimensions dimensions, int count)
+        {
+            final Volume[] volumes = new Volume[count];
+            for(int i = 0; i < count; i++)
+                volumes[i] = get(dimensions);
+            return volumes;
+        }
+    }
+}
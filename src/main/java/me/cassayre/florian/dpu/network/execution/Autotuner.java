@@ -0,0 +1,246 @@
+package me.cassayre.florian.dpu.network.execution;
+
+import me.cassayre.florian.dpu.layer.ConvolutionLayer;
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.layer.Tunable;
+import me.cassayre.florian.dpu.network.Network;
+import me.cassayre.florian.dpu.util.volume.Volume;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Chooses the implementation of each {@link Tunable} layer of a network by timing a forward and a backward
+ * propagation of every candidate, with the exact dimensions of the layer, on the current machine.
+ * The decisions are cached in a file, keyed by the processor and the shape of the layer, so that the benchmarks
+ * only run the first time a shape is seen.
+ * The cache is only an optimization: if it can't be read or written, the layers are simply benchmarked again.
+ */
+public class Autotuner
+{
+    private static final int WARMUP_RUNS = 3;
+    private static final int TRIALS = 5;
+    private static final long TRIAL_NANOSECONDS = 2_000_000; // Minimum duration of a trial, short layers are repeated
+
+    private final Path cache;
+    private final Properties decisions = new Properties();
+    private final String processor;
+
+    /**
+     * @param cache the cache file, or <code>null</code> to always run the benchmarks
+     */
+    public Autotuner(Path cache)
+    {
+        this.cache = cache;
+        this.processor = describeProcessor();
+
+        if(cache != null && Files.exists(cache))
+        {
+            try(InputStream stream = Files.newInputStream(cache))
+            {
+                decisions.load(stream);
+            }
+            catch(IOException | IllegalArgumentException e)
+            {
+                decisions.clear();
+            }
+        }
+    }
+
+    /**
+     * The default cache file, <code>.dpu/autotune.properties</code> in the home directory of the user.
+     * @return the path
+     */
+    public static Path getDefaultCache()
+    {
+        return Paths.get(System.getProperty("user.home"), ".dpu", "autotune.properties");
+    }
+
+    /**
+     * Sets the fastest implementation on each tunable layer of the network.
+     * The weights of the network are not modified, the benchmarks run on copies of the layers.
+     * @param network the network
+     */
+    public void tune(Network network)
+    {
+        boolean isModified = false;
+
+        for(Layer layer : network.getLayers())
+            if(layer instanceof Tunable)
+                isModified |= tune(layer, (Tunable<?>) layer);
+
+        if(isModified && cache != null)
+            save();
+    }
+
+    /**
+     * The decision cached for a layer, if any.
+     * @param layer the layer
+     * @return the name of the implementation, or <code>null</code>
+     */
+    public String getDecision(Layer layer)
+    {
+        return decisions.getProperty(processor + " " + describe(layer));
+    }
+
+    // Returns whether a new decision was made
+    private <A extends Enum<A>> boolean tune(Layer layer, Tunable<A> tunable)
+    {
+        final String key = processor + " " + describe(layer);
+        final String cached = decisions.getProperty(key);
+
+        for(A algorithm : tunable.getAlgorithms())
+        {
+            if(algorithm.name().equals(cached))
+            {
+                tunable.setAlgorithm(algorithm);
+                return false;
+            }
+        }
+
+        final Layer copy = copy(layer);
+        final Volume input = new Volume(layer.getInputDimensions()), output = new Volume(layer.getOutputDimensions());
+        final Random random = new Random(0);
+        input.fillValues(i -> random.nextDouble() - 0.5);
+        output.fillGradients(i -> random.nextDouble() - 0.5);
+
+        A fastest = null;
+        long best = Long.MAX_VALUE;
+        for(A algorithm : tunable.getAlgorithms())
+        {
+            @SuppressWarnings("unchecked")
+            final Tunable<A> candidate = (Tunable<A>) copy;
+            candidate.setAlgorithm(algorithm);
+
+            final long time = measure(copy, input, output);
+            if(time < best)
+            {
+                best = time;
+                fastest = algorithm;
+            }
+        }
+
+        tunable.setAlgorithm(fastest);
+        decisions.setProperty(key, fastest.name());
+
+        return true;
+    }
+
+    // The best time per propagation over several trials, in nanoseconds
+    private static long measure(Layer layer, Volume input, Volume output)
+    {
+        for(int i = 0; i < WARMUP_RUNS; i++)
+            propagate(layer, input, output);
+
+        long best = Long.MAX_VALUE;
+        for(int trial = 0; trial < TRIALS; trial++)
+        {
+            final long start = System.nanoTime();
+            long elapsed;
+            int runs = 0;
+            do
+            {
+                propagate(layer, input, output);
+                runs++;
+                elapsed = System.nanoTime() - start;
+            }
+            while(elapsed < TRIAL_NANOSECONDS);
+
+            best = Math.min(best, elapsed / runs);
+        }
+
+        return best;
+    }
+
+    private static void propagate(Layer layer, Volume input, Volume output)
+    {
+        layer.forwardPropagation(input, output);
+        layer.backwardPropagation(input, output);
+    }
+
+    // Same layer with its own weights, so that the benchmarks don't accumulate into the gradients of the network
+    private static Layer copy(Layer layer)
+    {
+        final Volume[] weights = layer.getWeights();
+        final Volume[] copies = new Volume[weights.length];
+        for(int i = 0; i < weights.length; i++)
+            copies[i] = weights[i].clone();
+
+        return layer.withWeights(copies);
+    }
+
+    private static String describe(Layer layer)
+    {
+        final StringBuilder builder = new StringBuilder(layer.getClass().getSimpleName());
+        builder.append(layer.getInputDimensions()).append(layer.getOutputDimensions());
+
+        final Volume[] weights = layer.getWeights();
+        if(weights.length > 0)
+            builder.append(weights[0].getDimensions());
+
+        if(layer instanceof ConvolutionLayer)
+        {
+            final ConvolutionLayer convolution = (ConvolutionLayer) layer;
+            builder.append("[").append(convolution.getStrideX()).append(", ").append(convolution.getStrideY()).append(", ")
+                    .append(convolution.getPaddingX()).append(", ").append(convolution.getPaddingY()).append("]");
+        }
+
+        return builder.toString();
+    }
+
+    // The parallel implementations depend on the number of processors as much as on the model
+    private static String describeProcessor()
+    {
+        String model = System.getProperty("os.arch");
+
+        final Path information = Paths.get("/proc/cpuinfo");
+        if(Files.isReadable(information))
+        {
+            try
+            {
+                for(String line : Files.readAllLines(information))
+                {
+                    if(line.startsWith("model name"))
+                    {
+                        model = line.substring(line.indexOf(':') + 1).trim();
+                        break;
+                    }
+                }
+            }
+            catch(IOException e)
+            {
+                // Keep the architecture
+            }
+        }
+
+        return model + " x" + Runtime.getRuntime().availableProcessors();
+    }
+
+    private void save()
+    {
+        try
+        {
+            final Path directory = cache.toAbsolutePath().getParent();
+            if(directory != null)
+                Files.createDirectories(directory);
+
+            final Path temporary = cache.resolveSibling(cache.getFileName() + ".tmp");
+            try(OutputStream stream = Files.newOutputStream(temporary))
+            {
+                decisions.store(stream, "Autotuner decisions");
+            }
+            Files.move(temporary, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch(IOException e)
+        {
+            // The layers will be benchmarked again
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package me.cassayre.florian.dpu.network.execution;
+
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.network.Network;
+import me.cassayre.florian.dpu.network.Parameters;
+import me.cassayre.florian.dpu.util.volume.Volume;
+
+import java.util.List;
+
+/**
+ * A network running a kernel generated by {@link KernelCompiler}.
+ * The weights are those of the original network, so it can be trained by any {@link me.cassayre.florian.dpu.network.trainer.Trainer}.
+ * The activations belong to the kernel: a compiled network must not be used by several threads at the same time.
+ */
+public final class CompiledNetwork extends Network
+{
+    private final Parameters parameters;
+    private final Kernel kernel;
+
+    private final double[] input, expected;
+    private final Volume output;
+
+    private double loss;
+
+    CompiledNetwork(Parameters parameters, Kernel kernel)
+    {
+        final List<Layer> layers = parameters.getLayers();
+
+        this.parameters = parameters;
+        this.kernel = kernel;
+        this.input = new double[layers.get(0).getOutputDimensions().getSize()];
+        this.expected = new double[layers.get(layers.size() - 1).getOutputDimensions().getSize()];
+        this.output = Volume.wrap(layers.get(layers.size() - 1).getOutputDimensions(), kernel.getOutput(), kernel.getOutputGradient());
+    }
+
+    @Override
+    public void forwardPropagation(Volume input)
+    {
+        for(int i = 0; i < this.input.length; i++)
+            this.input[i] = input.get(i);
+
+        kernel.forward(this.input);
+    }
+
+    @Override
+    public void backwardPropagation(Volume expectedOutput)
+    {
+        for(int i = 0; i < expected.length; i++)
+            expected[i] = expectedOutput.get(i);
+
+        loss = kernel.backward(expected);
+    }
+
+    @Override
+    public Volume getOutput()
+    {
+        return output;
+    }
+
+    @Override
+    public double getLoss()
+    {
+        return loss;
+    }
+
+    @Override
+    public List<Layer> getLayers()
+    {
+        return parameters.getLayers();
+    }
+
+    @Override
+    public Parameters getParameters()
+    {
+        return parameters;
+    }
+
+    public Kernel getKernel()
+    {
+        return kernel;
+    }
+}
@@ -0,0 +1,298 @@
+package me.cassayre.florian.dpu.network.execution;
+
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.layer.OutputLayer;
+import me.cassayre.florian.dpu.network.Network;
+import me.cassayre.florian.dpu.network.Parameters;
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The activation buffers needed to run an {@link ExecutionPlan}.
+ * The weights remain owned by the layers, so any number of contexts can be created for the same plan.
+ */
+public final class ExecutionContext extends Network
+{
+    private final ExecutionPlan plan;
+    private final List<Layer> layers;
+    private final int last;
+
+    private final Volume[] activations; // In double precision, null with mixed precision
+
+    // Mixed precision: the activations are stored in single precision (values, then gradients), and loaded into the
+    // double precision working buffers of the input or of the output of a layer when it runs
+    private final float[][][] single;
+    private final Volume[] inputViews, outputViews;
+    private final Volume output; // The output of the network remains in double precision
+
+    private double loss;
+    private double lossScale = 1.0;
+
+    private ExecutionContext[] samples = {this}; // Contexts of the samples of a batch, see propagateBatch
+
+    ExecutionContext(ExecutionPlan plan)
+    {
+        this.plan = plan;
+        this.layers = plan.getLayers();
+        this.last = layers.size() - 1;
+
+        if(plan.getPrecision() == ExecutionPlan.Precision.MIXED)
+        {
+            this.activations = null;
+            this.single = plan.allocateSingle();
+
+            final int size = plan.getMaximumSize();
+            final double[] inputValues = new double[size], inputGradients = new double[size];
+            final double[] outputValues = new double[size], outputGradients = new double[size];
+
+            this.inputViews = new Volume[layers.size()];
+            this.outputViews = new Volume[layers.size()];
+            for(int k = 0; k < layers.size(); k++)
+            {
+                final Dimensions dimensions = layers.get(k).getOutputDimensions();
+                inputViews[k] = Volume.wrap(dimensions, inputValues, inputGradients);
+                outputViews[k] = Volume.wrap(dimensions, outputValues, outputGradients);
+            }
+
+            this.output = new Volume(layers.get(last).getOutputDimensions());
+        }
+        else
+        {
+            this.activations = plan.allocate();
+            this.single = null;
+            this.inputViews = null;
+            this.outputViews = null;
+            this.output = null;
+        }
+    }
+
+    @Override
+    public void forwardPropagation(Volume input)
+    {
+        forwardPropagation(input, false);
+    }
+
+    @Override
+    public void forwardPropagation(Volume input, boolean isTraining)
+    {
+        final List<Volume> inputs = Collections.singletonList(input);
+
+        for(int i = 0; i <= last; i++)
+            forward(i, 1, inputs, isTraining);
+    }
+
+    @Override
+    public void backwardPropagation(Volume expectedOutput)
+    {
+        checkTraining();
+
+        loss = backwardOutput(expectedOutput, lossScale);
+
+        backward(1);
+    }
+
+    /**
+     * Propagates a mini-batch layer by layer: each layer runs on all the samples of the batch at once (see
+     * {@link Layer#forwardPropagation(Volume[], Volume[], boolean)}), so normalizations use the statistics of the batch.
+     * The samples following the first one get contexts of their own, kept for the next batches: the memory of the
+     * activations is multiplied by the size of the largest batch.
+     * @param inputs the inputs
+     * @param expectedOutputs the expected outputs
+     * @return the sum of the losses of the samples
+     */
+    @Override
+    public double propagateBatch(List<Volume> inputs, List<Volume> expectedOutputs)
+    {
+        checkTraining();
+
+        final int n = inputs.size();
+        if(samples.length < n)
+        {
+            final int previous = samples.length;
+
+            samples = Arrays.copyOf(samples, n);
+            for(int s = previous; s < n; s++)
+                samples[s] = plan.createContext();
+        }
+
+        for(int i = 0; i <= last; i++)
+            forward(i, n, inputs, true);
+
+        double sum = 0.0;
+        for(int s = 0; s < n; s++)
+            sum += samples[s].backwardOutput(expectedOutputs.get(s), lossScale);
+
+        backward(n);
+
+        return sum;
+    }
+
+    private void checkTraining()
+    {
+        if(plan.getMode() != ExecutionPlan.Mode.TRAINING)
+            throw new IllegalStateException("The plan was compiled for inference only");
+    }
+
+    // Starts the backward propagation of a sample from its expected output, returns its loss
+    private double backwardOutput(Volume expectedOutput, double scale)
+    {
+        final Volume result = load(last, outputViews, false);
+
+        loss = ((OutputLayer) layers.get(last)).backwardPropagationExpected(result, expectedOutput); // Output layer
+
+        if(scale != 1.0)
+            for(int i = 0; i < result.getSize(); i++)
+                result.setGradient(i, result.getGradient(i) * scale);
+
+        return loss;
+    }
+
+    // Propagates the gradients of the first n samples back from the output layer, recomputing the segments between checkpoints
+    private void backward(int n)
+    {
+        if(plan.getCheckpointInterval() == 1)
+        {
+            for(int i = last; i >= 1; i--)
+                backward(i, n);
+            return;
+        }
+
+        final int k = plan.getCheckpointInterval();
+
+        // Segment starting at checkpoint c: layers c + 1 to c + k, the outputs of c and c + k being checkpoints
+        for(int c = (last - 1) / k * k; c >= 0; c -= k)
+        {
+            final int end = Math.min(c + k, last);
+
+            if(c + k < last) // The outputs of the last segment are still there from the forward pass
+            {
+                for(int i = c + 1; i < end; i++)
+                    forward(i, n, null, true);
+            }
+
+            for(int i = end; i > c; i--)
+                backward(i, n);
+        }
+    }
+
+    // Runs layer i on the first n samples, the inputs are only read by the input layer
+    private void forward(int i, int n, List<Volume> inputs, boolean isTraining)
+    {
+        final Volume[] in = new Volume[n], out = new Volume[n];
+        for(int s = 0; s < n; s++)
+        {
+            final ExecutionContext sample = samples[s];
+
+            in[s] = i == 0 ? inputs.get(s) : sample.load(i - 1, sample.inputViews, false);
+            out[s] = sample.single == null ? sample.activations[i] : i == last ? sample.output : sample.outputViews[i];
+        }
+
+        layers.get(i).forwardPropagation(in, out, isTraining);
+
+        for(int s = 0; s < n; s++)
+            samples[s].store(i, out[s], false);
+    }
+
+    private void backward(int i, int n)
+    {
+        final Volume[] in = new Volume[n], out = new Volume[n];
+        for(int s = 0; s < n; s++)
+        {
+            final ExecutionContext sample = samples[s];
+
+            in[s] = sample.load(i - 1, sample.inputViews, false);
+            out[s] = sample.load(i, sample.outputViews, true);
+        }
+
+        layers.get(i).backwardPropagation(in, out);
+
+        for(int s = 0; s < n; s++)
+            samples[s].store(i - 1, in[s], true);
+    }
+
+    // The activation of layer k in double precision, loaded into one of the views with mixed precision
+    private Volume load(int k, Volume[] views, boolean withGradients)
+    {
+        if(single == null)
+            return activations[k];
+        if(k == last)
+            return output;
+
+        final Volume view = views[k];
+        final float[] values = single[0][plan.getBuffer(k, false)];
+        for(int i = 0; i < view.getSize(); i++)
+            view.set(i, values[i]);
+
+        if(withGradients)
+        {
+            final float[] gradients = single[1][plan.getBuffer(k, true)];
+            for(int i = 0; i < view.getSize(); i++)
+                view.setGradient(i, gradients[i]);
+        }
+
+        return view;
+    }
+
+    // Rounds the values or the gradients of the activation of layer k into its single precision buffer
+    private void store(int k, Volume view, boolean isGradient)
+    {
+        if(single == null || k == last)
+            return;
+
+        final float[] buffer = single[isGradient ? 1 : 0][plan.getBuffer(k, isGradient)];
+        for(int i = 0; i < view.getSize(); i++)
+            buffer[i] = (float) (isGradient ? view.getGradient(i) : view.get(i));
+    }
+
+    @Override
+    public Volume getOutput()
+    {
+        return single == null ? activations[last] : output;
+    }
+
+    @Override
+    public double getLoss()
+    {
+        return loss;
+    }
+
+    @Override
+    public List<Layer> getLayers()
+    {
+        return layers;
+    }
+
+    @Override
+    public Parameters getParameters()
+    {
+        return plan.getParameters();
+    }
+
+    @Override
+    public double getLossScale()
+    {
+        return lossScale;
+    }
+
+    /**
+     * Sets the factor by which the gradient of the loss is multiplied before going backward, so that small gradients
+     * are not flushed to zero when rounded to single precision. The weight gradients are scaled by the same factor.
+     * @param lossScale the scale
+     */
+    public void setLossScale(double lossScale)
+    {
+        if(!(lossScale > 0.0))
+            throw new IllegalArgumentException("The loss scale must be strictly positive");
+
+        this.lossScale = lossScale;
+    }
+
+    public ExecutionPlan getPlan()
+    {
+        return plan;
+    }
+}
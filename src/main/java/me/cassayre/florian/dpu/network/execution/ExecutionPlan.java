@@ -0,0 +1,385 @@
+package me.cassayre.florian.dpu.network.execution;
+
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.layer.OutputLayer;
+import me.cassayre.florian.dpu.network.Parameters;
+import me.cassayre.florian.dpu.util.volume.Volume;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A compiled schedule for a list of layers, in which activations live in a small set of shared buffers instead of the
+ * volumes owned by each layer.
+ * Every tensor (the output of a layer and, when training, its gradient) is given a lifetime in terms of the steps of
+ * the schedule, and tensors whose lifetimes don't overlap are assigned to the same buffer.
+ * When training with a checkpoint interval <code>k &gt; 1</code>, only the outputs of every k-th layer (the checkpoints) are
+ * kept until the backward pass; the other layers share <code>k - 1</code> buffers and their outputs are recomputed segment by
+ * segment when going backward. With <code>k</code> close to <code>sqrt(n)</code> this costs about one more forward pass
+ * and keeps <code>O(sqrt(n))</code> activations.
+ * With {@link Precision#MIXED}, the buffers are single precision arrays: the activations and their gradients are kept in
+ * single precision between layers, halving their memory, while each layer computes in double precision on working
+ * buffers the size of its input and output (see {@link ExecutionContext#setLossScale(double)}).
+ * A plan is immutable, the buffers themselves are allocated by each {@link ExecutionContext}.
+ */
+public final class ExecutionPlan
+{
+    private final List<Layer> layers;
+    private final Parameters parameters; // May be null when the layers were not provided through parameters
+    private final Mode mode;
+    private final int checkpointInterval;
+    private final Precision precision;
+
+    private final int[] valueAssignment, gradientAssignment;
+    private final int[] valueBufferSizes, gradientBufferSizes;
+
+    private ExecutionPlan(List<Layer> layers, Parameters parameters, Mode mode, int checkpointInterval, Precision precision)
+    {
+        if(checkpointInterval < 1)
+            throw new IllegalArgumentException("The checkpoint interval must be strictly positive");
+
+        if(checkpointInterval > 1 && mode != Mode.TRAINING)
+            throw new IllegalArgumentException("Checkpoints are only used when training");
+
+        if(layers.isEmpty())
+            throw new IllegalArgumentException("The plan must contain at least one layer");
+
+        for(int i = 1; i < layers.size(); i++)
+            if(!layers.get(i).getInputDimensions().equals(layers.get(i - 1).getOutputDimensions()))
+                throw new IllegalArgumentException("Dimensions don't match: " + layers.get(i - 1).getOutputDimensions() + " and " + layers.get(i).getInputDimensions() + " (previous output and next input)");
+
+        if(mode == Mode.TRAINING && !(layers.get(layers.size() - 1) instanceof OutputLayer))
+            throw new IllegalArgumentException("Training requires an output layer");
+
+        this.layers = Collections.unmodifiableList(new ArrayList<>(layers));
+        this.parameters = parameters;
+        this.mode = mode;
+        this.checkpointInterval = checkpointInterval;
+        this.precision = precision;
+
+        final int n = layers.size();
+        final int[] sizes = new int[n];
+        for(int i = 0; i < n; i++)
+            sizes[i] = layers.get(i).getOutputDimensions().getSize();
+
+        if(checkpointInterval > 1)
+        {
+            final int k = checkpointInterval;
+
+            // Checkpoints have their own buffer, the layers in between use the buffer of their position in the segment
+            final List<Integer> valueBuffers = new ArrayList<>();
+            for(int p = 1; p < k; p++)
+                valueBuffers.add(0);
+
+            this.valueAssignment = new int[n];
+            for(int i = 0; i < n; i++)
+            {
+                if(isCheckpoint(i))
+                {
+                    valueAssignment[i] = valueBuffers.size();
+                    valueBuffers.add(sizes[i]);
+                }
+                else
+                {
+                    valueAssignment[i] = i % k - 1;
+                    valueBuffers.set(i % k - 1, Math.max(valueBuffers.get(i % k - 1), sizes[i]));
+                }
+            }
+            this.valueBufferSizes = toArray(valueBuffers);
+
+            // Layer i reads the gradient of its output and writes the gradient of its input: two buffers are enough
+            int max = 0;
+            for(int size : sizes)
+                max = Math.max(max, size);
+
+            this.gradientAssignment = new int[n];
+            for(int i = 0; i < n; i++)
+                gradientAssignment[i] = i % 2;
+            this.gradientBufferSizes = new int[] {max, max};
+
+            return;
+        }
+
+        // Steps: layer k runs forward at k; when training the loss is computed at n and layer k runs backward at 2n - k
+        final int[] valueStart = new int[n], valueEnd = new int[n];
+        for(int k = 0; k < n; k++)
+        {
+            valueStart[k] = k;
+            valueEnd[k] = mode == Mode.INFERENCE ? k + 1 : 2 * n - k; // Layers may read their own output when going backward
+        }
+
+        final List<Integer> valueBuffers = new ArrayList<>();
+        this.valueAssignment = assign(sizes, valueStart, valueEnd, valueBuffers);
+        this.valueBufferSizes = toArray(valueBuffers);
+
+        if(mode == Mode.TRAINING)
+        {
+            final int[] gradientStart = new int[n], gradientEnd = new int[n];
+            for(int k = 0; k < n; k++)
+            {
+                gradientStart[k] = k == n - 1 ? n : 2 * n - k - 1; // Written by the next layer, read by this one
+                gradientEnd[k] = 2 * n - k;
+            }
+
+            final List<Integer> gradientBuffers = new ArrayList<>();
+            this.gradientAssignment = assign(sizes, gradientStart, gradientEnd, gradientBuffers);
+            this.gradientBufferSizes = toArray(gradientBuffers);
+        }
+        else
+        {
+            this.gradientAssignment = null;
+            this.gradientBufferSizes = new int[0];
+        }
+    }
+
+    /**
+     * Compiles a plan for the provided layers, each layer reading the output of the previous one.
+     * @param layers the layers, in order
+     * @param mode whether the plan is only used for inference or also for training
+     * @return the plan
+     */
+    public static ExecutionPlan compile(List<Layer> layers, Mode mode)
+    {
+        return new ExecutionPlan(layers, null, mode, 1, Precision.DOUBLE);
+    }
+
+    /**
+     * Compiles a plan for the layers bound to the provided parameters.
+     * @param parameters the parameters
+     * @param mode whether the plan is only used for inference or also for training
+     * @return the plan
+     */
+    public static ExecutionPlan compile(Parameters parameters, Mode mode)
+    {
+        return new ExecutionPlan(parameters.getLayers(), parameters, mode, 1, Precision.DOUBLE);
+    }
+
+    /**
+     * Compiles a training plan for the layers bound to the provided parameters, keeping the output of every
+     * <code>checkpointInterval</code>-th layer only.
+     * @param parameters the parameters
+     * @param checkpointInterval the number of layers between two checkpoints, <code>1</code> to keep all the activations
+     * @return the plan
+     */
+    public static ExecutionPlan compile(Parameters parameters, int checkpointInterval)
+    {
+        return compile(parameters, checkpointInterval, Precision.DOUBLE);
+    }
+
+    /**
+     * Compiles a training plan for the layers bound to the provided parameters.
+     * @param parameters the parameters
+     * @param checkpointInterval the number of layers between two checkpoints, <code>1</code> to keep all the activations
+     * @param precision the precision of the values flowing between layers
+     * @return the plan
+     */
+    public static ExecutionPlan compile(Parameters parameters, int checkpointInterval, Precision precision)
+    {
+        return new ExecutionPlan(parameters.getLayers(), parameters, Mode.TRAINING, checkpointInterval, precision);
+    }
+
+    // Greedy interval colouring: tensors are visited by start step and placed in the best fitting free buffer
+    private static int[] assign(int[] sizes, int[] start, int[] end, List<Integer> bufferSizes)
+    {
+        final Integer[] order = new Integer[sizes.length];
+        for(int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, Comparator.comparingInt((Integer i) -> start[i]).thenComparingInt(i -> -sizes[i]));
+
+        final int[] assignment = new int[sizes.length];
+        final List<Integer> bufferEnds = new ArrayList<>();
+
+        for(int tensor : order)
+        {
+            int best = -1;
+            for(int b = 0; b < bufferSizes.size(); b++)
+            {
+                if(bufferEnds.get(b) >= start[tensor])
+                    continue;
+
+                if(best == -1)
+                {
+                    best = b;
+                }
+                else
+                {
+                    final int size = bufferSizes.get(b), bestSize = bufferSizes.get(best);
+                    final boolean fits = size >= sizes[tensor], bestFits = bestSize >= sizes[tensor];
+
+                    if((fits && (!bestFits || size < bestSize)) || (!fits && !bestFits && size > bestSize))
+                        best = b;
+                }
+            }
+
+            if(best == -1)
+            {
+                best = bufferSizes.size();
+                bufferSizes.add(0);
+                bufferEnds.add(0);
+            }
+
+            bufferSizes.set(best, Math.max(bufferSizes.get(best), sizes[tensor]));
+            bufferEnds.set(best, end[tensor]);
+            assignment[tensor] = best;
+        }
+
+        return assignment;
+    }
+
+    private static int[] toArray(List<Integer> list)
+    {
+        final int[] array = new int[list.size()];
+        for(int i = 0; i < array.length; i++)
+            array[i] = list.get(i);
+        return array;
+    }
+
+    // Double precision buffers, the volumes of the activations
+    Volume[] allocate()
+    {
+        final double[][] values = new double[valueBufferSizes.length][];
+        for(int i = 0; i < values.length; i++)
+            values[i] = new double[valueBufferSizes[i]];
+
+        final double[][] gradients = new double[gradientBufferSizes.length][];
+        for(int i = 0; i < gradients.length; i++)
+            gradients[i] = new double[gradientBufferSizes[i]];
+
+        final Volume[] activations = new Volume[layers.size()];
+        for(int k = 0; k < activations.length; k++)
+            activations[k] = Volume.wrap(layers.get(k).getOutputDimensions(), values[valueAssignment[k]], gradientAssignment != null ? gradients[gradientAssignment[k]] : null);
+
+        return activations;
+    }
+
+    // Single precision buffers (values, then gradients), the activation of layer k being in getBuffer(k, false / true)
+    float[][][] allocateSingle()
+    {
+        final float[][] values = new float[valueBufferSizes.length][];
+        for(int i = 0; i < values.length; i++)
+            values[i] = new float[valueBufferSizes[i]];
+
+        final float[][] gradients = new float[gradientBufferSizes.length][];
+        for(int i = 0; i < gradients.length; i++)
+            gradients[i] = new float[gradientBufferSizes[i]];
+
+        return new float[][][] {values, gradients};
+    }
+
+    int getBuffer(int layer, boolean isGradient)
+    {
+        return isGradient ? gradientAssignment[layer] : valueAssignment[layer];
+    }
+
+    // The size of the largest activation, the size of the working buffers of mixed precision
+    int getMaximumSize()
+    {
+        int max = 0;
+        for(Layer layer : layers)
+            max = Math.max(max, layer.getOutputDimensions().getSize());
+        return max;
+    }
+
+    /**
+     * Creates a new set of buffers to run this plan.
+     * @return the context
+     */
+    public ExecutionContext createContext()
+    {
+        return new ExecutionContext(this);
+    }
+
+    public List<Layer> getLayers()
+    {
+        return layers;
+    }
+
+    public Parameters getParameters()
+    {
+        return parameters;
+    }
+
+    public Mode getMode()
+    {
+        return mode;
+    }
+
+    public int getCheckpointInterval()
+    {
+        return checkpointInterval;
+    }
+
+    public Precision getPrecision()
+    {
+        return precision;
+    }
+
+    public boolean isCheckpoint(int layer)
+    {
+        return layer % checkpointInterval == 0;
+    }
+
+    /**
+     * The number of distinct buffers allocated by each context (values and gradients).
+     * @return the number of buffers
+     */
+    public int getBufferCount()
+    {
+        return valueBufferSizes.length + gradientBufferSizes.length;
+    }
+
+    /**
+     * The memory used by the activations when each layer owns its output volume (values and gradients).
+     * @return the size in bytes
+     */
+    public long getUnplannedMemory()
+    {
+        long total = 0;
+        for(Layer layer : layers)
+            total += 2L * layer.getOutputDimensions().getSize();
+        return total * Double.BYTES;
+    }
+
+    /**
+     * The memory used by the activations of a context of this plan, including the working buffers of mixed precision.
+     * @return the size in bytes
+     */
+    public long getPlannedMemory()
+    {
+        long total = 0;
+        for(int size : valueBufferSizes)
+            total += size;
+        for(int size : gradientBufferSizes)
+            total += size;
+
+        if(precision == Precision.MIXED)
+        {
+            // Values and gradients of the input and of the output of a layer, plus the output of the network
+            final long working = 4L * getMaximumSize() + 2L * layers.get(layers.size() - 1).getOutputDimensions().getSize();
+            return total * Float.BYTES + working * Double.BYTES;
+        }
+
+        return total * Double.BYTES;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ExecutionPlan[mode=" + mode + ", checkpoint interval=" + checkpointInterval + ", precision=" + precision + ", layers=" + layers.size() + ", buffers=" + getBufferCount() + ", memory=" + getPlannedMemory() + " bytes (unplanned: " + getUnplannedMemory() + " bytes)]";
+    }
+
+    public enum Mode
+    {
+        INFERENCE,
+        TRAINING;
+    }
+
+    public enum Precision
+    {
+        DOUBLE,
+        MIXED; // Weights in double precision, activations and gradients in single precision
+    }
+}
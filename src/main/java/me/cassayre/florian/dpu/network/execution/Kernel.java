@@ -0,0 +1,26 @@
+package me.cassayre.florian.dpu.network.execution;
+
+/**
+ * Base class of the code generated by {@link KernelCompiler}.
+ * The weights and their gradients are read from and accumulated into the arrays of the parameters of the network,
+ * at offsets known when the code is generated.
+ */
+public abstract class Kernel
+{
+    protected final double[] w, dw;
+
+    protected Kernel(double[] w, double[] dw)
+    {
+        this.w = w;
+        this.dw = dw;
+    }
+
+    public abstract void forward(double[] input);
+
+    // Returns the loss
+    public abstract double backward(double[] expected);
+
+    public abstract double[] getOutput();
+
+    public abstract double[] getOutputGradient();
+}
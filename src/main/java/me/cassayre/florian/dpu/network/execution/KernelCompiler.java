@@ -0,0 +1,620 @@
+package me.cassayre.florian.dpu.network.execution;
+
+import me.cassayre.florian.dpu.layer.*;
+import me.cassayre.florian.dpu.network.Parameters;
+import me.cassayre.florian.dpu.network.architecture.FeedForwardNetwork;
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates the Java source of a {@link Kernel} specialized for a network, and compiles it in-process.
+ * All the dimensions, strides, paddings and weight offsets are constants, each layer gets its own forward and backward
+ * methods (small enough to be compiled by the JIT) and convolution taps are unrolled.
+ * Supported layers: fully connected, convolution, max pooling, global average pooling, reshape, ReLU, sigmoid, tanh,
+ * softmax and mean squares. Compiling requires a JDK.
+ */
+public final class KernelCompiler
+{
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    private KernelCompiler()
+    {}
+
+    /**
+     * Compiles a kernel for the network. The compiled network reads and trains the weights of <code>network</code>.
+     * @param network the network
+     * @return the compiled network
+     * @throws IllegalArgumentException if the network contains an unsupported layer
+     */
+    public static CompiledNetwork compile(FeedForwardNetwork network)
+    {
+        final Parameters parameters = network.getParameters();
+        final String name = "GeneratedKernel" + COUNTER.getAndIncrement();
+
+        final Class<? extends Kernel> type = define(name, generate(parameters, name));
+
+        try
+        {
+            final Kernel kernel = type.getConstructor(double[].class, double[].class).newInstance(parameters.getValues(), parameters.getGradients());
+
+            return new CompiledNetwork(parameters, kernel);
+        }
+        catch(ReflectiveOperationException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Generates the source of the kernel of a network.
+     * @param parameters the parameters of the network
+     * @param className the name of the generated class (in the default package)
+     * @return the source
+     */
+    public static String generate(Parameters parameters, String className)
+    {
+        final List<Layer> layers = parameters.getLayers();
+        final int n = layers.size();
+
+        if(!(layers.get(0) instanceof InputLayer) || !(layers.get(n - 1) instanceof OutputLayer))
+            throw new IllegalArgumentException("The layers must start with an input layer and end with an output layer");
+
+        final Source source = new Source();
+
+        source.line("public final class " + className + " extends " + Kernel.class.getName());
+        source.line("{");
+        source.line("private static final double LN_2 = Math.log(2);");
+        source.line("");
+        for(int i = 0; i < n; i++)
+        {
+            final int size = layers.get(i).getOutputDimensions().getSize();
+            source.line("private final double[] a" + i + " = new double[" + size + "], g" + i + " = new double[" + size + "];");
+        }
+        source.line("");
+        source.line("public " + className + "(double[] w, double[] dw)");
+        source.line("{");
+        source.line("super(w, dw);");
+        source.line("}");
+        source.line("");
+        source.line("@Override");
+        source.line("public void forward(double[] input)");
+        source.line("{");
+        source.line("System.arraycopy(input, 0, a0, 0, " + layers.get(0).getOutputDimensions().getSize() + ");");
+        for(int i = 1; i < n; i++)
+            source.line("f" + i + "();");
+        source.line("}");
+        source.line("");
+        source.line("@Override");
+        source.line("public double backward(double[] expected)");
+        source.line("{");
+        source.line("final double loss = loss(expected);");
+        for(int i = n - 1; i >= 1; i--)
+            source.line("b" + i + "();");
+        source.line("return loss;");
+        source.line("}");
+        source.line("");
+        source.line("@Override");
+        source.line("public double[] getOutput()");
+        source.line("{");
+        source.line("return a" + (n - 1) + ";");
+        source.line("}");
+        source.line("");
+        source.line("@Override");
+        source.line("public double[] getOutputGradient()");
+        source.line("{");
+        source.line("return g" + (n - 1) + ";");
+        source.line("}");
+
+        for(int i = 1; i < n; i++)
+            generateLayer(source, layers.get(i), i, parameters.getOffset(i));
+
+        generateLoss(source, (OutputLayer) layers.get(n - 1), n - 1);
+
+        source.line("}");
+
+        return source.toString();
+    }
+
+    private static void generateLayer(Source source, Layer layer, int i, int offset)
+    {
+        final int p = i - 1;
+        final String in = "a" + p, din = "g" + p, out = "a" + i, dout = "g" + i;
+        final Dimensions inputDimensions = layer.getInputDimensions(), outputDimensions = layer.getOutputDimensions();
+        final int inputSize = inputDimensions.getSize(), outputSize = outputDimensions.getSize();
+
+        source.line("");
+        source.line("// " + layer.getClass().getSimpleName() + ": " + inputDimensions + " -> " + outputDimensions);
+
+        if(layer instanceof FullyConnectedLayer)
+        {
+            final Layer.ActivationFunctionType function = ((FullyConnectedLayer) layer).getActivationFunction();
+            final int biases = offset + outputSize * inputSize;
+
+            source.line("private void f" + i + "()");
+            source.line("{");
+            source.line("for(int j = 0; j < " + outputSize + "; j++)");
+            source.line("{");
+            source.line("final int base = " + offset + " + j * " + inputSize + ";");
+            source.line("double sum = w[" + biases + " + j];");
+            source.line("for(int k = 0; k < " + inputSize + "; k++)");
+            source.line("sum += " + in + "[k] * w[base + k];");
+            source.line(out + "[j] = " + apply(function, "sum") + ";");
+            source.line("}");
+            source.line("}");
+            source.line("");
+            source.line("private void b" + i + "()");
+            source.line("{");
+            source.line("java.util.Arrays.fill(" + din + ", 0.0);");
+            source.line("for(int j = 0; j < " + outputSize + "; j++)");
+            source.line("{");
+            source.line("final double y = " + out + "[j];");
+            source.line("final double chain = " + dout + "[j] * " + derivative(function, "y") + ";");
+            source.line("final int base = " + offset + " + j * " + inputSize + ";");
+            source.line("for(int k = 0; k < " + inputSize + "; k++)");
+            source.line("{");
+            source.line(din + "[k] += w[base + k] * chain;");
+            source.line("dw[base + k] += " + in + "[k] * chain;");
+            source.line("}");
+            source.line("dw[" + biases + " + j] += chain;");
+            source.line("}");
+            source.line("}");
+        }
+        else if(layer instanceof ConvolutionLayer)
+        {
+            generateConvolution(source, (ConvolutionLayer) layer, i, offset);
+        }
+        else if(layer instanceof MaxPoolingLayer)
+        {
+            final int stride = ((MaxPoolingLayer) layer).getStride();
+            final int depth = outputDimensions.getDepth(), inputWidth = inputDimensions.getWidth();
+
+            source.line("private void f" + i + "()");
+            source.line("{");
+            source.line("for(int y = 0; y < " + outputDimensions.getHeight() + "; y++)");
+            source.line("for(int x = 0; x < " + outputDimensions.getWidth() + "; x++)");
+            source.line("for(int z = 0; z < " + depth + "; z++)");
+            source.line("{");
+            source.line("double max = Double.NEGATIVE_INFINITY;");
+            for(int y1 = 0; y1 < stride; y1++)
+                for(int x1 = 0; x1 < stride; x1++)
+                    source.line("max = Math.max(" + in + "[z + ((x * " + stride + " + " + x1 + ") + (y * " + stride + " + " + y1 + ") * " + inputWidth + ") * " + depth + "], max);");
+            source.line(out + "[z + (x + y * " + outputDimensions.getWidth() + ") * " + depth + "] = max;");
+            source.line("}");
+            source.line("}");
+            source.line("");
+            source.line("private void b" + i + "()");
+            source.line("{");
+            source.line("for(int y = 0; y < " + outputDimensions.getHeight() + "; y++)");
+            source.line("for(int x = 0; x < " + outputDimensions.getWidth() + "; x++)");
+            source.line("for(int z = 0; z < " + depth + "; z++)");
+            source.line("{");
+            source.line("final int o = z + (x + y * " + outputDimensions.getWidth() + ") * " + depth + ";");
+            source.line("final double chain = " + dout + "[o], max = " + out + "[o];");
+            for(int y1 = 0; y1 < stride; y1++)
+            {
+                for(int x1 = 0; x1 < stride; x1++)
+                {
+                    source.line("{");
+                    source.line("final int r = z + ((x * " + stride + " + " + x1 + ") + (y * " + stride + " + " + y1 + ") * " + inputWidth + ") * " + depth + ";");
+                    source.line(din + "[r] = " + in + "[r] == max ? chain : 0.0;");
+                    source.line("}");
+                }
+            }
+            source.line("}");
+            source.line("}");
+        }
+        else if(layer instanceof GlobalAveragePoolingLayer)
+        {
+            final int depth = inputDimensions.getDepth(), area = inputDimensions.getWidth() * inputDimensions.getHeight();
+
+            source.line("private void f" + i + "()");
+            source.line("{");
+            source.line("java.util.Arrays.fill(" + out + ", 0.0);");
+            source.line("for(int k = 0; k < " + inputSize + "; k++)");
+            source.line(out + "[k % " + depth + "] += " + in + "[k];");
+            source.line("for(int z = 0; z < " + depth + "; z++)");
+            source.line(out + "[z] /= " + area + ";");
+            source.line("}");
+            source.line("");
+            source.line("private void b" + i + "()");
+            source.line("{");
+            source.line("for(int k = 0; k < " + inputSize + "; k++)");
+            source.line(din + "[k] = " + dout + "[k % " + depth + "] / " + area + ";");
+            source.line("}");
+        }
+        else if(layer instanceof ReshapeLayer)
+        {
+            // The values are copied in (z, y, x) order into the output
+            source.line("private void f" + i + "()");
+            source.line("{");
+            source.line("int k = 0;");
+            source.line("for(int z = 0; z < " + outputDimensions.getDepth() + "; z++)");
+            source.line("for(int y = 0; y < " + outputDimensions.getHeight() + "; y++)");
+            source.line("for(int x = 0; x < " + outputDimensions.getWidth() + "; x++)");
+            source.line(out + "[z + (x + y * " + outputDimensions.getWidth() + ") * " + outputDimensions.getDepth() + "] = " + in + "[k++];");
+            source.line("}");
+            source.line("");
+            source.line("private void b" + i + "()");
+            source.line("{");
+            source.line("int k = 0;");
+            source.line("for(int z = 0; z < " + outputDimensions.getDepth() + "; z++)");
+            source.line("for(int y = 0; y < " + outputDimensions.getHeight() + "; y++)");
+            source.line("for(int x = 0; x < " + outputDimensions.getWidth() + "; x++)");
+            source.line(din + "[k++] = " + dout + "[z + (x + y * " + outputDimensions.getWidth() + ") * " + outputDimensions.getDepth() + "];");
+            source.line("}");
+        }
+        else if(layer instanceof ReLULayer || layer instanceof SigmoidLayer || layer instanceof TanhLayer)
+        {
+            final String forward, backward;
+            if(layer instanceof ReLULayer)
+            {
+                forward = "Math.max(" + in + "[k], 0.0)";
+                backward = in + "[k] > 0.0 ? " + dout + "[k] : 0.0";
+            }
+            else if(layer instanceof SigmoidLayer)
+            {
+                forward = "1.0 / (1 + Math.exp(-" + in + "[k]))";
+                backward = out + "[k] * (1 - " + out + "[k]) * " + dout + "[k]";
+            }
+            else
+            {
+                forward = "Math.tanh(" + in + "[k])";
+                backward = "(1 - " + out + "[k] * " + out + "[k]) * " + dout + "[k]";
+            }
+
+            source.line("private void f" + i + "()");
+            source.line("{");
+            source.line("for(int k = 0; k < " + outputSize + "; k++)");
+            source.line(out + "[k] = " + forward + ";");
+            source.line("}");
+            source.line("");
+            source.line("private void b" + i + "()");
+            source.line("{");
+            source.line("for(int k = 0; k < " + outputSize + "; k++)");
+            source.line(din + "[k] = " + backward + ";");
+            source.line("}");
+        }
+        else if(layer instanceof SoftmaxLayer)
+        {
+            final Layer.ActivationFunctionType function = ((SoftmaxLayer) layer).getInputFunction();
+
+            source.line("private void f" + i + "()");
+            source.line("{");
+            source.line("double max = Double.NEGATIVE_INFINITY;");
+            source.line("for(int k = 0; k < " + outputSize + "; k++)");
+            source.line("{");
+            source.line("final double v = " + in + "[k];");
+            source.line("max = Math.max(" + apply(function, "v") + ", max);");
+            source.line("}");
+            source.line("double sum = 0.0;");
+            source.line("for(int k = 0; k < " + outputSize + "; k++)");
+            source.line("{");
+            source.line("final double v = " + in + "[k];");
+            source.line(out + "[k] = Math.exp(" + apply(function, "v") + " - max);");
+            source.line("sum += " + out + "[k];");
+            source.line("}");
+            source.line("for(int k = 0; k < " + outputSize + "; k++)");
+            source.line(out + "[k] /= sum;");
+            source.line("}");
+            source.line("");
+            source.line("private void b" + i + "()");
+            source.line("{");
+            source.line("for(int k = 0; k < " + outputSize + "; k++)");
+            source.line("{");
+            source.line("final double v = " + in + "[k];");
+            source.line("final double y = " + apply(function, "v") + ";");
+            source.line(din + "[k] = " + dout + "[k] * " + derivative(function, "y") + ";");
+            source.line("}");
+            source.line("}");
+        }
+        else if(layer instanceof MeanSquaresLayer)
+        {
+            source.line("private void f" + i + "()");
+            source.line("{");
+            source.line("System.arraycopy(" + in + ", 0, " + out + ", 0, " + outputSize + ");");
+            source.line("}");
+            source.line("");
+            source.line("private void b" + i + "()");
+            source.line("{");
+            source.line("System.arraycopy(" + dout + ", 0, " + din + ", 0, " + outputSize + ");");
+            source.line("}");
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unsupported layer: " + layer.getClass().getSimpleName());
+        }
+    }
+
+    private static void generateConvolution(Source source, ConvolutionLayer layer, int i, int offset)
+    {
+        final String in = "a" + (i - 1), din = "g" + (i - 1), out = "a" + i, dout = "g" + i;
+        final Dimensions inputDimensions = layer.getInputDimensions(), outputDimensions = layer.getOutputDimensions();
+        final Dimensions filterDimensions = layer.getWeights()[0].getDimensions();
+        final Layer.ActivationFunctionType function = layer.getActivationFunction();
+
+        final int filterSize = filterDimensions.getSize(), depth = filterDimensions.getDepth();
+        final int rx = (filterDimensions.getWidth() - 1) >> 1, ry = (filterDimensions.getHeight() - 1) >> 1;
+        final int sx = (filterDimensions.getWidth() >> 1) - layer.getPaddingX(), sy = (filterDimensions.getHeight() >> 1) - layer.getPaddingY();
+        final int biases = offset + outputDimensions.getDepth() * filterSize;
+
+        for(int pass = 0; pass < 2; pass++)
+        {
+            final boolean isForward = pass == 0;
+
+            source.line("");
+            source.line(isForward ? "private void f" + i + "()" : "private void b" + i + "()");
+            source.line("{");
+            if(!isForward)
+                source.line("java.util.Arrays.fill(" + din + ", 0.0);");
+            source.line("for(int i = 0; i < " + outputDimensions.getDepth() + "; i++)");
+            source.line("{");
+            source.line("final int filter = " + offset + " + i * " + filterSize + ";");
+            source.line("for(int y = 0; y < " + outputDimensions.getHeight() + "; y++)");
+            source.line("for(int x = 0; x < " + outputDimensions.getWidth() + "; x++)");
+            source.line("{");
+            source.line("final int o = i + (x + y * " + outputDimensions.getWidth() + ") * " + outputDimensions.getDepth() + ";");
+            if(isForward)
+            {
+                source.line("double sum = w[" + biases + " + i];");
+            }
+            else
+            {
+                source.line("final double y0 = " + out + "[o];");
+                source.line("final double chain = " + dout + "[o] * " + derivative(function, "y0") + ";");
+            }
+
+            // One block per tap of the filter
+            for(int y1 = -ry; y1 <= ry; y1++)
+            {
+                for(int x1 = -rx; x1 <= rx; x1++)
+                {
+                    source.line("{");
+                    source.line("final int yf = y * " + layer.getStrideY() + " + " + (y1 + sy) + ", xf = x * " + layer.getStrideX() + " + " + (x1 + sx) + ";");
+                    source.line("if(yf >= 0 && yf < " + inputDimensions.getHeight() + " && xf >= 0 && xf < " + inputDimensions.getWidth() + ")");
+                    source.line("{");
+                    source.line("final int r = (xf + yf * " + inputDimensions.getWidth() + ") * " + depth + ", f = filter + " + ((x1 + rx) + (y1 + ry) * filterDimensions.getWidth()) * depth + ";");
+                    source.line("for(int j = 0; j < " + depth + "; j++)");
+                    if(isForward)
+                    {
+                        source.line("sum += " + in + "[r + j] * w[f + j];");
+                    }
+                    else
+                    {
+                        source.line("{");
+                        source.line("dw[f + j] += " + in + "[r + j] * chain;");
+                        source.line(din + "[r + j] += w[f + j] * chain;");
+                        source.line("}");
+                    }
+                    source.line("}");
+                    source.line("}");
+                }
+            }
+
+            if(isForward)
+                source.line(out + "[o] = " + apply(function, "sum") + ";");
+            else
+                source.line("dw[" + biases + " + i] += chain;");
+            source.line("}");
+            source.line("}");
+            source.line("}");
+        }
+    }
+
+    private static void generateLoss(Source source, OutputLayer layer, int i)
+    {
+        final int size = layer.getOutputDimensions().getSize();
+
+        source.line("");
+        source.line("private double loss(double[] expected)");
+        source.line("{");
+        source.line("double loss = 0.0;");
+        source.line("for(int k = 0; k < " + size + "; k++)");
+        source.line("{");
+        if(layer instanceof SoftmaxLayer)
+        {
+            source.line("g" + i + "[k] = a" + i + "[k] - expected[k];");
+            source.line("loss -= expected[k] * (Math.log(a" + i + "[k]) / LN_2);");
+        }
+        else if(layer instanceof MeanSquaresLayer)
+        {
+            source.line("final double v = a" + i + "[k] - expected[k];");
+            source.line("g" + i + "[k] = v;");
+            source.line("loss += v * v;");
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unsupported layer: " + layer.getClass().getSimpleName());
+        }
+        source.line("}");
+        source.line("return loss;");
+        source.line("}");
+    }
+
+    private static String apply(Layer.ActivationFunctionType function, String x)
+    {
+        switch(function)
+        {
+            case LINEAR:
+                return x;
+            case RELU:
+                return "Math.max(" + x + ", 0.0)";
+            case SIGMOID:
+                return "1.0 / (1 + Math.exp(-" + x + "))";
+            case TANH:
+                return "Math.tanh(" + x + ")";
+            default:
+                throw new UnsupportedOperationException();
+        }
+    }
+
+    private static String derivative(Layer.ActivationFunctionType function, String y)
+    {
+        switch(function)
+        {
+            case LINEAR:
+                return "1.0";
+            case RELU:
+                return "(" + y + " > 0.0 ? 1.0 : 0.0)";
+            case SIGMOID:
+                return "(" + y + " * (1 - " + y + "))";
+            case TANH:
+                return "(1 - " + y + " * " + y + ")";
+            default:
+                throw new UnsupportedOperationException();
+        }
+    }
+
+    private static Class<? extends Kernel> define(String name, String source)
+    {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if(compiler == null)
+            throw new UnsupportedOperationException("Compiling kernels requires a JDK");
+
+        final Map<String, ByteArrayOutputStream> classes = new HashMap<>();
+
+        final StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, null);
+        final JavaFileManager manager = new ForwardingJavaFileManager<StandardJavaFileManager>(standard)
+        {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling)
+            {
+                return new SimpleJavaFileObject(URI.create("bytes:///" + className.replace('.', '/') + kind.extension), kind)
+                {
+                    @Override
+                    public OutputStream openOutputStream()
+                    {
+                        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+                        classes.put(className, stream);
+                        return stream;
+                    }
+                };
+            }
+        };
+
+        final JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + name + JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE)
+        {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors)
+            {
+                return source;
+            }
+        };
+
+        final StringWriter output = new StringWriter();
+        final List<String> options = Arrays.asList("-classpath", getClassPath());
+
+        if(!compiler.getTask(output, manager, null, options, null, Collections.singletonList(file)).call())
+            throw new IllegalStateException("Compilation of the kernel failed:\n" + output);
+
+        final ClassLoader loader = new ClassLoader(Kernel.class.getClassLoader())
+        {
+            @Override
+            protected Class<?> findClass(String className) throws ClassNotFoundException
+            {
+                final ByteArrayOutputStream bytes = classes.get(className);
+                if(bytes == null)
+                    throw new ClassNotFoundException(className);
+
+                final byte[] array = bytes.toByteArray();
+                return defineClass(className, array, 0, array.length);
+            }
+        };
+
+        try
+        {
+            return loader.loadClass(name).asSubclass(Kernel.class);
+        }
+        catch(ClassNotFoundException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // The class path of the application may not contain this library directly (e.g. when launched from a jar manifest)
+    private static String getClassPath()
+    {
+        try
+        {
+            final URI location = Kernel.class.getProtectionDomain().getCodeSource().getLocation().toURI();
+
+            return System.getProperty("java.class.path") + File.pathSeparator + Paths.get(location);
+        }
+        catch(URISyntaxException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Indents the generated lines according to the braces and to the loops and conditions without braces
+    private static final class Source
+    {
+        private final StringBuilder builder = new StringBuilder();
+        private final Deque<int[]> blocks = new ArrayDeque<>(); // Indentation of the opening brace and after the block
+        private int indentation = 0, nested = 0;
+
+        void line(String line)
+        {
+            if(line.equals("}"))
+            {
+                final int[] block = blocks.pop();
+                append(block[0], line);
+                indentation = block[1];
+                nested = 0;
+                return;
+            }
+
+            // An opening brace belongs to the last loop or condition
+            final boolean isBlock = line.equals("{");
+            final int level = indentation + (isBlock ? Math.max(nested - 1, 0) : nested);
+            append(level, line);
+
+            if(isBlock)
+            {
+                blocks.push(new int[] {level, indentation});
+                indentation = level + 1;
+                nested = 0;
+            }
+            else
+            {
+                nested = line.startsWith("for(") || line.startsWith("if(") ? nested + 1 : 0;
+            }
+        }
+
+        private void append(int level, String line)
+        {
+            if(!line.isEmpty())
+                for(int k = 0; k < level; k++)
+                    builder.append("    ");
+            builder.append(line).append('\n');
+        }
+
+        @Override
+        public String toString()
+        {
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package me.cassayre.florian.dpu.network.execution;
+
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.network.architecture.FeedForwardNetwork;
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Runs a list of layers as a pipeline for streams of inputs: consecutive groups of layers (stages) run on their own
+ * thread and are connected by bounded lock-free queues, so that all the stages work at the same time on different inputs.
+ * The weights are shared with the layers and only read.
+ */
+public final class Pipeline
+{
+    private static final Volume END = new Volume(new Dimensions()); // Marks the end of the stream
+
+    private final List<ExecutionPlan> stages;
+    private final int[] boundaries;
+    private final int capacity;
+
+    private volatile Throwable failure;
+
+    /**
+     * Creates a pipeline with explicit stages.
+     * @param layers the layers, in order
+     * @param boundaries the index of the first layer of each stage, starting with <code>0</code>
+     * @param capacity the capacity of the queues between the stages
+     */
+    public Pipeline(List<Layer> layers, int[] boundaries, int capacity)
+    {
+        if(boundaries.length == 0 || boundaries[0] != 0)
+            throw new IllegalArgumentException("The first stage must start at the first layer");
+
+        for(int i = 1; i < boundaries.length; i++)
+            if(boundaries[i] <= boundaries[i - 1] || boundaries[i] >= layers.size())
+                throw new IllegalArgumentException("Stages must be non-empty and ordered");
+
+        if(capacity < 1)
+            throw new IllegalArgumentException("Capacity must be strictly positive");
+
+        final List<ExecutionPlan> stages = new ArrayList<>(boundaries.length);
+        for(int i = 0; i < boundaries.length; i++)
+        {
+            final int end = i < boundaries.length - 1 ? boundaries[i + 1] : layers.size();
+            stages.add(ExecutionPlan.compile(layers.subList(boundaries[i], end), ExecutionPlan.Mode.INFERENCE));
+        }
+
+        this.stages = Collections.unmodifiableList(stages);
+        this.boundaries = boundaries.clone();
+        this.capacity = capacity;
+    }
+
+    /**
+     * Creates a pipeline for the network, where the layers are split into stages of similar cost.
+     * The cost of each layer is measured by running it on <code>sample</code>.
+     * @param network the network
+     * @param stages the maximum number of stages (for instance, the number of available cores)
+     * @param sample an input used to measure the cost of the layers
+     * @return the pipeline
+     */
+    public static Pipeline create(FeedForwardNetwork network, int stages, Volume sample)
+    {
+        final long[] costs = measureCosts(network.getLayers(), sample, 20);
+
+        return new Pipeline(network.getLayers(), partition(costs, stages), 64);
+    }
+
+    /**
+     * Measures the average time spent in the forward propagation of each layer.
+     * @param layers the layers, in order
+     * @param sample an input for the first layer
+     * @param repetitions the number of measured runs
+     * @return the cost of each layer, in nanoseconds
+     */
+    public static long[] measureCosts(List<Layer> layers, Volume sample, int repetitions)
+    {
+        final Volume[] outputs = new Volume[layers.size()];
+        for(int i = 0; i < outputs.length; i++)
+            outputs[i] = new Volume(layers.get(i).getOutputDimensions());
+
+        final long[] costs = new long[layers.size()];
+
+        for(int r = -repetitions; r < repetitions; r++) // The first half warms up the JIT
+        {
+            Volume previous = sample;
+            for(int i = 0; i < outputs.length; i++)
+            {
+                final long start = System.nanoTime();
+                layers.get(i).forwardPropagation(previous, outputs[i]);
+                if(r >= 0)
+                    costs[i] += System.nanoTime() - start;
+
+                previous = outputs[i];
+            }
+        }
+
+        for(int i = 0; i < costs.length; i++)
+            costs[i] /= repetitions;
+
+        return costs;
+    }
+
+    /**
+     * Splits a sequence of costs into at most <code>stages</code> contiguous groups, minimizing the cost of the largest group.
+     * @param costs the cost of each layer
+     * @param stages the maximum number of groups
+     * @return the index of the first element of each group
+     */
+    public static int[] partition(long[] costs, int stages)
+    {
+        final int n = costs.length;
+        final int k = Math.max(1, Math.min(stages, n));
+
+        final long[] prefix = new long[n + 1];
+        for(int i = 0; i < n; i++)
+            prefix[i + 1] = prefix[i] + costs[i];
+
+        // best[j][i]: the smallest maximal cost when splitting the first i layers into j groups
+        final long[][] best = new long[k + 1][n + 1];
+        final int[][] split = new int[k + 1][n + 1];
+        for(int i = 1; i <= n; i++)
+            best[1][i] = prefix[i];
+
+        for(int j = 2; j <= k; j++)
+        {
+            for(int i = j; i <= n; i++)
+            {
+                best[j][i] = Long.MAX_VALUE;
+                for(int p = j - 1; p < i; p++)
+                {
+                    final long cost = Math.max(best[j - 1][p], prefix[i] - prefix[p]);
+                    if(cost < best[j][i])
+                    {
+                        best[j][i] = cost;
+                        split[j][i] = p;
+                    }
+                }
+            }
+        }
+
+        final int[] boundaries = new int[k];
+        int end = n;
+        for(int j = k; j >= 2; j--)
+        {
+            end = split[j][end];
+            boundaries[j - 1] = end;
+        }
+
+        return boundaries;
+    }
+
+    /**
+     * Processes a stream of inputs. The outputs are passed to the consumer on the calling thread, in the order of the inputs.
+     * @param inputs the inputs
+     * @param consumer receives a new volume for each output
+     */
+    public void run(Iterator<Volume> inputs, Consumer<Volume> consumer)
+    {
+        failure = null;
+
+        final List<RingBuffer<Volume>> queues = new ArrayList<>(stages.size() + 1);
+        for(int i = 0; i <= stages.size(); i++)
+            queues.add(new RingBuffer<>(capacity));
+
+        final List<Thread> threads = new ArrayList<>(stages.size() + 1);
+
+        threads.add(new Thread(() ->
+        {
+            while(inputs.hasNext())
+                put(queues.get(0), inputs.next());
+            put(queues.get(0), END);
+        }, "pipeline-input"));
+
+        for(int i = 0; i < stages.size(); i++)
+        {
+            final ExecutionContext context = stages.get(i).createContext();
+            final RingBuffer<Volume> in = queues.get(i), out = queues.get(i + 1);
+
+            threads.add(new Thread(() ->
+            {
+                Volume input;
+                while((input = take(in)) != END)
+                {
+                    context.forwardPropagation(input);
+                    put(out, context.getOutput().clone());
+                }
+                put(out, END);
+            }, "pipeline-stage-" + i));
+        }
+
+        for(Thread thread : threads)
+        {
+            thread.setDaemon(true);
+            thread.setUncaughtExceptionHandler((t, e) ->
+            {
+                if(failure == null)
+                    failure = e;
+            });
+            thread.start();
+        }
+
+        try
+        {
+            final RingBuffer<Volume> last = queues.get(queues.size() - 1);
+
+            Volume output;
+            while((output = take(last)) != END)
+                consumer.accept(output);
+        }
+        catch(RuntimeException e)
+        {
+            if(failure == null)
+                failure = e; // Stops the other threads
+            throw e;
+        }
+    }
+
+    /**
+     * Processes a list of inputs, see {@link #run(Iterator, Consumer)}.
+     * @param inputs the inputs
+     * @return the outputs, in the same order
+     */
+    public List<Volume> predictAll(List<Volume> inputs)
+    {
+        final List<Volume> outputs = new ArrayList<>(inputs.size());
+
+        run(inputs.iterator(), outputs::add);
+
+        return outputs;
+    }
+
+    private void put(RingBuffer<Volume> queue, Volume volume)
+    {
+        int attempts = 0;
+        while(!queue.offer(volume))
+            backoff(attempts++);
+    }
+
+    private Volume take(RingBuffer<Volume> queue)
+    {
+        int attempts = 0;
+        Volume volume;
+        while((volume = queue.poll()) == null)
+            backoff(attempts++);
+        return volume;
+    }
+
+    private void backoff(int attempts)
+    {
+        if(failure != null)
+            throw new IllegalStateException("A stage of the pipeline failed", failure);
+
+        if(attempts < 100)
+            Thread.yield();
+        else
+            LockSupport.parkNanos(10_000);
+    }
+
+    public int getStageCount()
+    {
+        return stages.size();
+    }
+
+    public int[] getBoundaries()
+    {
+        return boundaries.clone();
+    }
+}
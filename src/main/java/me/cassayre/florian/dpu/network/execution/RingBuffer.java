@@ -0,0 +1,53 @@
+package me.cassayre.florian.dpu.network.execution;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded lock-free queue for exactly one producer thread and one consumer thread.
+ */
+final class RingBuffer<T>
+{
+    private final Object[] elements;
+    private final int mask;
+
+    private final AtomicLong head = new AtomicLong(); // Next index to read, only written by the consumer
+    private final AtomicLong tail = new AtomicLong(); // Next index to write, only written by the producer
+
+    RingBuffer(int capacity)
+    {
+        if(capacity < 1)
+            throw new IllegalArgumentException("Capacity must be strictly positive");
+
+        final int size = Integer.highestOneBit(capacity - 1) << 1;
+
+        this.elements = new Object[Math.max(size, 1)];
+        this.mask = elements.length - 1;
+    }
+
+    boolean offer(T element)
+    {
+        final long t = tail.get();
+        if(t - head.get() == elements.length)
+            return false;
+
+        elements[(int) (t & mask)] = element;
+        tail.lazySet(t + 1); // Publishes the element
+
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    T poll()
+    {
+        final long h = head.get();
+        if(h == tail.get())
+            return null;
+
+        final int index = (int) (h & mask);
+        final T element = (T) elements[index];
+        elements[index] = null;
+        head.lazySet(h + 1); // Releases the slot
+
+        return element;
+    }
+}
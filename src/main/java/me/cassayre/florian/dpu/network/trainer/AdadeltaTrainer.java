@@ -1,44 +1,37 @@
 package me.cassayre.florian.dpu.network.trainer;
 
-import me.cassayre.florian.dpu.layer.Layer;
 import me.cassayre.florian.dpu.network.Network;
-import me.cassayre.florian.dpu.util.volume.Dimensions;
-import me.cassayre.florian.dpu.util.volume.Volume;
 
+/**
+ * Adadelta. The running averages of the squared gradients and of the squared updates mirror the parameter buffer,
+ * in double or (halving their memory again) single precision; the update itself is not kept between steps.
+ */
 public class AdadeltaTrainer extends Trainer
 {
     private final double gamma, e;
 
-    private Volume[][] gt, vt, xt;
+    // Running averages of the squared gradients (gt) and of the squared updates (xt), in one of the two precisions
+    private final double[] gt, xt;
+    private final float[] gtSingle, xtSingle;
 
-    public AdadeltaTrainer(Network network, int batchSize, double gamma, double e)
+    public AdadeltaTrainer(Network network, int batchSize, double gamma, double e, boolean isSinglePrecision)
     {
-        super(network);
+        super(network, batchSize);
 
         this.gamma = gamma;
         this.e = e;
 
-        gt = new Volume[network.getLayers().size()][];
-        vt = new Volume[network.getLayers().size()][];
-        xt = new Volume[network.getLayers().size()][];
-
-        for(int i = 0; i < network.getLayers().size(); i++)
-        {
-            final Volume[] weights = network.getLayers().get(i).getWeights();
+        final int size = parameters.getSize();
 
-            gt[i] = new Volume[weights.length];
-            vt[i] = new Volume[weights.length];
-            xt[i] = new Volume[weights.length];
-
-            for(int j = 0; j < weights.length; j++)
-            {
-                final Dimensions dimensions = weights[j].getDimensions();
+        gt = isSinglePrecision ? null : new double[size];
+        xt = isSinglePrecision ? null : new double[size];
+        gtSingle = isSinglePrecision ? new float[size] : null;
+        xtSingle = isSinglePrecision ? new float[size] : null;
+    }
 
-                gt[i][j] = new Volume(dimensions);
-                vt[i][j] = new Volume(dimensions);
-                xt[i][j] = new Volume(dimensions);
-            }
-        }
+    public AdadeltaTrainer(Network network, int batchSize, double gamma, double e)
+    {
+        this(network, batchSize, gamma, e, false);
     }
 
     public AdadeltaTrainer(Network network, double gamma, double e)
@@ -47,34 +40,80 @@ public class AdadeltaTrainer extends Trainer
     }
 
     @Override
-    protected void updateWeights()
+    protected void updateWeights(int from, int to)
     {
-        for(int i = 0; i < network.getLayers().size(); i++)
+        final double[] values = parameters.getValues(), gradients = parameters.getGradients();
+        final double normalization = 1.0 / accumulated;
+
+        if(gt != null)
         {
-            final int i1 = i;
-            final Layer layer = network.getLayers().get(i);
-            final Volume[] weights = layer.getWeights();
+            for(int k = from; k < to; k++)
+            {
+                final double grad = gradients[k] * normalization;
 
-            if(!layer.isTrainable())
-                continue;
+                final double g = gamma * gt[k] + (1 - gamma) * grad * grad;
+                final double v = -Math.sqrt(xt[k] + e) * grad / Math.sqrt(g + e);
 
-            for(int j = 0; j < weights.length; j++)
+                gt[k] = g;
+                xt[k] = gamma * xt[k] + (1 - gamma) * v * v;
+                values[k] += v;
+            }
+        }
+        else
+        {
+            for(int k = from; k < to; k++)
             {
-                final int j1 = j;
-                final Volume weightVolume = weights[j];
+                final double grad = gradients[k] * normalization;
+
+                final double g = gamma * gtSingle[k] + (1 - gamma) * grad * grad;
+                final double v = -Math.sqrt(xtSingle[k] + e) * grad / Math.sqrt(g + e);
+
+                gtSingle[k] = (float) g;
+                xtSingle[k] = (float) (gamma * xtSingle[k] + (1 - gamma) * v * v);
+                values[k] += v;
+            }
+        }
+    }
 
-                weightVolume.foreach(k ->
-                {
-                    final double grad = weightVolume.getGradient(k) / batchSize;
+    public boolean isSinglePrecision()
+    {
+        return gt == null;
+    }
 
-                    final Volume gt1 = gt[i1][j1], vt1 = vt[i1][j1], xt1 = xt[i1][j1];
+    @Override
+    protected int getStateSize()
+    {
+        return 2 * parameters.getSize();
+    }
 
-                    gt1.set(k, gamma * gt1.get(k) + (1 - gamma) * grad * grad);
-                    vt1.set(k, -Math.sqrt(xt1.get(k) + e) * grad / Math.sqrt(gt1.get(k) + e));
-                    xt1.set(k, gamma * xt1.get(k) + (1 - gamma) * vt1.get(k) * vt1.get(k));
+    @Override
+    protected void getState(double[] state)
+    {
+        final int size = parameters.getSize();
 
-                    weightVolume.add(k, vt1.get(k));
-                });
+        for(int k = 0; k < size; k++)
+        {
+            state[k] = gt != null ? gt[k] : gtSingle[k];
+            state[size + k] = xt != null ? xt[k] : xtSingle[k];
+        }
+    }
+
+    @Override
+    protected void setState(double[] state)
+    {
+        final int size = parameters.getSize();
+
+        for(int k = 0; k < size; k++)
+        {
+            if(gt != null)
+            {
+                gt[k] = state[k];
+                xt[k] = state[size + k];
+            }
+            else
+            {
+                gtSingle[k] = (float) state[k];
+                xtSingle[k] = (float) state[size + k];
             }
         }
     }
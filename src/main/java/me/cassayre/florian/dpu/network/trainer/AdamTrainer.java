@@ -0,0 +1,99 @@
+package me.cassayre.florian.dpu.network.trainer;
+
+import me.cassayre.florian.dpu.network.Network;
+
+/**
+ * Adam, with an optional decoupled weight decay (AdamW): the weights are shrunk by <code>learningRate * weightDecay</code>
+ * independently of the adaptive step, instead of adding an L2 term to the gradients.
+ * The moments mirror the parameter buffer, each update is a single pass over the weights, gradients and moments.
+ */
+public class AdamTrainer extends Trainer
+{
+    private final double learningRate, beta1, beta2, e, weightDecay;
+
+    private final double[] m, v; // First and second moments, one value per parameter
+    private final double[] powers = {1.0, 1.0}; // beta1^t and beta2^t, for the bias correction
+    private double stepSize, correction; // Bias corrections of the current update
+
+    public AdamTrainer(Network network, int batchSize, double learningRate, double beta1, double beta2, double e, double weightDecay)
+    {
+        super(network, batchSize);
+
+        this.learningRate = learningRate;
+        this.beta1 = beta1;
+        this.beta2 = beta2;
+        this.e = e;
+        this.weightDecay = weightDecay;
+
+        this.m = new double[parameters.getSize()];
+        this.v = new double[parameters.getSize()];
+    }
+
+    public AdamTrainer(Network network, int batchSize, double learningRate, double beta1, double beta2, double e)
+    {
+        this(network, batchSize, learningRate, beta1, beta2, e, 0.0);
+    }
+
+    public AdamTrainer(Network network, int batchSize, double learningRate)
+    {
+        this(network, batchSize, learningRate, 0.9, 0.999, 1E-8);
+    }
+
+    public AdamTrainer(Network network, double learningRate)
+    {
+        this(network, 1, learningRate);
+    }
+
+    @Override
+    protected void updateWeights()
+    {
+        powers[0] *= beta1;
+        powers[1] *= beta2;
+
+        stepSize = learningRate / (1 - powers[0]);
+        correction = 1.0 / (1 - powers[1]);
+
+        super.updateWeights();
+    }
+
+    @Override
+    protected void updateWeights(int from, int to)
+    {
+        final double[] values = parameters.getValues(), gradients = parameters.getGradients();
+        final double decay = 1 - learningRate * weightDecay, normalization = 1.0 / accumulated;
+
+        for(int k = from; k < to; k++)
+        {
+            final double grad = gradients[k] * normalization;
+
+            final double m1 = beta1 * m[k] + (1 - beta1) * grad;
+            final double v1 = beta2 * v[k] + (1 - beta2) * grad * grad;
+            m[k] = m1;
+            v[k] = v1;
+
+            values[k] = values[k] * decay - stepSize * m1 / (Math.sqrt(v1 * correction) + e);
+        }
+    }
+
+    @Override
+    protected int getStateSize()
+    {
+        return m.length + v.length + powers.length;
+    }
+
+    @Override
+    protected void getState(double[] state)
+    {
+        System.arraycopy(m, 0, state, 0, m.length);
+        System.arraycopy(v, 0, state, m.length, v.length);
+        System.arraycopy(powers, 0, state, m.length + v.length, powers.length);
+    }
+
+    @Override
+    protected void setState(double[] state)
+    {
+        System.arraycopy(state, 0, m, 0, m.length);
+        System.arraycopy(state, m.length, v, 0, v.length);
+        System.arraycopy(state, m.length + v.length, powers, 0, powers.length);
+    }
+}
@@ -0,0 +1,334 @@
+package me.cassayre.florian.dpu.network.trainer;
+
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.layer.Statistical;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically saves the weights of a network along with the state of its trainer (see {@link Trainer#getState(double[])}),
+ * the running statistics of its layers (see {@link Statistical}) and the number of samples seen, so that training can be
+ * resumed after an interruption.
+ * The training thread only copies the values into one of two snapshot buffers, the file is written by a background
+ * thread: if it is still busy with the previous snapshot, the pending one is replaced by the newer one.
+ * Each checkpoint is written to a temporary file which then atomically replaces the previous one.
+ */
+public class Checkpointer implements Closeable
+{
+    public static final int MAGIC_VALUE = 0x4B504344; // "DCPK"
+    public static final int VERSION = 3;
+
+    private static final int HEADER_SIZE = 24;
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final Trainer trainer;
+    private final Path path;
+    private final int interval;
+
+    private final Snapshot[] snapshots = {new Snapshot(), new Snapshot()};
+    private Snapshot pending, writing; // Guarded by this
+
+    private final ExecutorService writer;
+    private volatile IOException failure;
+    private volatile int lastSeen = -1;
+
+    private int next;
+
+    /**
+     * @param trainer the trainer
+     * @param path the checkpoint file
+     * @param interval the number of samples between two checkpoints
+     */
+    public Checkpointer(Trainer trainer, Path path, int interval)
+    {
+        if(interval < 1)
+            throw new IllegalArgumentException("The interval must be strictly positive");
+
+        this.trainer = trainer;
+        this.path = path;
+        this.interval = interval;
+        this.next = trainer.getSeen() + interval;
+
+        this.writer = Executors.newSingleThreadExecutor(runnable ->
+        {
+            final Thread thread = new Thread(runnable, "Checkpoint writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Takes a checkpoint if at least <code>interval</code> samples were seen since the last one.
+     * Meant to be called after each training step; checkpoints are only taken between two weight updates.
+     */
+    public void update()
+    {
+        if(trainer.accumulated == 0 && trainer.getSeen() >= next)
+        {
+            checkpoint();
+            next = trainer.getSeen() + interval;
+        }
+    }
+
+    /**
+     * Snapshots the current state and schedules it to be written, without waiting for the disk.
+     * @throws UncheckedIOException if writing a previous checkpoint failed
+     */
+    public void checkpoint()
+    {
+        if(failure != null)
+            throw new UncheckedIOException(failure);
+
+        synchronized(this)
+        {
+            final Snapshot snapshot = snapshots[0] != writing ? snapshots[0] : snapshots[1];
+            snapshot.copy(trainer);
+
+            final boolean isScheduled = pending != null;
+            pending = snapshot;
+
+            if(!isScheduled)
+                writer.submit(this::write);
+        }
+    }
+
+    private void write()
+    {
+        final Snapshot snapshot;
+        synchronized(this)
+        {
+            snapshot = pending;
+            pending = null;
+            writing = snapshot;
+        }
+
+        try
+        {
+            final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+
+            snapshot.write(temporary);
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            lastSeen = snapshot.seen;
+        }
+        catch(IOException e)
+        {
+            failure = e;
+        }
+
+        synchronized(this)
+        {
+            writing = null;
+        }
+    }
+
+    /**
+     * The number of samples seen at the time of the last checkpoint written to disk.
+     * @return the number of samples, or <code>-1</code> if no checkpoint was written yet
+     */
+    public int getLastSeen()
+    {
+        return lastSeen;
+    }
+
+    /**
+     * Waits for the scheduled checkpoints to be written and stops the background thread.
+     * @throws IOException if writing a checkpoint failed
+     */
+    @Override
+    public void close() throws IOException
+    {
+        writer.shutdown();
+
+        try
+        {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if(failure != null)
+            throw failure;
+    }
+
+    /**
+     * Restores the weights, the state of the trainer, the running statistics and the number of samples seen from a checkpoint.
+     * The network must have the same architecture as the one that was checkpointed.
+     * @param trainer the trainer
+     * @param path the checkpoint file
+     * @return <code>true</code> if the checkpoint was restored, <code>false</code> if the file doesn't exist
+     * @throws IOException if the file can't be read or doesn't match the network
+     */
+    public static boolean resume(Trainer trainer, Path path) throws IOException
+    {
+        if(!Files.exists(path))
+            return false;
+
+        final double[] values = trainer.parameters.getValues();
+        final int stateSize = trainer.getStateSize(), statisticsSize = getStatisticsSize(trainer);
+
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            read(channel, buffer, HEADER_SIZE);
+            if(buffer.getInt() != MAGIC_VALUE)
+                throw new IOException("Not a checkpoint file");
+            if(buffer.getInt() != VERSION)
+                throw new IOException("Unsupported version");
+
+            final int seen = buffer.getInt();
+            if(buffer.getInt() != values.length)
+                throw new IOException("The checkpoint doesn't match the network");
+            if(buffer.getInt() != stateSize)
+                throw new IOException("The checkpoint doesn't match the trainer");
+            if(buffer.getInt() != statisticsSize)
+                throw new IOException("The checkpoint doesn't match the network");
+
+            final double[] restored = new double[values.length], restoredState = new double[stateSize], restoredStatistics = new double[statisticsSize];
+            readArray(channel, buffer, restored);
+            readArray(channel, buffer, restoredState);
+            readArray(channel, buffer, restoredStatistics);
+
+            // Nothing is modified until the whole file was read
+            System.arraycopy(restored, 0, values, 0, values.length);
+            trainer.setState(restoredState);
+
+            int offset = 0;
+            for(Layer layer : trainer.network.getLayers())
+            {
+                if(layer instanceof Statistical)
+                {
+                    ((Statistical) layer).setStatistics(restoredStatistics, offset);
+                    offset += ((Statistical) layer).getStatisticsSize();
+                }
+            }
+
+            trainer.parameters.zeroGradients();
+            trainer.seen = seen;
+            trainer.accumulated = 0;
+        }
+
+        return true;
+    }
+
+    // The running statistics of all the layers, one after the other
+    private static int getStatisticsSize(Trainer trainer)
+    {
+        int size = 0;
+        for(Layer layer : trainer.network.getLayers())
+            if(layer instanceof Statistical)
+                size += ((Statistical) layer).getStatisticsSize();
+
+        return size;
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException
+    {
+        buffer.clear().limit(bytes);
+
+        while(buffer.hasRemaining())
+            if(channel.read(buffer) < 0)
+                throw new IOException("Truncated checkpoint file");
+
+        buffer.flip();
+    }
+
+    private static void readArray(FileChannel channel, ByteBuffer buffer, double[] array) throws IOException
+    {
+        for(int from = 0; from < array.length; )
+        {
+            final int length = Math.min(buffer.capacity() / Double.BYTES, array.length - from);
+
+            read(channel, buffer, length * Double.BYTES);
+            buffer.asDoubleBuffer().get(array, from, length);
+
+            from += length;
+        }
+    }
+
+    private static void writeArray(FileChannel channel, ByteBuffer buffer, double[] array) throws IOException
+    {
+        for(int from = 0; from < array.length; )
+        {
+            final int length = Math.min(buffer.capacity() / Double.BYTES, array.length - from);
+
+            buffer.clear();
+            buffer.asDoubleBuffer().put(array, from, length);
+            buffer.limit(length * Double.BYTES);
+
+            while(buffer.hasRemaining())
+                channel.write(buffer);
+
+            from += length;
+        }
+    }
+
+    private static final class Snapshot
+    {
+        private double[] values = new double[0], state = new double[0], statistics = new double[0];
+        private int seen;
+
+        void copy(Trainer trainer)
+        {
+            final double[] source = trainer.parameters.getValues();
+
+            if(values.length != source.length)
+                values = new double[source.length];
+            System.arraycopy(source, 0, values, 0, source.length);
+
+            if(state.length != trainer.getStateSize())
+                state = new double[trainer.getStateSize()];
+            trainer.getState(state);
+
+            if(statistics.length != getStatisticsSize(trainer))
+                statistics = new double[getStatisticsSize(trainer)];
+
+            int offset = 0;
+            for(Layer layer : trainer.network.getLayers())
+            {
+                if(layer instanceof Statistical)
+                {
+                    ((Statistical) layer).getStatistics(statistics, offset);
+                    offset += ((Statistical) layer).getStatisticsSize();
+                }
+            }
+
+            seen = trainer.getSeen();
+        }
+
+        void write(Path path) throws IOException
+        {
+            try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+            {
+                final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+                buffer.putInt(MAGIC_VALUE).putInt(VERSION).putInt(seen).putInt(values.length).putInt(state.length).putInt(statistics.length);
+                buffer.flip();
+
+                while(buffer.hasRemaining())
+                    channel.write(buffer);
+
+                writeArray(channel, buffer, values);
+                writeArray(channel, buffer, state);
+                writeArray(channel, buffer, statistics);
+
+                channel.force(false);
+            }
+        }
+    }
+}
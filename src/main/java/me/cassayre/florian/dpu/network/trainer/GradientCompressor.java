@@ -0,0 +1,87 @@
+package me.cassayre.florian.dpu.network.trainer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Lossy encoding of the gradients exchanged between workers (see {@link ParallelTrainer}).
+ * With error feedback, what the encoding lost is kept in a residual and added to the gradients of the next call, so
+ * that every component is eventually transmitted. A compressor holds the residual of one worker: each worker needs its own.
+ */
+public abstract class GradientCompressor
+{
+    private final boolean isErrorFeedback;
+    private double[] residual = new double[0];
+
+    protected GradientCompressor(boolean isErrorFeedback)
+    {
+        this.isErrorFeedback = isErrorFeedback;
+    }
+
+    /**
+     * Encodes the gradients (plus the residual of the previous calls, with error feedback).
+     * @param gradients the gradients, left unmodified
+     * @return the message
+     */
+    public Message compress(double[] gradients)
+    {
+        if(!isErrorFeedback)
+            return encode(gradients);
+
+        if(residual.length != gradients.length)
+            residual = new double[gradients.length];
+
+        for(int k = 0; k < gradients.length; k++)
+            residual[k] += gradients[k];
+
+        final Message message = encode(residual);
+        message.addTo(residual, -1.0); // Keeps what wasn't transmitted
+
+        // Overflowing gradients (see Network#getLossScale) are transmitted, but must not poison the next calls
+        for(double value : residual)
+        {
+            if(!Double.isFinite(value))
+            {
+                Arrays.fill(residual, 0.0);
+                break;
+            }
+        }
+
+        return message;
+    }
+
+    public boolean isErrorFeedback()
+    {
+        return isErrorFeedback;
+    }
+
+    // The accumulated error, empty before the first compression
+    public double[] getResidual()
+    {
+        return residual;
+    }
+
+    protected abstract Message encode(double[] gradients);
+
+    /**
+     * Decodes a message written by {@link Message#write(ByteBuffer)}.
+     * @param buffer the buffer, positioned at the start of the message
+     * @return the message
+     */
+    public abstract Message read(ByteBuffer buffer);
+
+    public static abstract class Message
+    {
+        /**
+         * Adds the decoded gradients, multiplied by a factor, to an array.
+         * @param target the array
+         * @param factor the factor
+         */
+        public abstract void addTo(double[] target, double factor);
+
+        // The number of bytes written by write
+        public abstract int getSize();
+
+        public abstract void write(ByteBuffer buffer);
+    }
+}
@@ -0,0 +1,169 @@
+package me.cassayre.florian.dpu.network.trainer;
+
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.layer.Statistical;
+import me.cassayre.florian.dpu.network.Network;
+import me.cassayre.florian.dpu.network.Parameters;
+import me.cassayre.florian.dpu.network.execution.ExecutionContext;
+import me.cassayre.florian.dpu.network.execution.ExecutionPlan;
+import me.cassayre.florian.dpu.util.volume.Volume;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous stochastic gradient descent without locks (Hogwild): several threads train on their own samples and
+ * apply their updates directly to the shared weights, without synchronizing with each other. This relies on the updates
+ * being sparse: a thread only writes the weights whose gradient is not zero for its sample (e.g. the weights of the
+ * neurons activated by a ReLU), so the threads rarely write the same weights.
+ * Each thread has its own activations and gradients, only the weight values are shared. The running statistics of the
+ * layers (see {@link Statistical}) are shared too, but each thread applies the statistics of its samples under a lock.
+ */
+public class HogwildTrainer implements AutoCloseable
+{
+    private final double learningRate;
+    private final ExecutionContext[] replicas;
+    private final Parameters[] parameters; // Shared values, one gradient buffer per thread
+    private final ForkJoinPool pool;
+    private final Object statistics = new Object(); // Held while updating the running statistics shared by the threads
+    private final boolean hasStatistics;
+
+    private volatile double loss;
+    private final AtomicInteger seen = new AtomicInteger();
+
+    public HogwildTrainer(Network network, double learningRate, int threads)
+    {
+        if(threads < 1)
+            throw new IllegalArgumentException("There must be at least one thread");
+
+        this.learningRate = learningRate;
+        this.replicas = new ExecutionContext[threads];
+        this.parameters = new Parameters[threads];
+        this.pool = new ForkJoinPool(threads);
+
+        for(int t = 0; t < threads; t++)
+        {
+            this.parameters[t] = network.getParameters().replicate();
+            this.replicas[t] = ExecutionPlan.compile(parameters[t], ExecutionPlan.Mode.TRAINING).createContext();
+        }
+
+        boolean hasStatistics = false;
+        for(Layer layer : network.getLayers())
+            hasStatistics |= layer instanceof Statistical;
+        this.hasStatistics = hasStatistics;
+    }
+
+    public HogwildTrainer(Network network, double learningRate)
+    {
+        this(network, learningRate, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Trains the network once on each sample, the samples being distributed between the threads.
+     * @param inputs the inputs
+     * @param expectedOutputs the expected outputs
+     * @return the mean loss over the samples
+     */
+    public double train(List<Volume> inputs, List<Volume> expectedOutputs)
+    {
+        if(inputs.size() != expectedOutputs.size())
+            throw new IllegalArgumentException("There must be as many expected outputs as inputs");
+
+        final AtomicInteger next = new AtomicInteger();
+        final List<Callable<Double>> workers = new ArrayList<>(replicas.length);
+
+        for(int t = 0; t < replicas.length; t++)
+        {
+            final ExecutionContext replica = replicas[t];
+            final Parameters replicaParameters = parameters[t];
+            final double[] values = replicaParameters.getValues(), gradients = replicaParameters.getGradients();
+
+            workers.add(() ->
+            {
+                double sum = 0.0;
+                int i;
+                while((i = next.getAndIncrement()) < inputs.size())
+                {
+                    replica.forwardPropagation(inputs.get(i), true);
+                    replica.backwardPropagation(expectedOutputs.get(i));
+                    sum += replica.getLoss();
+
+                    for(int l = 0; l < replica.getLayers().size(); l++)
+                    {
+                        if(!replica.getLayers().get(l).isTrainable())
+                            continue;
+
+                        // Only the weights the sample contributed to are written, the gradients are local to the thread
+                        for(int k = replicaParameters.getOffset(l); k < replicaParameters.getOffset(l + 1); k++)
+                        {
+                            final double gradient = gradients[k];
+                            if(gradient != 0.0)
+                            {
+                                values[k] -= learningRate * gradient; // Racy on purpose
+                                gradients[k] = 0.0;
+                            }
+                        }
+                    }
+
+                    // Unlike the weights, the running statistics are dense: updating them without a lock would lose most updates
+                    if(hasStatistics)
+                    {
+                        synchronized(statistics)
+                        {
+                            for(Layer layer : replica.getLayers())
+                                if(layer instanceof Statistical)
+                                    ((Statistical) layer).updateStatistics();
+                        }
+                    }
+
+                    seen.incrementAndGet();
+                }
+                return sum;
+            });
+        }
+
+        double sum = 0.0;
+        for(Future<Double> future : pool.invokeAll(workers))
+        {
+            try
+            {
+                sum += future.get();
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            catch(ExecutionException e)
+            {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        loss = inputs.isEmpty() ? 0.0 : sum / inputs.size();
+
+        return loss;
+    }
+
+    public double getLoss()
+    {
+        return loss;
+    }
+
+    public int getSeen()
+    {
+        return seen.get();
+    }
+
+    // Releases the threads
+    @Override
+    public void close()
+    {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,108 @@
+package me.cassayre.florian.dpu.network.trainer;
+
+import me.cassayre.florian.dpu.network.Network;
+
+/**
+ * LAMB: the AdamW direction <code>u</code> of each weight tensor is rescaled to a step of <code>|w| / |u|</code> times the learning rate.
+ * The moments are updated while computing the norms, the direction is recomputed from them when applying the update.
+ */
+public class LAMBTrainer extends LayerwiseTrainer
+{
+    private final double beta1, beta2, e, weightDecay;
+
+    private final double[] m, v;
+    private final double[] powers = {1.0, 1.0}; // beta1^t and beta2^t, for the bias correction
+    private double correction1, correction2;
+
+    public LAMBTrainer(Network network, int batchSize, LearningRateSchedule schedule, double beta1, double beta2, double e, double weightDecay)
+    {
+        super(network, batchSize, schedule);
+
+        this.beta1 = beta1;
+        this.beta2 = beta2;
+        this.e = e;
+        this.weightDecay = weightDecay;
+
+        this.m = new double[parameters.getSize()];
+        this.v = new double[parameters.getSize()];
+    }
+
+    public LAMBTrainer(Network network, int batchSize, LearningRateSchedule schedule)
+    {
+        this(network, batchSize, schedule, 0.9, 0.999, 1E-6, 0.01);
+    }
+
+    @Override
+    protected void updateWeights()
+    {
+        powers[0] *= beta1;
+        powers[1] *= beta2;
+
+        correction1 = 1.0 / (1 - powers[0]);
+        correction2 = 1.0 / (1 - powers[1]);
+
+        super.updateWeights();
+    }
+
+    @Override
+    protected double computeTrustRatio(int from, int to, boolean isDecayed)
+    {
+        final double[] values = parameters.getValues(), gradients = parameters.getGradients();
+        final double normalization = 1.0 / accumulated;
+        final double decay = isDecayed ? weightDecay : 0.0;
+
+        double weights = 0.0, directions = 0.0;
+        for(int k = from; k < to; k++)
+        {
+            final double grad = gradients[k] * normalization;
+
+            m[k] = beta1 * m[k] + (1 - beta1) * grad;
+            v[k] = beta2 * v[k] + (1 - beta2) * grad * grad;
+
+            final double u = direction(k, values[k], decay);
+            weights += values[k] * values[k];
+            directions += u * u;
+        }
+
+        return weights > 0.0 && directions > 0.0 ? Math.sqrt(weights / directions) : 1.0;
+    }
+
+    @Override
+    protected void updateWeights(int from, int to, double rate, boolean isDecayed)
+    {
+        final double[] values = parameters.getValues();
+        final double decay = isDecayed ? weightDecay : 0.0;
+
+        for(int k = from; k < to; k++)
+            values[k] -= rate * direction(k, values[k], decay);
+    }
+
+    private double direction(int k, double value, double decay)
+    {
+        return m[k] * correction1 / (Math.sqrt(v[k] * correction2) + e) + decay * value;
+    }
+
+    @Override
+    protected int getStateSize()
+    {
+        return m.length + v.length + powers.length + 1;
+    }
+
+    @Override
+    protected void getState(double[] state)
+    {
+        System.arraycopy(m, 0, state, 0, m.length);
+        System.arraycopy(v, 0, state, m.length, v.length);
+        System.arraycopy(powers, 0, state, m.length + v.length, powers.length);
+        state[state.length - 1] = updates;
+    }
+
+    @Override
+    protected void setState(double[] state)
+    {
+        System.arraycopy(state, 0, m, 0, m.length);
+        System.arraycopy(state, m.length, v, 0, v.length);
+        System.arraycopy(state, m.length + v.length, powers, 0, powers.length);
+        updates = (int) state[state.length - 1];
+    }
+}
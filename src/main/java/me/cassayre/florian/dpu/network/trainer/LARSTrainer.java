@@ -0,0 +1,95 @@
+package me.cassayre.florian.dpu.network.trainer;
+
+import me.cassayre.florian.dpu.network.Network;
+
+/**
+ * LARS: momentum SGD where the step of each weight tensor is scaled by <code>eta * |w| / (|g| + weightDecay * |w|)</code>.
+ */
+public class LARSTrainer extends LayerwiseTrainer
+{
+    private final double momentum, weightDecay, eta;
+
+    private final double[] velocity;
+
+    /**
+     * @param network the network
+     * @param batchSize the batch size
+     * @param schedule the global learning rate
+     * @param momentum the momentum
+     * @param weightDecay the weight decay (L2 penalty)
+     * @param eta the trust coefficient
+     */
+    public LARSTrainer(Network network, int batchSize, LearningRateSchedule schedule, double momentum, double weightDecay, double eta)
+    {
+        super(network, batchSize, schedule);
+
+        this.momentum = momentum;
+        this.weightDecay = weightDecay;
+        this.eta = eta;
+
+        this.velocity = new double[parameters.getSize()];
+    }
+
+    public LARSTrainer(Network network, int batchSize, LearningRateSchedule schedule)
+    {
+        this(network, batchSize, schedule, 0.9, 5E-4, 0.001);
+    }
+
+    @Override
+    protected double computeTrustRatio(int from, int to, boolean isDecayed)
+    {
+        final double[] values = parameters.getValues(), gradients = parameters.getGradients();
+        final double normalization = 1.0 / accumulated;
+        final double decay = isDecayed ? weightDecay : 0.0;
+
+        double weights = 0.0, grads = 0.0;
+        for(int k = from; k < to; k++)
+        {
+            final double grad = gradients[k] * normalization;
+            weights += values[k] * values[k];
+            grads += grad * grad;
+        }
+
+        weights = Math.sqrt(weights);
+        grads = Math.sqrt(grads);
+
+        // Tensors initialized to zero, or without gradient, are left to the global rate
+        return weights > 0.0 && grads > 0.0 ? eta * weights / (grads + decay * weights) : 1.0;
+    }
+
+    @Override
+    protected void updateWeights(int from, int to, double rate, boolean isDecayed)
+    {
+        final double[] values = parameters.getValues(), gradients = parameters.getGradients();
+        final double normalization = 1.0 / accumulated;
+        final double decay = isDecayed ? weightDecay : 0.0;
+
+        for(int k = from; k < to; k++)
+        {
+            final double v = momentum * velocity[k] + rate * (gradients[k] * normalization + decay * values[k]);
+            velocity[k] = v;
+
+            values[k] -= v;
+        }
+    }
+
+    @Override
+    protected int getStateSize()
+    {
+        return velocity.length + 1;
+    }
+
+    @Override
+    protected void getState(double[] state)
+    {
+        System.arraycopy(velocity, 0, state, 0, velocity.length);
+        state[velocity.length] = updates;
+    }
+
+    @Override
+    protected void setState(double[] state)
+    {
+        System.arraycopy(state, 0, velocity, 0, velocity.length);
+        updates = (int) state[velocity.length];
+    }
+}
@@ -0,0 +1,147 @@
+package me.cassayre.florian.dpu.network.trainer;
+
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.network.Network;
+import me.cassayre.florian.dpu.util.volume.Volume;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Base of the optimizers scaling the step of each weight tensor by a trust ratio computed from its norm, so that large
+ * batches and their large learning rates don't make the tensors with small weights diverge.
+ * The tensors are the filters of a layer (see {@link Layer#getFilterCount()}), taken together, and each of its other
+ * volumes of {@link Layer#getWeights()}, such as the biases: they are contiguous in the parameters.
+ * Vectors (biases, scales and shifts of normalizations) can be excluded from both the trust ratio and the weight decay,
+ * see {@link #setExcludingVectors(boolean)}.
+ * Each update runs in two passes: the trust ratios of the tensors are computed concurrently, then the weights are
+ * updated in chunks, see {@link Trainer#updateWeights()}.
+ */
+public abstract class LayerwiseTrainer extends Trainer
+{
+    private final LearningRateSchedule schedule;
+    private final int[] offsets; // Start of each tensor in the parameters, followed by the end of the last one
+    private final int[] tensorLayers; // Index of the layer of each tensor
+    private final boolean[] isVector;
+    private final double[] trustRatios; // One per tensor
+    private boolean isExcludingVectors = false;
+    private double rate;
+
+    protected int updates = 0; // Number of updates applied, the step of the schedule
+
+    public LayerwiseTrainer(Network network, int batchSize, LearningRateSchedule schedule)
+    {
+        super(network, batchSize);
+
+        this.schedule = schedule;
+
+        final List<Layer> layers = network.getLayers();
+        final List<Integer> offsets = new ArrayList<>(), tensorLayers = new ArrayList<>();
+        final List<Boolean> isVector = new ArrayList<>();
+
+        for(int l = 0; l < layers.size(); l++)
+        {
+            final Volume[] weights = layers.get(l).getWeights();
+            final int filters = layers.get(l).getFilterCount();
+
+            int offset = parameters.getOffset(l);
+            for(int j = 0; j < weights.length; j++)
+            {
+                if(j == 0 || j >= filters)
+                {
+                    offsets.add(offset);
+                    tensorLayers.add(l);
+                    isVector.add(j >= filters && weights[j].getWidth() == 1 && weights[j].getHeight() == 1);
+                }
+
+                offset += weights[j].getSize();
+            }
+        }
+        offsets.add(parameters.getSize());
+
+        this.offsets = offsets.stream().mapToInt(Integer::intValue).toArray();
+        this.tensorLayers = tensorLayers.stream().mapToInt(Integer::intValue).toArray();
+        this.isVector = new boolean[isVector.size()];
+        for(int t = 0; t < this.isVector.length; t++)
+            this.isVector[t] = isVector.get(t);
+
+        this.trustRatios = new double[this.tensorLayers.length];
+    }
+
+    /**
+     * Excludes the vectors (biases, scales and shifts of normalizations) from the weight decay and from the trust
+     * ratios: they are updated with the learning rate alone. Disabled by default.
+     * @param isExcludingVectors whether to exclude the vectors
+     */
+    public void setExcludingVectors(boolean isExcludingVectors)
+    {
+        this.isExcludingVectors = isExcludingVectors;
+    }
+
+    public boolean isExcludingVectors()
+    {
+        return isExcludingVectors;
+    }
+
+    @Override
+    protected void updateWeights()
+    {
+        final List<Layer> layers = network.getLayers();
+
+        rate = schedule.getLearningRate(updates);
+        updates++;
+
+        IntStream.range(0, trustRatios.length).parallel().forEach(t ->
+        {
+            if(layers.get(tensorLayers[t]).isTrainable() && offsets[t + 1] > offsets[t])
+            {
+                final double ratio = computeTrustRatio(offsets[t], offsets[t + 1], isDecayed(t)); // May update the state
+                trustRatios[t] = isDecayed(t) ? ratio : 1.0;
+            }
+        });
+
+        super.updateWeights();
+    }
+
+    private boolean isDecayed(int t)
+    {
+        return !(isExcludingVectors && isVector[t]);
+    }
+
+    @Override
+    protected void updateWeights(int from, int to)
+    {
+        int t = 0;
+        while(offsets[t + 1] <= from)
+            t++;
+
+        // A chunk may span several tensors
+        for(; from < to; t++)
+        {
+            final int end = Math.min(to, offsets[t + 1]);
+            if(end > from)
+                updateWeights(from, end, rate * trustRatios[t], isDecayed(t));
+            from = end;
+        }
+    }
+
+    /**
+     * Computes the trust ratio of a tensor; called once per tensor and per update, before its weights are updated.
+     * The ratio of the excluded vectors is ignored.
+     * @param from the first index of the tensor
+     * @param to the index following the last one
+     * @param isDecayed whether the weight decay applies to the tensor
+     * @return the ratio
+     */
+    protected abstract double computeTrustRatio(int from, int to, boolean isDecayed);
+
+    /**
+     * Updates weights of a single tensor.
+     * @param from the first index
+     * @param to the index following the last one
+     * @param rate the learning rate multiplied by the trust ratio of the tensor
+     * @param isDecayed whether the weight decay applies to the tensor
+     */
+    protected abstract void updateWeights(int from, int to, double rate, boolean isDecayed);
+}
@@ -0,0 +1,50 @@
+package me.cassayre.florian.dpu.network.trainer;
+
+/**
+ * The learning rate as a function of the number of updates already applied.
+ * Large batches usually need a warmup: starting with the full rate makes the first updates diverge.
+ */
+@FunctionalInterface
+public interface LearningRateSchedule
+{
+    double getLearningRate(int step);
+
+    static LearningRateSchedule constant(double rate)
+    {
+        return step -> rate;
+    }
+
+    /**
+     * Grows the rate linearly during the first steps, then keeps it constant.
+     * @param rate the rate after the warmup
+     * @param warmupSteps the number of steps of the warmup
+     * @return the schedule
+     */
+    static LearningRateSchedule warmup(double rate, int warmupSteps)
+    {
+        return step -> step < warmupSteps ? rate * (step + 1) / warmupSteps : rate;
+    }
+
+    /**
+     * Grows the rate linearly during the first steps, then decreases it to zero following a cosine.
+     * @param rate the rate at the end of the warmup
+     * @param warmupSteps the number of steps of the warmup
+     * @param totalSteps the number of steps after which the rate is zero
+     * @return the schedule
+     */
+    static LearningRateSchedule warmupCosine(double rate, int warmupSteps, int totalSteps)
+    {
+        if(totalSteps <= warmupSteps)
+            throw new IllegalArgumentException("The decay must last at least one step");
+
+        return step ->
+        {
+            if(step < warmupSteps)
+                return rate * (step + 1) / warmupSteps;
+            if(step >= totalSteps)
+                return 0.0;
+
+            return rate * 0.5 * (1 + Math.cos(Math.PI * (step - warmupSteps) / (totalSteps - warmupSteps)));
+        };
+    }
+}
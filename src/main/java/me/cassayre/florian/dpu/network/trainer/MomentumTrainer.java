@@ -0,0 +1,66 @@
+package me.cassayre.florian.dpu.network.trainer;
+
+import me.cassayre.florian.dpu.network.Network;
+
+/**
+ * Stochastic gradient descent with momentum, optionally Nesterov's: the weights move along the velocity updated
+ * with the current gradient (or, for Nesterov, along the gradient plus the next velocity).
+ * The velocity mirrors the parameter buffer, each update is a single pass over the weights, gradients and velocity.
+ */
+public class MomentumTrainer extends Trainer
+{
+    private final double learningRate, momentum;
+    private final boolean isNesterov;
+
+    private final double[] velocity;
+
+    public MomentumTrainer(Network network, int batchSize, double learningRate, double momentum, boolean isNesterov)
+    {
+        super(network, batchSize);
+
+        this.learningRate = learningRate;
+        this.momentum = momentum;
+        this.isNesterov = isNesterov;
+
+        this.velocity = new double[parameters.getSize()];
+    }
+
+    public MomentumTrainer(Network network, double learningRate, double momentum, boolean isNesterov)
+    {
+        this(network, 1, learningRate, momentum, isNesterov);
+    }
+
+    @Override
+    protected void updateWeights(int from, int to)
+    {
+        final double[] values = parameters.getValues(), gradients = parameters.getGradients();
+        final double normalization = 1.0 / accumulated;
+
+        for(int k = from; k < to; k++)
+        {
+            final double grad = gradients[k] * normalization;
+            final double v = momentum * velocity[k] + grad;
+            velocity[k] = v;
+
+            values[k] -= learningRate * (isNesterov ? grad + momentum * v : v);
+        }
+    }
+
+    @Override
+    protected int getStateSize()
+    {
+        return velocity.length;
+    }
+
+    @Override
+    protected void getState(double[] state)
+    {
+        System.arraycopy(velocity, 0, state, 0, velocity.length);
+    }
+
+    @Override
+    protected void setState(double[] state)
+    {
+        System.arraycopy(state, 0, velocity, 0, velocity.length);
+    }
+}
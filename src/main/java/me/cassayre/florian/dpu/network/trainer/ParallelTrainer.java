@@ -0,0 +1,230 @@
+package me.cassayre.florian.dpu.network.trainer;
+
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.layer.Statistical;
+import me.cassayre.florian.dpu.network.Parameters;
+import me.cassayre.florian.dpu.network.execution.ExecutionContext;
+import me.cassayre.florian.dpu.network.execution.ExecutionPlan;
+import me.cassayre.florian.dpu.util.volume.Volume;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Data-parallel training: each mini-batch is split between replicas of the network that share the weights but accumulate
+ * their own gradients, concurrently. The gradients are then summed in a fixed binary tree (so the result only depends
+ * on the number of replicas) and applied by the wrapped trainer. Each replica propagates its shard of the batch at once
+ * (see {@link ExecutionContext#propagateBatch(List, List)}): normalizations use the statistics of the shard, and the
+ * statistics accumulated by each replica (see {@link Statistical}) are merged in the order of the replicas.
+ * The replicas run on threads of their own, released by {@link #close()}.
+ * The gradients can be exchanged in a compressed form (see {@link GradientCompressor}): each replica then encodes its
+ * gradients with its own compressor, and the decoded messages are summed in the order of the replicas.
+ */
+public class ParallelTrainer implements AutoCloseable
+{
+    private final Trainer trainer;
+    private final ExecutionContext[] replicas;
+    private final double[][] gradients; // The gradient buffer of each replica
+    private final GradientCompressor[] compressors; // Null when the gradients are exchanged uncompressed
+    private final ForkJoinPool pool;
+
+    private long transmitted = 0;
+
+    /**
+     * @param trainer the trainer applying the updates
+     * @param replicas the number of replicas
+     * @param compressors creates the compressor of each replica, or <code>null</code> to exchange the full gradients
+     */
+    public ParallelTrainer(Trainer trainer, int replicas, Supplier<GradientCompressor> compressors)
+    {
+        if(replicas < 1)
+            throw new IllegalArgumentException("There must be at least one replica");
+
+        this.trainer = trainer;
+        this.replicas = new ExecutionContext[replicas];
+        this.gradients = new double[replicas][];
+        this.compressors = compressors != null ? new GradientCompressor[replicas] : null;
+        this.pool = new ForkJoinPool(replicas);
+
+        for(int r = 0; r < replicas; r++)
+        {
+            // The first replica accumulates directly in the gradients of the network
+            final Parameters parameters = r == 0 ? trainer.parameters : trainer.parameters.replicate();
+
+            this.replicas[r] = ExecutionPlan.compile(parameters, ExecutionPlan.Mode.TRAINING).createContext();
+            this.gradients[r] = parameters.getGradients();
+
+            if(compressors != null)
+                this.compressors[r] = compressors.get();
+        }
+    }
+
+    public ParallelTrainer(Trainer trainer, int replicas)
+    {
+        this(trainer, replicas, null);
+    }
+
+    public ParallelTrainer(Trainer trainer)
+    {
+        this(trainer, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Trains the network on a mini-batch, followed by a single update of the weights.
+     * @param inputs the inputs
+     * @param expectedOutputs the expected outputs
+     * @return the mean loss over the batch
+     * @throws IllegalStateException if samples passed to {@link Trainer#train} are still waiting for an update
+     */
+    public double trainBatch(List<Volume> inputs, List<Volume> expectedOutputs)
+    {
+        if(inputs.size() != expectedOutputs.size())
+            throw new IllegalArgumentException("There must be as many expected outputs as inputs");
+        if(inputs.isEmpty())
+            throw new IllegalArgumentException("The batch is empty");
+        trainer.checkNoPendingSamples();
+
+        final int n = inputs.size();
+
+        final List<Callable<Double>> shards = new ArrayList<>(replicas.length);
+        for(int r = 0; r < replicas.length; r++)
+        {
+            final ExecutionContext replica = replicas[r];
+            replica.setLossScale(trainer.network.getLossScale()); // The trainer unscales the gradients when stepping
+
+            final int from = (int) ((long) n * r / replicas.length), to = (int) ((long) n * (r + 1) / replicas.length);
+
+            if(from < to)
+                shards.add(() -> replica.propagateBatch(inputs.subList(from, to), expectedOutputs.subList(from, to)));
+        }
+
+        double loss = 0.0;
+        for(Future<Double> future : pool.invokeAll(shards))
+            loss += get(future);
+
+        if(compressors != null)
+            reduceCompressed();
+        else
+            reduce();
+
+        mergeStatistics();
+
+        trainer.loss = loss / n;
+        trainer.seen += n;
+        trainer.accumulated += n;
+        trainer.step();
+
+        return trainer.loss;
+    }
+
+    // Sums the gradients of all the replicas into the first one, level by level
+    private void reduce()
+    {
+        for(int stride = 1; stride < replicas.length; stride <<= 1)
+        {
+            final List<Callable<Void>> tasks = new ArrayList<>();
+
+            for(int r = 0; r + stride < replicas.length; r += stride << 1)
+            {
+                final double[] target = gradients[r], source = gradients[r + stride];
+
+                tasks.add(() ->
+                {
+                    for(int k = 0; k < target.length; k++)
+                    {
+                        target[k] += source[k];
+                        source[k] = 0.0;
+                    }
+                    return null;
+                });
+            }
+
+            for(Future<Void> future : pool.invokeAll(tasks))
+                get(future);
+        }
+    }
+
+    // Each replica encodes its gradients concurrently, the messages are then summed into the first replica
+    private void reduceCompressed()
+    {
+        final List<Callable<GradientCompressor.Message>> tasks = new ArrayList<>(replicas.length);
+        for(int r = 0; r < replicas.length; r++)
+        {
+            final GradientCompressor compressor = compressors[r];
+            final double[] source = gradients[r];
+
+            tasks.add(() ->
+            {
+                final GradientCompressor.Message message = compressor.compress(source);
+                Arrays.fill(source, 0.0);
+                return message;
+            });
+        }
+
+        final List<GradientCompressor.Message> messages = new ArrayList<>(replicas.length);
+        for(Future<GradientCompressor.Message> future : pool.invokeAll(tasks))
+            messages.add(get(future));
+
+        for(GradientCompressor.Message message : messages)
+        {
+            message.addTo(gradients[0], 1.0);
+            transmitted += message.getSize();
+        }
+    }
+
+    // The statistics of the samples (see Statistical) are merged into the first replica, in the order of the replicas
+    private void mergeStatistics()
+    {
+        final List<Layer> layers = replicas[0].getLayers();
+
+        for(int l = 0; l < layers.size(); l++)
+        {
+            if(!(layers.get(l) instanceof Statistical))
+                continue;
+
+            for(int r = 1; r < replicas.length; r++)
+                ((Statistical) layers.get(l)).mergeStatistics((Statistical) replicas[r].getLayers().get(l));
+        }
+    }
+
+    private static <T> T get(Future<T> future)
+    {
+        try
+        {
+            return future.get();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        catch(ExecutionException e)
+        {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // The total size of the compressed messages exchanged so far, in bytes
+    public long getTransmittedBytes()
+    {
+        return transmitted;
+    }
+
+    public Trainer getTrainer()
+    {
+        return trainer;
+    }
+
+    // Releases the threads of the replicas
+    @Override
+    public void close()
+    {
+        pool.shutdown();
+    }
+}
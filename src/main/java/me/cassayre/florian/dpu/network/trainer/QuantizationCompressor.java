@@ -0,0 +1,118 @@
+package me.cassayre.florian.dpu.network.trainer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 8-bit quantization: the components are split into blocks, each transmitted as a single precision scale and one
+ * signed byte per component (the value divided by the scale, rounded to the nearest integer in <code>[-127, 127]</code>).
+ */
+public class QuantizationCompressor extends GradientCompressor
+{
+    public static final int DEFAULT_BLOCK_SIZE = 256;
+
+    private final int blockSize;
+
+    /**
+     * @param blockSize the number of components sharing a scale
+     * @param isErrorFeedback whether the rounding errors are accumulated into the next calls
+     */
+    public QuantizationCompressor(int blockSize, boolean isErrorFeedback)
+    {
+        super(isErrorFeedback);
+
+        if(blockSize < 1)
+            throw new IllegalArgumentException("The block size must be strictly positive");
+
+        this.blockSize = blockSize;
+    }
+
+    public QuantizationCompressor()
+    {
+        this(DEFAULT_BLOCK_SIZE, true);
+    }
+
+    @Override
+    protected Message encode(double[] gradients)
+    {
+        final int n = gradients.length, blocks = (n + blockSize - 1) / blockSize;
+        final byte[] quantized = new byte[n];
+        final float[] scales = new float[blocks];
+
+        for(int b = 0; b < blocks; b++)
+        {
+            final int from = b * blockSize, to = Math.min(n, from + blockSize);
+
+            double max = 0.0;
+            for(int k = from; k < to; k++)
+                max = Math.max(max, Math.abs(gradients[k]));
+
+            final float scale = (float) (max / 127);
+            scales[b] = scale;
+
+            if(scale == 0.0f || !Float.isFinite(scale))
+                continue;
+
+            for(int k = from; k < to; k++)
+                quantized[k] = (byte) Math.max(-127, Math.min(127, Math.round(gradients[k] / scale)));
+        }
+
+        return new QuantizedMessage(blockSize, quantized, scales);
+    }
+
+    @Override
+    public Message read(ByteBuffer buffer)
+    {
+        final int n = buffer.getInt(), blocks = (n + blockSize - 1) / blockSize;
+        final byte[] quantized = new byte[n];
+        final float[] scales = new float[blocks];
+
+        for(int b = 0; b < blocks; b++)
+            scales[b] = buffer.getFloat();
+        buffer.get(quantized);
+
+        return new QuantizedMessage(blockSize, quantized, scales);
+    }
+
+    private static final class QuantizedMessage extends Message
+    {
+        private final int blockSize;
+        private final byte[] quantized;
+        private final float[] scales;
+
+        QuantizedMessage(int blockSize, byte[] quantized, float[] scales)
+        {
+            this.blockSize = blockSize;
+            this.quantized = quantized;
+            this.scales = scales;
+        }
+
+        @Override
+        public void addTo(double[] target, double factor)
+        {
+            for(int b = 0; b < scales.length; b++)
+            {
+                final double scale = factor * scales[b];
+                final int from = b * blockSize, to = Math.min(quantized.length, from + blockSize);
+
+                for(int k = from; k < to; k++)
+                    target[k] += scale * quantized[k];
+            }
+        }
+
+        @Override
+        public int getSize()
+        {
+            return Integer.BYTES + scales.length * Float.BYTES + quantized.length;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer)
+        {
+            buffer.putInt(quantized.length);
+
+            for(float scale : scales)
+                buffer.putFloat(scale);
+            buffer.put(quantized);
+        }
+    }
+}
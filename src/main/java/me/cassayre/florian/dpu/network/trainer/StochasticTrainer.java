@@ -1,8 +1,6 @@
 package me.cassayre.florian.dpu.network.trainer;
 
-import me.cassayre.florian.dpu.layer.Layer;
 import me.cassayre.florian.dpu.network.Network;
-import me.cassayre.florian.dpu.util.volume.Volume;
 
 public class StochasticTrainer extends Trainer
 {
@@ -23,19 +21,11 @@ public class StochasticTrainer extends Trainer
     }
 
     @Override
-    protected void updateWeights()
+    protected void updateWeights(int from, int to)
     {
-        for(Layer layer : network.getLayers())
-        {
-            final Volume[] weights = layer.getWeights();
-
-            if(!layer.isTrainable())
-                continue;
-
-            for(final Volume weightVolume : weights)
-            {
-                weightVolume.fillValues(k -> weightVolume.get(k) - learningRate * weightVolume.getGradient(k) / batchSize);
-            }
-        }
+        final double[] values = parameters.getValues(), gradients = parameters.getGradients();
+
+        for(int k = from; k < to; k++)
+            values[k] -= learningRate * gradients[k] / accumulated;
     }
 }
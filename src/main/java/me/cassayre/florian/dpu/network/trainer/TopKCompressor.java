@@ -0,0 +1,158 @@
+package me.cassayre.florian.dpu.network.trainer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Top-k sparsification: only the components with the largest magnitudes are transmitted, as (index, value) pairs in
+ * single precision. The threshold is found by quickselect, in expected linear time.
+ */
+public class TopKCompressor extends GradientCompressor
+{
+    private final double ratio;
+    private double[] magnitudes = new double[0];
+
+    /**
+     * @param ratio the proportion of the components transmitted, in <code>(0, 1]</code>
+     * @param isErrorFeedback whether the components not transmitted are accumulated into the next calls
+     */
+    public TopKCompressor(double ratio, boolean isErrorFeedback)
+    {
+        super(isErrorFeedback);
+
+        if(ratio <= 0.0 || ratio > 1.0)
+            throw new IllegalArgumentException("The ratio must be in (0, 1]");
+
+        this.ratio = ratio;
+    }
+
+    public TopKCompressor(double ratio)
+    {
+        this(ratio, true);
+    }
+
+    @Override
+    protected Message encode(double[] gradients)
+    {
+        final int n = gradients.length;
+        final int k = Math.min(n, (int) Math.ceil(ratio * n));
+
+        if(magnitudes.length != n)
+            magnitudes = new double[n];
+        for(int i = 0; i < n; i++)
+            magnitudes[i] = Math.abs(gradients[i]);
+
+        final double threshold = k == 0 ? Double.POSITIVE_INFINITY : select(magnitudes, n - k);
+
+        // Strictly larger first, then ties until k components are selected
+        final int[] indices = new int[k];
+        final float[] values = new float[k];
+        int count = 0;
+        for(int i = 0; i < n && count < k; i++)
+        {
+            if(Math.abs(gradients[i]) > threshold)
+            {
+                indices[count] = i;
+                values[count++] = (float) gradients[i];
+            }
+        }
+        for(int i = 0; i < n && count < k; i++)
+        {
+            if(Math.abs(gradients[i]) == threshold)
+            {
+                indices[count] = i;
+                values[count++] = (float) gradients[i];
+            }
+        }
+
+        return new SparseMessage(indices, values);
+    }
+
+    @Override
+    public Message read(ByteBuffer buffer)
+    {
+        final int count = buffer.getInt();
+        final int[] indices = new int[count];
+        final float[] values = new float[count];
+
+        for(int i = 0; i < count; i++)
+        {
+            indices[i] = buffer.getInt();
+            values[i] = buffer.getFloat();
+        }
+
+        return new SparseMessage(indices, values);
+    }
+
+    // The value that would be at the given index if the array was sorted (the array is reordered)
+    private static double select(double[] array, int rank)
+    {
+        int from = 0, to = array.length - 1;
+
+        while(from < to)
+        {
+            final double pivot = array[(from + to) >>> 1];
+            int i = from, j = to;
+
+            while(i <= j)
+            {
+                while(array[i] < pivot)
+                    i++;
+                while(array[j] > pivot)
+                    j--;
+
+                if(i <= j)
+                {
+                    final double temporary = array[i];
+                    array[i++] = array[j];
+                    array[j--] = temporary;
+                }
+            }
+
+            if(rank <= j)
+                to = j;
+            else if(rank >= i)
+                from = i;
+            else
+                return array[rank];
+        }
+
+        return array[rank];
+    }
+
+    private static final class SparseMessage extends Message
+    {
+        private final int[] indices;
+        private final float[] values;
+
+        SparseMessage(int[] indices, float[] values)
+        {
+            this.indices = indices;
+            this.values = values;
+        }
+
+        @Override
+        public void addTo(double[] target, double factor)
+        {
+            for(int i = 0; i < indices.length; i++)
+                target[indices[i]] += factor * values[i];
+        }
+
+        @Override
+        public int getSize()
+        {
+            return Integer.BYTES + indices.length * (Integer.BYTES + Float.BYTES);
+        }
+
+        @Override
+        public void write(ByteBuffer buffer)
+        {
+            buffer.putInt(indices.length);
+
+            for(int i = 0; i < indices.length; i++)
+            {
+                buffer.putInt(indices[i]);
+                buffer.putFloat(values[i]);
+            }
+        }
+    }
+}
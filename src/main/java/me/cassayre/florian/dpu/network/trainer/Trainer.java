@@ -1,20 +1,37 @@
 package me.cassayre.florian.dpu.network.trainer;
 
 import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.layer.Statistical;
 import me.cassayre.florian.dpu.network.Network;
+import me.cassayre.florian.dpu.network.Parameters;
 import me.cassayre.florian.dpu.util.volume.Volume;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
 public abstract class Trainer
 {
     protected final Network network;
+    protected final Parameters parameters;
     protected final int batchSize;
 
+    private static final int PARALLEL_THRESHOLD = 1 << 15; // Parameters per chunk, smaller updates run on the calling thread
+
     protected int seen = 0;
+    protected int accumulated = 0; // Number of samples whose gradients were accumulated since the last update
     protected double loss;
 
     public Trainer(Network network, int batchSize)
     {
+        if(network.getParameters() == null)
+            throw new IllegalArgumentException("The weights of the network must be laid out in a parameter buffer");
+
         this.network = network;
+        this.parameters = network.getParameters();
         this.batchSize = batchSize;
     }
 
@@ -35,23 +52,181 @@ public abstract class Trainer
 
     public void train(Volume input, Volume expectedOutput)
     {
-        network.forwardPropagation(input);
+        network.forwardPropagation(input, true);
 
         network.backwardPropagation(expectedOutput);
 
         loss = network.getLoss();
 
         seen++;
+        accumulated++;
 
-        if(seen % batchSize == 0)
+        if(accumulated >= batchSize)
         {
+            step();
+        }
+    }
+
+    /**
+     * Trains the network on a mini-batch: the gradients of all the samples are accumulated, followed by a single update of the weights.
+     * The samples are still propagated one at a time by each layer, there are no batched kernels: a network without
+     * normalizations propagates them one after the other, as {@link #train(Volume, Volume)} would, while normalizations
+     * need the batch to go layer by layer to use its statistics (see {@link Network#propagateBatch(List, List)}).
+     * The size of the batch is independent of the batch size of the trainer.
+     * @param inputs the inputs
+     * @param expectedOutputs the expected outputs
+     * @return the mean loss over the batch
+     * @throws IllegalStateException if samples passed to {@link #train(Volume, Volume)} are still waiting for an update,
+     * their gradients would be merged into the ones of the batch
+     */
+    public double trainBatch(List<Volume> inputs, List<Volume> expectedOutputs)
+    {
+        if(inputs.size() != expectedOutputs.size())
+            throw new IllegalArgumentException("There must be as many expected outputs as inputs");
+        if(inputs.isEmpty())
+            throw new IllegalArgumentException("The batch is empty");
+        checkNoPendingSamples();
+
+        loss = network.propagateBatch(inputs, expectedOutputs) / inputs.size();
+
+        seen += inputs.size();
+        accumulated += inputs.size();
+
+        step();
+
+        return loss;
+    }
+
+    public double trainBatch(Volume[] inputs, Volume[] expectedOutputs)
+    {
+        return trainBatch(Arrays.asList(inputs), Arrays.asList(expectedOutputs));
+    }
+
+    void checkNoPendingSamples()
+    {
+        if(accumulated != 0)
+            throw new IllegalStateException("The batch started by train is not complete");
+    }
+
+    // Applies the accumulated gradients, averaged over the accumulated samples, and the statistics of the samples
+    void step()
+    {
+        final double scale = network.getLossScale();
+
+        // The update is skipped when the scaled gradients overflowed
+        final boolean isFinite = scale == 1.0 || unscaleGradients(1.0 / scale);
+
+        if(isFinite)
             updateWeights();
 
-            for(Layer layer : network.getLayers())
-                for(final Volume weightVolume : layer.getWeights())
-                    weightVolume.fillGradients(i -> 0.0);
+        network.updateLossScale(isFinite);
+
+        for(Layer layer : network.getLayers())
+            if(layer instanceof Statistical)
+                ((Statistical) layer).updateStatistics();
+
+        final double[] gradients = parameters.getGradients();
+        forEachChunk(0, gradients.length, (from, to) -> Arrays.fill(gradients, from, to, 0.0));
+
+        accumulated = 0;
+    }
+
+    // The gradients are all zeroed after the step, so the chunks scaled before an overflow was found don't matter
+    private boolean unscaleGradients(double factor)
+    {
+        final double[] gradients = parameters.getGradients();
+        final AtomicBoolean isFinite = new AtomicBoolean(true);
+
+        forEachChunk(0, gradients.length, (from, to) ->
+        {
+            for(int k = from; k < to; k++)
+            {
+                final double gradient = gradients[k] * factor;
+                if(!Double.isFinite(gradient))
+                {
+                    isFinite.set(false);
+                    return;
+                }
+
+                gradients[k] = gradient;
+            }
+        });
+
+        return isFinite.get();
+    }
+
+    // Updates the trainable layers, split into chunks processed concurrently when the network is large
+    protected void updateWeights()
+    {
+        final List<Layer> layers = network.getLayers();
+
+        for(int l = 0; l < layers.size(); )
+        {
+            if(!layers.get(l).isTrainable())
+            {
+                l++;
+                continue;
+            }
+
+            int end = l + 1;
+            while(end < layers.size() && layers.get(end).isTrainable())
+                end++;
+
+            forEachChunk(parameters.getOffset(l), parameters.getOffset(end), this::updateWeights);
+
+            l = end;
         }
     }
 
-    protected abstract void updateWeights();
+    // Updates the parameters in [from, to), which all belong to trainable layers; the ranges passed concurrently never overlap
+    protected abstract void updateWeights(int from, int to);
+
+    private static void forEachChunk(int from, int to, BiConsumer<Integer, Integer> action)
+    {
+        if(to - from <= PARALLEL_THRESHOLD)
+            action.accept(from, to);
+        else
+            ForkJoinPool.commonPool().invoke(new ChunkTask(from, to, action));
+    }
+
+    // The state of the optimizer is saved and restored along with the weights by checkpoints, as a flat array
+    protected int getStateSize()
+    {
+        return 0;
+    }
+
+    protected void getState(double[] state)
+    {}
+
+    protected void setState(double[] state)
+    {}
+
+    private static final class ChunkTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+        private final BiConsumer<Integer, Integer> action;
+
+        ChunkTask(int from, int to, BiConsumer<Integer, Integer> action)
+        {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if(to - from <= PARALLEL_THRESHOLD)
+            {
+                action.accept(from, to);
+            }
+            else
+            {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new ChunkTask(from, middle, action), new ChunkTask(middle, to, action));
+            }
+        }
+    }
 }
@@ -0,0 +1,426 @@
+package me.cassayre.florian.dpu.network.trainer;
+
+import me.cassayre.florian.dpu.network.Network;
+import me.cassayre.florian.dpu.network.architecture.FeedForwardNetwork;
+import me.cassayre.florian.dpu.util.Utils;
+import me.cassayre.florian.dpu.util.volume.Volume;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Runs the training loop of a classifier on top of a {@link Trainer}: epochs over the training set in a shuffled order,
+ * periodic validation (spread across the available cores for feed-forward networks), early stopping when the
+ * validation accuracy stops improving, and throughput and time-to-accuracy measurements.
+ * The accuracy is the proportion of samples whose largest output matches the largest expected output.
+ */
+public class TrainingEngine
+{
+    private final Trainer trainer;
+    private final Network network;
+
+    private final int epochs;
+    private final boolean isShuffled;
+    private final Random random;
+
+    private final List<Volume> validationInputs, validationOutputs;
+    private final int validationInterval;
+    private final int patience;
+    private final double targetAccuracy;
+
+    private final int reportInterval;
+    private final Consumer<Progress> listener;
+
+    private TrainingEngine(Builder builder)
+    {
+        this.trainer = builder.trainer;
+        this.network = builder.trainer.network;
+        this.epochs = builder.epochs;
+        this.isShuffled = builder.isShuffled;
+        this.random = new Random(builder.seed);
+        this.validationInputs = builder.validationInputs;
+        this.validationOutputs = builder.validationOutputs;
+        this.validationInterval = builder.validationInterval;
+        this.patience = builder.patience;
+        this.targetAccuracy = builder.targetAccuracy;
+        this.reportInterval = builder.reportInterval;
+        this.listener = builder.listener;
+    }
+
+    /**
+     * Trains the network until the number of epochs is reached, the target accuracy is reached or the validation
+     * accuracy stopped improving.
+     * @param inputs the training inputs
+     * @param expectedOutputs the expected training outputs
+     * @return the measurements
+     */
+    public Result train(List<Volume> inputs, List<Volume> expectedOutputs)
+    {
+        if(inputs.size() != expectedOutputs.size())
+            throw new IllegalArgumentException("There must be as many expected outputs as inputs");
+
+        final long start = System.nanoTime();
+        final Result result = new Result();
+
+        final int[] order = new int[inputs.size()];
+        for(int i = 0; i < order.length; i++)
+            order[i] = i;
+
+        double lossSum = 0.0;
+        int correct = 0, reported = 0;
+        long reportStart = System.nanoTime();
+
+        training:
+        for(int epoch = 0; epoch < epochs; epoch++)
+        {
+            if(isShuffled)
+                shuffle(order);
+
+            for(int i = 0; i < order.length; i++)
+            {
+                final long sampleStart = System.nanoTime();
+
+                final Volume expected = expectedOutputs.get(order[i]);
+                trainer.train(inputs.get(order[i]), expected);
+
+                lossSum += trainer.getLoss();
+                if(Utils.argmax(network.getOutput()) == Utils.argmax(expected))
+                    correct++;
+                reported++;
+
+                result.samples++;
+                result.trainingNanoseconds += System.nanoTime() - sampleStart;
+
+                if(reportInterval > 0 && reported == reportInterval)
+                {
+                    final long now = System.nanoTime();
+                    report(new Progress(epoch, trainer.getSeen(), lossSum / reported, (double) correct / reported,
+                            reported * 1E9 / (now - reportStart), result.validationAccuracy));
+
+                    lossSum = 0.0;
+                    correct = 0;
+                    reported = 0;
+                    reportStart = System.nanoTime();
+                }
+
+                final boolean isEpochEnd = i == order.length - 1; // The end of an epoch is validated below
+                if(isValidated() && !isEpochEnd && validationInterval > 0 && result.samples % validationInterval == 0)
+                {
+                    if(validate(result, start))
+                        break training;
+                }
+            }
+
+            result.epochs = epoch + 1;
+
+            if(isValidated() && validate(result, start))
+                break;
+        }
+
+        result.nanoseconds = System.nanoTime() - start;
+
+        return result;
+    }
+
+    // Returns whether the training must stop
+    private boolean validate(Result result, long start)
+    {
+        final double accuracy = accuracy(validationInputs, validationOutputs);
+        result.validationAccuracy = accuracy;
+        result.validations++;
+
+        if(accuracy > result.bestValidationAccuracy)
+        {
+            result.bestValidationAccuracy = accuracy;
+            result.validationsWithoutImprovement = 0;
+        }
+        else
+        {
+            result.validationsWithoutImprovement++;
+        }
+
+        if(accuracy >= targetAccuracy)
+        {
+            result.timeToAccuracy = System.nanoTime() - start;
+            return true;
+        }
+
+        if(patience > 0 && result.validationsWithoutImprovement >= patience)
+        {
+            result.isStoppedEarly = true;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Computes the accuracy of the network, concurrently for feed-forward networks.
+     * @param inputs the inputs
+     * @param expectedOutputs the expected outputs
+     * @return the proportion of correctly classified samples
+     */
+    public double accuracy(List<Volume> inputs, List<Volume> expectedOutputs)
+    {
+        final List<Volume> outputs;
+        if(network instanceof FeedForwardNetwork)
+        {
+            outputs = ((FeedForwardNetwork) network).predictAll(inputs);
+        }
+        else
+        {
+            outputs = new ArrayList<>(inputs.size());
+            for(Volume input : inputs)
+            {
+                network.forwardPropagation(input);
+                outputs.add(network.getOutput().clone());
+            }
+        }
+
+        int correct = 0;
+        for(int i = 0; i < inputs.size(); i++)
+            if(Utils.argmax(outputs.get(i)) == Utils.argmax(expectedOutputs.get(i)))
+                correct++;
+
+        return inputs.isEmpty() ? 0.0 : (double) correct / inputs.size();
+    }
+
+    private boolean isValidated()
+    {
+        return validationInputs != null;
+    }
+
+    private void report(Progress progress)
+    {
+        if(listener != null)
+            listener.accept(progress);
+    }
+
+    // Fisher-Yates, the samples themselves are not moved
+    private void shuffle(int[] order)
+    {
+        for(int i = order.length - 1; i > 0; i--)
+        {
+            final int j = random.nextInt(i + 1);
+            final int temporary = order[i];
+            order[i] = order[j];
+            order[j] = temporary;
+        }
+    }
+
+    public static class Builder
+    {
+        private final Trainer trainer;
+
+        private int epochs = 1;
+        private boolean isShuffled = true;
+        private long seed = 0;
+
+        private List<Volume> validationInputs, validationOutputs;
+        private int validationInterval = 0;
+        private int patience = 0;
+        private double targetAccuracy = Double.POSITIVE_INFINITY;
+
+        private int reportInterval = 0;
+        private Consumer<Progress> listener;
+
+        public Builder(Trainer trainer)
+        {
+            this.trainer = trainer;
+        }
+
+        public Builder epochs(int epochs)
+        {
+            if(epochs < 1)
+                throw new IllegalArgumentException("There must be at least one epoch");
+
+            this.epochs = epochs;
+
+            return this;
+        }
+
+        // Visits the training set in a different random order at each epoch (enabled by default)
+        public Builder shuffle(boolean isShuffled, long seed)
+        {
+            this.isShuffled = isShuffled;
+            this.seed = seed;
+
+            return this;
+        }
+
+        // Validates at the end of each epoch, and every interval samples if the interval is positive
+        public Builder validation(List<Volume> inputs, List<Volume> expectedOutputs, int interval)
+        {
+            if(inputs.size() != expectedOutputs.size())
+                throw new IllegalArgumentException("There must be as many expected outputs as inputs");
+
+            this.validationInputs = inputs;
+            this.validationOutputs = expectedOutputs;
+            this.validationInterval = interval;
+
+            return this;
+        }
+
+        // Stops after this number of validations without improvement of the best validation accuracy (disabled by default)
+        public Builder earlyStopping(int patience)
+        {
+            this.patience = patience;
+
+            return this;
+        }
+
+        // Stops, and measures the elapsed time, as soon as the validation accuracy reaches the target
+        public Builder targetAccuracy(double targetAccuracy)
+        {
+            this.targetAccuracy = targetAccuracy;
+
+            return this;
+        }
+
+        // Receives the mean loss, accuracy and throughput every interval training samples
+        public Builder progress(int interval, Consumer<Progress> listener)
+        {
+            this.reportInterval = interval;
+            this.listener = listener;
+
+            return this;
+        }
+
+        public TrainingEngine build()
+        {
+            return new TrainingEngine(this);
+        }
+    }
+
+    public static final class Progress
+    {
+        private final int epoch, seen;
+        private final double loss, accuracy, samplesPerSecond, validationAccuracy;
+
+        Progress(int epoch, int seen, double loss, double accuracy, double samplesPerSecond, double validationAccuracy)
+        {
+            this.epoch = epoch;
+            this.seen = seen;
+            this.loss = loss;
+            this.accuracy = accuracy;
+            this.samplesPerSecond = samplesPerSecond;
+            this.validationAccuracy = validationAccuracy;
+        }
+
+        public int getEpoch()
+        {
+            return epoch;
+        }
+
+        public int getSeen()
+        {
+            return seen;
+        }
+
+        // Mean over the samples since the previous report
+        public double getLoss()
+        {
+            return loss;
+        }
+
+        // Training accuracy over the samples since the previous report
+        public double getAccuracy()
+        {
+            return accuracy;
+        }
+
+        public double getSamplesPerSecond()
+        {
+            return samplesPerSecond;
+        }
+
+        // The accuracy of the last validation, NaN before the first one
+        public double getValidationAccuracy()
+        {
+            return validationAccuracy;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Epoch: " + epoch + "\tSeen: " + seen + "\tLoss: " + loss + "\tAccuracy: " + accuracy
+                    + "\tSamples/s: " + Math.round(samplesPerSecond) + "\tValidation accuracy: " + validationAccuracy;
+        }
+    }
+
+    public static final class Result
+    {
+        private int epochs, samples, validations, validationsWithoutImprovement;
+        private double validationAccuracy = Double.NaN, bestValidationAccuracy = Double.NEGATIVE_INFINITY;
+        private long nanoseconds, trainingNanoseconds, timeToAccuracy = -1;
+        private boolean isStoppedEarly;
+
+        Result()
+        {}
+
+        // Number of completed epochs
+        public int getEpochs()
+        {
+            return epochs;
+        }
+
+        public int getSamples()
+        {
+            return samples;
+        }
+
+        public int getValidations()
+        {
+            return validations;
+        }
+
+        public double getValidationAccuracy()
+        {
+            return validationAccuracy;
+        }
+
+        public double getBestValidationAccuracy()
+        {
+            return bestValidationAccuracy;
+        }
+
+        // Training throughput, the time spent validating is excluded
+        public double getSamplesPerSecond()
+        {
+            return trainingNanoseconds == 0 ? 0.0 : samples * 1E9 / trainingNanoseconds;
+        }
+
+        // Wall-clock duration of the whole run
+        public long getNanoseconds()
+        {
+            return nanoseconds;
+        }
+
+        // Wall-clock time until the validation accuracy reached the target, or -1 if it didn't
+        public long getTimeToAccuracy()
+        {
+            return timeToAccuracy;
+        }
+
+        public boolean isTargetReached()
+        {
+            return timeToAccuracy >= 0;
+        }
+
+        public boolean isStoppedEarly()
+        {
+            return isStoppedEarly;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Epochs: " + epochs + "\tSamples: " + samples + "\tSamples/s: " + Math.round(getSamplesPerSecond())
+                    + "\tBest validation accuracy: " + bestValidationAccuracy
+                    + (isTargetReached() ? "\tTime to accuracy: " + timeToAccuracy / 1E9 + " s" : "")
+                    + (isStoppedEarly ? "\tStopped early" : "");
+        }
+    }
+}
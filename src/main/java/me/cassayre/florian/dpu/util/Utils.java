@@ -39,4 +39,20 @@ public final class Utils
     {
         return randomWeightsVolumeArray(new Dimensions(width, height, depth), n);
     }
+
+    // The index of the largest value, the predicted class of a classifier
+    public static int argmax(Volume volume)
+    {
+        int k = 0;
+
+        for(int i = 1; i < volume.getSize(); i++)
+        {
+            if(volume.get(i) > volume.get(k))
+            {
+                k = i;
+            }
+        }
+
+        return k;
+    }
 }
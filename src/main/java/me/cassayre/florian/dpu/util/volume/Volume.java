@@ -18,6 +18,7 @@ public final class Volume
     private final Dimensions dimensions;
     private final double[] values;
     private final double[] gradient;
+    private final int offset; // Index of the first value in the arrays
 
     /**
      * Creates a new volume initialized with zeroes (values & gradients) having the specified {@link me.cassayre.florian.dpu.util.volume.Dimensions}.
@@ -29,6 +30,7 @@ public final class Volume
 
         this.values = new double[dimensions.getSize()];
         this.gradient = new double[dimensions.getSize()];
+        this.offset = 0;
     }
 
     /**
@@ -44,6 +46,7 @@ public final class Volume
             throw new IllegalArgumentException("The number of values must match the dimensions");
 
         this.values = new double[dimensions.getSize()];
+        this.offset = 0;
         int i = 0;
         for(int z = 0; z < getDepth(); z++)
         {
@@ -60,11 +63,57 @@ public final class Volume
         this.gradient = new double[dimensions.getSize()];
     }
 
-    private Volume(Dimensions dimensions, double[] values, double[] gradient)
+    private Volume(Dimensions dimensions, double[] values, double[] gradient, int offset)
     {
         this.dimensions = dimensions;
         this.values = values;
         this.gradient = gradient;
+        this.offset = offset;
+    }
+
+    /**
+     * Creates a volume backed by the provided arrays, without copying them.
+     * The arrays may be larger than the volume, in which case only their first <code>dimensions.getSize()</code> elements are used:
+     * this allows volumes of different dimensions to share the same storage.
+     * @param dimensions the dimensions of the volume
+     * @param values the array holding the values
+     * @param gradient the array holding the gradients, or <code>null</code> if the volume does not carry gradients
+     * @return the volume
+     */
+    public static Volume wrap(Dimensions dimensions, double[] values, double[] gradient)
+    {
+        return wrap(dimensions, values, gradient, 0);
+    }
+
+    /**
+     * Creates a volume backed by a region of the provided arrays, starting at <code>offset</code>, without copying them.
+     * This allows many volumes to be laid out contiguously in the same arrays.
+     * @param dimensions the dimensions of the volume
+     * @param values the array holding the values
+     * @param gradient the array holding the gradients, or <code>null</code> if the volume does not carry gradients
+     * @param offset the index of the first value of the volume in the arrays
+     * @return the volume
+     */
+    public static Volume wrap(Dimensions dimensions, double[] values, double[] gradient, int offset)
+    {
+        if(offset < 0 || values.length < offset + dimensions.getSize() || (gradient != null && gradient.length < offset + dimensions.getSize()))
+            throw new IllegalArgumentException("The arrays are too small for the dimensions");
+
+        return new Volume(dimensions, values, gradient, offset);
+    }
+
+    /**
+     * Creates a view of this volume with different dimensions but the same number of values.
+     * The view shares the storage of this volume: the value at index <code>i</code> is the same in both volumes.
+     * @param dimensions the dimensions of the view
+     * @return the view
+     */
+    public Volume reshape(Dimensions dimensions)
+    {
+        if(dimensions.getSize() != getSize())
+            throw new IllegalArgumentException("Sizes must be the same");
+
+        return new Volume(dimensions, values, gradient, offset);
     }
 
     /**
@@ -110,7 +159,7 @@ public final class Volume
 
     private int getIndex(int x, int y, int z)
     {
-        return z + (x + (y * dimensions.getWidth())) * dimensions.getDepth(); // Order of access: z, x, y
+        return offset + z + (x + (y * dimensions.getWidth())) * dimensions.getDepth(); // Order of access: z, x, y
     }
 
     public double get(int x, int y, int z)
@@ -120,7 +169,7 @@ public final class Volume
 
     public double get(int i)
     {
-        return values[i];
+        return values[offset + i];
     }
 
     public void set(int x, int y, int z, double v)
@@ -130,7 +179,7 @@ public final class Volume
 
     public void set(int i, double v)
     {
-        values[i] = v;
+        values[offset + i] = v;
     }
 
     public void add(int x, int y, int z, double v)
@@ -140,7 +189,7 @@ public final class Volume
 
     public void add(int i, double v)
     {
-        values[i] += v;
+        values[offset + i] += v;
     }
 
     public double getGradient(int x, int y, int z)
@@ -150,7 +199,7 @@ public final class Volume
 
     public double getGradient(int i)
     {
-        return gradient[i];
+        return gradient[offset + i];
     }
 
     public void setGradient(int x, int y, int z, double v)
@@ -160,7 +209,7 @@ public final class Volume
 
     public void setGradient(int i, double v)
     {
-        gradient[i] = v;
+        gradient[offset + i] = v;
     }
 
     public void addGradient(int x, int y, int z, double v)
@@ -170,7 +219,7 @@ public final class Volume
 
     public void addGradient(int i, double v)
     {
-        gradient[i] += v;
+        gradient[offset + i] += v;
     }
 
     public void foreach(TriConsumer<Integer, Integer, Integer> consumer)
@@ -241,13 +290,11 @@ public final class Volume
         double[] values = new double[dimensions.getSize()];
         double[] gradient = new double[dimensions.getSize()];
 
-        foreach(i ->
-        {
-            values[i] = this.values[i];
-            gradient[i] = this.gradient[i];
-        });
+        System.arraycopy(this.values, offset, values, 0, values.length);
+        if(this.gradient != null)
+            System.arraycopy(this.gradient, offset, gradient, 0, gradient.length);
 
-        return new Volume(dimensions, values, gradient);
+        return new Volume(dimensions, values, gradient, 0);
     }
 
     @Override
@@ -0,0 +1,141 @@
+package me.cassayre.florian.dpu;
+
+import me.cassayre.florian.dpu.layer.ConvolutionLayer;
+import me.cassayre.florian.dpu.layer.FullyConnectedLayer;
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.layer.Tunable;
+import me.cassayre.florian.dpu.network.architecture.FeedForwardNetwork;
+import me.cassayre.florian.dpu.network.execution.Autotuner;
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestAutotuner
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testConvolutionAlgorithmsAgree()
+    {
+        final Random random = new Random(0);
+        final Volume[] filters = new Volume[4];
+        for(int i = 0; i < filters.length; i++)
+        {
+            filters[i] = new Volume(new Dimensions(3, 5, 2));
+            filters[i].fillValues(k -> random.nextDouble() - 0.5);
+        }
+        final Volume biases = new Volume(new Dimensions(1, 1, 4));
+        biases.fillValues(k -> random.nextDouble() - 0.5);
+
+        assertAlgorithmsAgree(new ConvolutionLayer(new Dimensions(7, 9, 2), filters, biases, 2, 1, 2, 0, Layer.ActivationFunctionType.TANH), random);
+    }
+
+    @Test
+    public void testFullyConnectedAlgorithmsAgree()
+    {
+        final Random random = new Random(0);
+        final Volume[] weights = new Volume[5];
+        for(int i = 0; i < weights.length; i++)
+        {
+            weights[i] = new Volume(new Dimensions(7));
+            weights[i].fillValues(k -> random.nextDouble() - 0.5);
+        }
+        final Volume biases = new Volume(new Dimensions(5));
+        biases.fillValues(k -> random.nextDouble() - 0.5);
+
+        assertAlgorithmsAgree(new FullyConnectedLayer(weights, biases, Layer.ActivationFunctionType.SIGMOID), random);
+    }
+
+    @Test
+    public void testDecisionsAreCached()
+    {
+        final Path cache = folder.getRoot().toPath().resolve("autotune.properties");
+        final FeedForwardNetwork network = new FeedForwardNetwork.Builder(new Dimensions(8, 8, 2))
+                .convolution(new Dimensions(3, 3, 4), 2, Layer.ActivationFunctionType.RELU)
+                .fullyConnected(new Dimensions(5), Layer.ActivationFunctionType.TANH)
+                .build(Layer.OutputFunctionType.SOFTMAX);
+        final double[] weights = network.getParameters().getValues().clone();
+        final double[] gradients = network.getParameters().getGradients().clone();
+
+        new Autotuner(cache).tune(network);
+
+        assertTrue(Files.exists(cache));
+        assertArrayEquals(weights, network.getParameters().getValues(), 0.0);
+        assertArrayEquals(gradients, network.getParameters().getGradients(), 0.0);
+
+        final Autotuner autotuner = new Autotuner(cache);
+        for(Layer layer : network.getLayers())
+        {
+            if(layer instanceof Tunable)
+            {
+                assertNotNull(autotuner.getDecision(layer));
+                assertEquals(((Tunable<?>) layer).getAlgorithm().name(), autotuner.getDecision(layer));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <A extends Enum<A>> void assertAlgorithmsAgree(Layer layer, Random random)
+    {
+        final Tunable<A> tunable = (Tunable<A>) layer;
+
+        final Volume input = new Volume(layer.getInputDimensions());
+        input.fillValues(k -> random.nextDouble() - 0.5);
+        final Volume output = new Volume(layer.getOutputDimensions());
+        final double[] outputGradients = new double[output.getSize()];
+        for(int k = 0; k < outputGradients.length; k++)
+            outputGradients[k] = random.nextDouble() - 0.5;
+
+        double[] expectedOutput = null, expectedInputGradients = null, expectedWeightGradients = null;
+        for(A algorithm : tunable.getAlgorithms())
+        {
+            for(Volume volume : layer.getWeights())
+                volume.fillGradients(k -> 0.0);
+            tunable.setAlgorithm(algorithm);
+
+            layer.forwardPropagation(input, output);
+            output.fillGradients(k -> outputGradients[k]);
+            layer.backwardPropagation(input, output);
+
+            final double[] actualOutput = new double[output.getSize()], actualInputGradients = new double[input.getSize()];
+            for(int k = 0; k < actualOutput.length; k++)
+                actualOutput[k] = output.get(k);
+            for(int k = 0; k < actualInputGradients.length; k++)
+                actualInputGradients[k] = input.getGradient(k);
+
+            int size = 0;
+            for(Volume volume : layer.getWeights())
+                size += volume.getSize();
+            final double[] actualWeightGradients = new double[size];
+            int offset = 0;
+            for(Volume volume : layer.getWeights())
+                for(int k = 0; k < volume.getSize(); k++)
+                    actualWeightGradients[offset++] = volume.getGradient(k);
+
+            if(expectedOutput == null)
+            {
+                expectedOutput = actualOutput;
+                expectedInputGradients = actualInputGradients;
+                expectedWeightGradients = actualWeightGradients;
+            }
+            else
+            {
+                assertArrayEquals(algorithm.name(), expectedOutput, actualOutput, 1E-12);
+                assertArrayEquals(algorithm.name(), expectedInputGradients, actualInputGradients, 1E-12);
+                assertArrayEquals(algorithm.name(), expectedWeightGradients, actualWeightGradients, 1E-12);
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package me.cassayre.florian.dpu;
+
+import me.cassayre.florian.dpu.layer.BatchNormalizationLayer;
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.network.architecture.BatchNormalizationFolding;
+import me.cassayre.florian.dpu.network.architecture.FeedForwardNetwork;
+import me.cassayre.florian.dpu.network.trainer.StochasticTrainer;
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestBatchNormalizationFolding
+{
+    @Test
+    public void testFoldedNetworkIsEquivalent()
+    {
+        final Random random = new Random(0);
+
+        final FeedForwardNetwork network = new FeedForwardNetwork.Builder(new Dimensions(6, 6, 2))
+                .convolution(new Dimensions(3, 3, 4), 1, Layer.ActivationFunctionType.LINEAR)
+                .batchNormalization()
+                .activationFunction(Layer.ActivationFunctionType.RELU)
+                .reshape(new Dimensions(6 * 6 * 4))
+                .fullyConnected(new Dimensions(5), Layer.ActivationFunctionType.LINEAR)
+                .batchNormalization()
+                .build(Layer.OutputFunctionType.SOFTMAX);
+
+        for(Layer layer : network.getLayers())
+        {
+            if(layer instanceof BatchNormalizationLayer)
+            {
+                final BatchNormalizationLayer normalization = (BatchNormalizationLayer) layer;
+                for(Volume weights : normalization.getWeights())
+                    weights.fillValues(i -> random.nextDouble() + 0.5);
+                normalization.getMean().fillValues(i -> random.nextDouble() - 0.5);
+                normalization.getVariance().fillValues(i -> random.nextDouble() + 0.1);
+            }
+        }
+
+        final FeedForwardNetwork folded = BatchNormalizationFolding.fold(network);
+        assertEquals(network.getLayers().size() - 2, folded.getLayers().size());
+
+        final Volume input = new Volume(new Dimensions(6, 6, 2));
+        input.fillValues(i -> random.nextDouble());
+
+        network.forwardPropagation(input);
+        final Volume expected = network.getOutput().clone();
+        folded.forwardPropagation(input);
+
+        for(int i = 0; i < expected.getSize(); i++)
+            assertEquals(expected.get(i), folded.getOutput().get(i), 1E-9);
+    }
+
+    @Test
+    public void testTrainedFullyConnectedNetworkFolds()
+    {
+        final Random random = new Random(0);
+
+        final FeedForwardNetwork network = new FeedForwardNetwork.Builder(new Dimensions(4))
+                .fullyConnected(new Dimensions(6), Layer.ActivationFunctionType.LINEAR)
+                .batchNormalization()
+                .activationFunction(Layer.ActivationFunctionType.TANH)
+                .fullyConnected(new Dimensions(3), Layer.ActivationFunctionType.LINEAR)
+                .batchNormalization()
+                .build(Layer.OutputFunctionType.SOFTMAX);
+        final StochasticTrainer trainer = new StochasticTrainer(network, 0.05);
+
+        final List<Volume> inputs = new ArrayList<>(), targets = new ArrayList<>();
+        for(int i = 0; i < 64; i++)
+        {
+            final Volume input = new Volume(new Dimensions(4)), target = new Volume(new Dimensions(3));
+            input.fillValues(j -> random.nextDouble() * 4 - 1);
+            target.set((int) Math.floor(input.get(0) + input.get(1)) & 1, 1.0); // Some function of the input
+            inputs.add(input);
+            targets.add(target);
+        }
+
+        // The normalizations after the fully connected layers are trained with the statistics of each batch
+        final double initial = trainer.trainBatch(inputs.subList(0, 8), targets.subList(0, 8));
+        double loss = initial;
+        for(int epoch = 0; epoch < 50; epoch++)
+        {
+            loss = 0.0;
+            for(int b = 0; b < inputs.size(); b += 8)
+                loss += trainer.trainBatch(inputs.subList(b, b + 8), targets.subList(b, b + 8)) / 8;
+        }
+        assertTrue(loss < initial);
+
+        final BatchNormalizationLayer normalization = (BatchNormalizationLayer) network.getLayers().get(2);
+        assertNotEquals(0.0, normalization.getMean().get(0), 0.0);
+        assertNotEquals(1.0, normalization.getVariance().get(0), 0.0);
+
+        final FeedForwardNetwork folded = BatchNormalizationFolding.fold(network);
+        assertEquals(network.getLayers().size() - 2, folded.getLayers().size());
+
+        for(Volume input : inputs)
+        {
+            network.forwardPropagation(input);
+            final Volume expected = network.getOutput().clone();
+            folded.forwardPropagation(input);
+
+            for(int i = 0; i < expected.getSize(); i++)
+                assertEquals(expected.get(i), folded.getOutput().get(i), 1E-9);
+        }
+    }
+}
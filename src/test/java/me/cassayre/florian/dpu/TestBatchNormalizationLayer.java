@@ -0,0 +1,237 @@
+package me.cassayre.florian.dpu;
+
+import me.cassayre.florian.dpu.layer.BatchNormalizationLayer;
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.network.architecture.FeedForwardNetwork;
+import me.cassayre.florian.dpu.network.trainer.StochasticTrainer;
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class TestBatchNormalizationLayer
+{
+    private static final Dimensions DIMENSIONS = new Dimensions(4, 3, 3);
+
+    private static BatchNormalizationLayer createLayer(Random random, double momentum)
+    {
+        final Dimensions channels = new Dimensions(DIMENSIONS.getDepth());
+        final Volume gamma = new Volume(channels), beta = new Volume(channels), mean = new Volume(channels), variance = new Volume(channels);
+        gamma.fillValues(i -> random.nextDouble() + 0.5);
+        beta.fillValues(i -> random.nextDouble() - 0.5);
+        mean.fillValues(i -> random.nextDouble() - 0.5);
+        variance.fillValues(i -> random.nextDouble() + 0.5);
+
+        return new BatchNormalizationLayer(DIMENSIONS, gamma, beta, mean, variance, momentum, 1E-5);
+    }
+
+    private static Volume randomVolume(Random random)
+    {
+        final Volume volume = new Volume(DIMENSIONS);
+        volume.fillValues(i -> random.nextDouble() * 2 + 1);
+        return volume;
+    }
+
+    private static Volume[] randomBatch(Random random, int size)
+    {
+        final Volume[] batch = new Volume[size];
+        for(int s = 0; s < size; s++)
+            batch[s] = randomVolume(random);
+        return batch;
+    }
+
+    private static Volume[] emptyBatch(int size)
+    {
+        final Volume[] batch = new Volume[size];
+        for(int s = 0; s < size; s++)
+            batch[s] = new Volume(DIMENSIONS);
+        return batch;
+    }
+
+    // sum(output * output gradient) over the batch, the outputs being computed as when training
+    private static double weightedSum(Layer layer, Volume[] inputs, Volume[] gradients)
+    {
+        final Volume[] outputs = emptyBatch(inputs.length);
+        layer.forwardPropagation(inputs, outputs, true);
+
+        double sum = 0.0;
+        for(int s = 0; s < outputs.length; s++)
+            for(int i = 0; i < outputs[s].getSize(); i++)
+                sum += outputs[s].get(i) * gradients[s].getGradient(i);
+        return sum;
+    }
+
+    private static void assertGradientMatches(double expected, Volume volume, int i, Layer layer, Volume[] inputs, Volume[] gradients)
+    {
+        final double h = 1E-6, value = volume.get(i);
+
+        volume.set(i, value + h);
+        final double plus = weightedSum(layer, inputs, gradients);
+        volume.set(i, value - h);
+        final double minus = weightedSum(layer, inputs, gradients);
+        volume.set(i, value);
+
+        assertEquals((plus - minus) / (2 * h), expected, 1E-7);
+    }
+
+    @Test
+    public void testGradients()
+    {
+        final Random random = new Random(0);
+        final BatchNormalizationLayer layer = createLayer(random, 0.9);
+        final Volume[] inputs = randomBatch(random, 3), outputs = emptyBatch(3);
+        for(Volume output : outputs)
+            output.fillGradients(i -> random.nextDouble() - 0.5);
+
+        layer.forwardPropagation(inputs, outputs, true);
+        layer.backwardPropagation(inputs, outputs);
+
+        // The gradient flows through the mean and the variance of the batch
+        for(Volume input : inputs)
+            for(int i = 0; i < input.getSize(); i++)
+                assertGradientMatches(input.getGradient(i), input, i, layer, inputs, outputs);
+
+        for(Volume weights : layer.getWeights())
+            for(int z = 0; z < weights.getSize(); z++)
+                assertGradientMatches(weights.getGradient(z), weights, z, layer, inputs, outputs);
+    }
+
+    @Test
+    public void testTrainingNormalizesTheBatch()
+    {
+        final Random random = new Random(0);
+        final BatchNormalizationLayer layer = createLayer(random, 0.9);
+        for(Volume weights : layer.getWeights())
+            weights.fillValues(i -> 0.0);
+        layer.getWeights()[0].fillValues(i -> 1.0);
+
+        final Volume[] inputs = randomBatch(random, 2), outputs = emptyBatch(2);
+        layer.forwardPropagation(inputs, outputs, true);
+
+        final int count = outputs.length * DIMENSIONS.getWidth() * DIMENSIONS.getHeight();
+        for(int z = 0; z < DIMENSIONS.getDepth(); z++)
+        {
+            double sum = 0.0, squares = 0.0;
+            for(Volume output : outputs)
+            {
+                for(int y = 0; y < DIMENSIONS.getHeight(); y++)
+                {
+                    for(int x = 0; x < DIMENSIONS.getWidth(); x++)
+                    {
+                        sum += output.get(x, y, z);
+                        squares += output.get(x, y, z) * output.get(x, y, z);
+                    }
+                }
+            }
+
+            assertEquals(0.0, sum / count, 1E-12);
+            assertEquals(1.0, squares / count, 1E-3);
+        }
+    }
+
+    @Test
+    public void testRunningStatisticsOnlyChangeWhenUpdated()
+    {
+        final Random random = new Random(0);
+        final double momentum = 0.75;
+        final BatchNormalizationLayer layer = createLayer(random, momentum);
+        final Volume initialMean = layer.getMean().clone(), initialVariance = layer.getVariance().clone();
+
+        final Volume[] inputs = {randomVolume(random), randomVolume(random)};
+        final Volume output = new Volume(DIMENSIONS);
+        output.fillGradients(i -> random.nextDouble() - 0.5);
+
+        for(Volume input : inputs)
+        {
+            layer.forwardPropagation(input, output, true);
+            layer.backwardPropagation(input, output);
+        }
+
+        for(int z = 0; z < DIMENSIONS.getDepth(); z++)
+        {
+            assertEquals(initialMean.get(z), layer.getMean().get(z), 0.0);
+            assertEquals(initialVariance.get(z), layer.getVariance().get(z), 0.0);
+        }
+
+        layer.updateStatistics();
+
+        // The statistics of the batch are the ones of all the values of the channel in the two samples
+        for(int z = 0; z < DIMENSIONS.getDepth(); z++)
+        {
+            double sum = 0.0, squares = 0.0;
+            int count = 0;
+            for(Volume input : inputs)
+            {
+                for(int y = 0; y < DIMENSIONS.getHeight(); y++)
+                {
+                    for(int x = 0; x < DIMENSIONS.getWidth(); x++)
+                    {
+                        sum += input.get(x, y, z);
+                        squares += input.get(x, y, z) * input.get(x, y, z);
+                        count++;
+                    }
+                }
+            }
+
+            final double mean = sum / count, variance = squares / count - mean * mean;
+            assertEquals(momentum * initialMean.get(z) + (1 - momentum) * mean, layer.getMean().get(z), 1E-12);
+            assertEquals(momentum * initialVariance.get(z) + (1 - momentum) * variance, layer.getVariance().get(z), 1E-12);
+        }
+
+        // The accumulated statistics were cleared
+        final Volume mean = layer.getMean().clone();
+        layer.updateStatistics();
+        for(int z = 0; z < DIMENSIONS.getDepth(); z++)
+            assertEquals(mean.get(z), layer.getMean().get(z), 0.0);
+    }
+
+    @Test
+    public void testInferenceMatchesTrainingOnTheStatisticsOfTheBatch()
+    {
+        final Random random = new Random(0);
+        final BatchNormalizationLayer layer = createLayer(random, 0.0); // The running statistics are replaced by the ones of the batch
+        final Volume[] inputs = randomBatch(random, 3), training = emptyBatch(3);
+
+        layer.forwardPropagation(inputs, training, true);
+        layer.backwardPropagation(inputs, training);
+        layer.updateStatistics();
+
+        for(int s = 0; s < inputs.length; s++)
+        {
+            final Volume inference = new Volume(DIMENSIONS);
+            layer.forwardPropagation(inputs[s], inference);
+
+            for(int i = 0; i < DIMENSIONS.getSize(); i++)
+                assertEquals(training[s].get(i), inference.get(i), 1E-12);
+        }
+    }
+
+    @Test
+    public void testTrainerUpdatesRunningStatistics()
+    {
+        final FeedForwardNetwork network = new FeedForwardNetwork.Builder(new Dimensions(5, 5, 1))
+                .convolution(new Dimensions(3, 3, 2), 1, Layer.ActivationFunctionType.LINEAR)
+                .batchNormalization()
+                .activationFunction(Layer.ActivationFunctionType.RELU)
+                .reshape(new Dimensions(5 * 5 * 2))
+                .fullyConnected(new Dimensions(2), Layer.ActivationFunctionType.LINEAR)
+                .build(Layer.OutputFunctionType.SOFTMAX);
+        final BatchNormalizationLayer layer = (BatchNormalizationLayer) network.getLayers().get(2);
+        final StochasticTrainer trainer = new StochasticTrainer(network, 2, 0.1);
+
+        final Random random = new Random(0);
+        final Volume input = new Volume(new Dimensions(5, 5, 1)), target = new Volume(new Dimensions(2));
+        input.fillValues(i -> random.nextDouble() + 1);
+        target.set(0, 1.0);
+
+        trainer.train(input, target);
+        assertEquals(0.0, layer.getMean().get(0), 0.0); // Not before the update
+
+        trainer.train(input, target);
+        assertNotEquals(0.0, layer.getMean().get(0), 0.0);
+    }
+}
@@ -0,0 +1,54 @@
+package me.cassayre.florian.dpu;
+
+import me.cassayre.florian.dpu.layer.BilinearResample;
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestBilinearResample
+{
+    @Test
+    public void testCornersArePreserved()
+    {
+        final Random random = new Random(0);
+        final BilinearResample layer = new BilinearResample(new Dimensions(3, 4, 2), new Dimensions(7, 5, 2));
+        final Volume input = new Volume(new Dimensions(3, 4, 2));
+        input.fillValues(i -> random.nextDouble());
+
+        layer.forwardPropagation(input);
+
+        for(int z = 0; z < 2; z++)
+        {
+            assertEquals(input.get(0, 0, z), layer.getOutput().get(0, 0, z), 1E-12);
+            assertEquals(input.get(2, 3, z), layer.getOutput().get(6, 4, z), 1E-12);
+        }
+    }
+
+    @Test
+    public void testBackwardIsAdjointOfForward()
+    {
+        final Random random = new Random(0);
+        final Dimensions inputDimensions = new Dimensions(5, 3, 2), outputDimensions = new Dimensions(4, 8, 2);
+        final BilinearResample layer = new BilinearResample(inputDimensions, outputDimensions);
+
+        final Volume input = new Volume(inputDimensions);
+        input.fillValues(i -> random.nextDouble());
+
+        layer.forwardPropagation(input);
+        layer.getOutput().fillGradients(i -> random.nextDouble());
+        layer.backwardPropagation(input);
+
+        // <A u, g> = <u, A^T g>
+        double left = 0.0, right = 0.0;
+        for(int i = 0; i < outputDimensions.getSize(); i++)
+            left += layer.getOutput().get(i) * layer.getOutput().getGradient(i);
+        for(int i = 0; i < inputDimensions.getSize(); i++)
+            right += input.get(i) * input.getGradient(i);
+
+        assertEquals(left, right, 1E-9);
+    }
+}
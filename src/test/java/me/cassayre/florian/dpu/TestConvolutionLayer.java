@@ -0,0 +1,94 @@
+package me.cassayre.florian.dpu;
+
+import me.cassayre.florian.dpu.layer.ConvolutionLayer;
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestConvolutionLayer
+{
+    @Test
+    public void testForwardWithNonSquareFilters()
+    {
+        final Random random = new Random(0);
+        final Dimensions inputDimensions = new Dimensions(6, 7, 2), filterDimensions = new Dimensions(3, 5, 2);
+
+        final Volume[] filters = new Volume[3];
+        for(int i = 0; i < filters.length; i++)
+        {
+            filters[i] = new Volume(filterDimensions);
+            filters[i].fillValues(j -> random.nextDouble() - 0.5);
+        }
+        final Volume biases = new Volume(new Dimensions(1, 1, filters.length));
+        biases.fillValues(i -> random.nextDouble() - 0.5);
+
+        final int paddingX = 1, paddingY = 2;
+        final ConvolutionLayer layer = new ConvolutionLayer(inputDimensions, filters, biases, 1, 1, paddingX, paddingY);
+
+        final Volume input = new Volume(inputDimensions);
+        input.fillValues(i -> random.nextDouble() - 0.5);
+
+        layer.forwardPropagation(input);
+        final Volume output = layer.getOutput();
+
+        for(int i = 0; i < filters.length; i++)
+        {
+            for(int y = 0; y < output.getHeight(); y++)
+            {
+                for(int x = 0; x < output.getWidth(); x++)
+                {
+                    double expected = biases.get(0, 0, i);
+                    for(int fy = 0; fy < filterDimensions.getHeight(); fy++)
+                    {
+                        for(int fx = 0; fx < filterDimensions.getWidth(); fx++)
+                        {
+                            final int xf = x + fx - paddingX, yf = y + fy - paddingY;
+                            if(xf < 0 || yf < 0 || xf >= inputDimensions.getWidth() || yf >= inputDimensions.getHeight())
+                                continue;
+
+                            for(int j = 0; j < filterDimensions.getDepth(); j++)
+                                expected += input.get(xf, yf, j) * filters[i].get(fx, fy, j);
+                        }
+                    }
+
+                    assertEquals(expected, output.get(x, y, i), 1E-12);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBackwardIsAdjointOfForward()
+    {
+        final Random random = new Random(0);
+        final Dimensions inputDimensions = new Dimensions(5, 6, 3), filterDimensions = new Dimensions(5, 3, 3);
+
+        final Volume[] filters = new Volume[2];
+        for(int i = 0; i < filters.length; i++)
+        {
+            filters[i] = new Volume(filterDimensions);
+            filters[i].fillValues(j -> random.nextDouble() - 0.5);
+        }
+        final ConvolutionLayer layer = new ConvolutionLayer(inputDimensions, filters, new Volume(new Dimensions(1, 1, filters.length)));
+
+        final Volume input = new Volume(inputDimensions);
+        input.fillValues(i -> random.nextDouble() - 0.5);
+
+        layer.forwardPropagation(input);
+        layer.getOutput().fillGradients(i -> random.nextDouble() - 0.5);
+        layer.backwardPropagation(input);
+
+        // Without biases the layer is linear in its input: <A u, g> = <u, A^T g>
+        double left = 0.0, right = 0.0;
+        for(int i = 0; i < layer.getOutput().getSize(); i++)
+            left += layer.getOutput().get(i) * layer.getOutput().getGradient(i);
+        for(int i = 0; i < inputDimensions.getSize(); i++)
+            right += input.get(i) * input.getGradient(i);
+
+        assertEquals(left, right, 1E-9);
+    }
+}
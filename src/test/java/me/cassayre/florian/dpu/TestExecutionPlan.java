@@ -0,0 +1,216 @@
+package me.cassayre.florian.dpu;
+
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.network.architecture.FeedForwardNetwork;
+import me.cassayre.florian.dpu.network.execution.ExecutionContext;
+import me.cassayre.florian.dpu.network.execution.ExecutionPlan;
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestExecutionPlan
+{
+    private static FeedForwardNetwork createNetwork()
+    {
+        return new FeedForwardNetwork.Builder(new Dimensions(8, 8, 1))
+                .convolution(new Dimensions(3, 3, 4), 2, Layer.ActivationFunctionType.RELU)
+                .convolution(new Dimensions(3, 3, 6), 2, Layer.ActivationFunctionType.SIGMOID)
+                .fullyConnected(new Dimensions(3), Layer.ActivationFunctionType.LINEAR)
+                .build(Layer.OutputFunctionType.SOFTMAX);
+    }
+
+    private static Volume randomVolume(Random random, Dimensions dimensions)
+    {
+        final Volume volume = new Volume(dimensions);
+        volume.fillValues(i -> random.nextDouble());
+        return volume;
+    }
+
+    @Test
+    public void testInferenceUsesTwoBuffers()
+    {
+        final ExecutionPlan plan = createNetwork().compile(ExecutionPlan.Mode.INFERENCE);
+
+        assertEquals(2, plan.getBufferCount());
+        assertTrue(plan.getPlannedMemory() < plan.getUnplannedMemory());
+    }
+
+    @Test
+    public void testInferenceMatchesNetwork()
+    {
+        final Random random = new Random(0);
+        final FeedForwardNetwork network = createNetwork();
+        final ExecutionContext context = network.compile(ExecutionPlan.Mode.INFERENCE).createContext();
+
+        for(int n = 0; n < 3; n++)
+        {
+            final Volume input = randomVolume(random, new Dimensions(8, 8, 1));
+
+            network.forwardPropagation(input);
+            context.forwardPropagation(input);
+
+            for(int i = 0; i < network.getOutput().getSize(); i++)
+                assertEquals(network.getOutput().get(i), context.getOutput().get(i), 0.0);
+        }
+    }
+
+    @Test
+    public void testTrainingMatchesNetwork()
+    {
+        final Random random = new Random(0);
+        final FeedForwardNetwork network = createNetwork();
+        final ExecutionPlan plan = network.compile(ExecutionPlan.Mode.TRAINING);
+        final ExecutionContext context = plan.createContext();
+
+        assertTrue(plan.getPlannedMemory() < plan.getUnplannedMemory());
+
+        final Volume input = randomVolume(random, new Dimensions(8, 8, 1));
+        final Volume expected = new Volume(new Dimensions(3));
+        expected.set(1, 1.0);
+
+        network.forwardPropagation(input);
+        network.backwardPropagation(expected);
+
+        final double[][] gradients = new double[network.getLayers().size()][];
+        for(int l = 0; l < gradients.length; l++)
+        {
+            final Volume[] weights = network.getLayers().get(l).getWeights();
+            gradients[l] = new double[weights.length == 0 ? 0 : weights[0].getSize()];
+            for(int i = 0; i < gradients[l].length; i++)
+                gradients[l][i] = weights[0].getGradient(i);
+            for(Volume volume : weights)
+                volume.fillGradients(i -> 0.0);
+        }
+
+        context.forwardPropagation(input);
+        context.backwardPropagation(expected);
+
+        assertEquals(network.getLoss(), context.getLoss(), 0.0);
+        for(int l = 0; l < gradients.length; l++)
+            for(int i = 0; i < gradients[l].length; i++)
+                assertEquals(gradients[l][i], network.getLayers().get(l).getWeights()[0].getGradient(i), 0.0);
+    }
+
+    @Test
+    public void testCheckpointingMatchesNetwork()
+    {
+        final Random random = new Random(0);
+
+        FeedForwardNetwork.Builder builder = new FeedForwardNetwork.Builder(new Dimensions(8, 8, 1))
+                .convolution(new Dimensions(3, 3, 4), 2, Layer.ActivationFunctionType.RELU);
+        for(int i = 0; i < 6; i++)
+            builder = builder.fullyConnected(new Dimensions(10), Layer.ActivationFunctionType.TANH);
+        final FeedForwardNetwork network = builder.fullyConnected(new Dimensions(3), Layer.ActivationFunctionType.LINEAR)
+                .build(Layer.OutputFunctionType.SOFTMAX);
+
+        final Volume input = randomVolume(random, new Dimensions(8, 8, 1));
+        final Volume expected = new Volume(new Dimensions(3));
+        expected.set(2, 1.0);
+
+        network.forwardPropagation(input);
+        network.backwardPropagation(expected);
+
+        final double loss = network.getLoss();
+        final double[] gradients = network.getParameters().getGradients().clone();
+
+        for(int interval = 2; interval <= 5; interval++)
+        {
+            final ExecutionPlan plan = ExecutionPlan.compile(network.getParameters(), interval);
+            assertTrue(plan.getPlannedMemory() < network.compile(ExecutionPlan.Mode.TRAINING).getPlannedMemory());
+
+            network.getParameters().zeroGradients();
+            network.setCheckpointInterval(interval);
+
+            network.forwardPropagation(input);
+            network.backwardPropagation(expected);
+
+            assertEquals(loss, network.getLoss(), 0.0);
+            for(int i = 0; i < gradients.length; i++)
+                assertEquals(gradients[i], network.getParameters().getGradients()[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testCheckpointingMatchesNetworkOnBatches()
+    {
+        final Random random = new Random(0);
+
+        FeedForwardNetwork.Builder builder = new FeedForwardNetwork.Builder(new Dimensions(8, 8, 1))
+                .convolution(new Dimensions(3, 3, 4), 2, Layer.ActivationFunctionType.LINEAR)
+                .batchNormalization()
+                .activationFunction(Layer.ActivationFunctionType.RELU)
+                .reshape(new Dimensions(4 * 4 * 4));
+        for(int i = 0; i < 3; i++)
+            builder = builder.fullyConnected(new Dimensions(10), Layer.ActivationFunctionType.LINEAR)
+                    .batchNormalization()
+                    .activationFunction(Layer.ActivationFunctionType.TANH);
+        final FeedForwardNetwork network = builder.fullyConnected(new Dimensions(3), Layer.ActivationFunctionType.LINEAR)
+                .build(Layer.OutputFunctionType.SOFTMAX);
+
+        final List<Volume> inputs = new ArrayList<>(), expected = new ArrayList<>();
+        for(int i = 0; i < 5; i++)
+        {
+            inputs.add(randomVolume(random, new Dimensions(8, 8, 1)));
+            expected.add(new Volume(new Dimensions(3)));
+            expected.get(i).set(i % 3, 1.0);
+        }
+
+        // The normalizations use the statistics of the batch, including when their segment is recomputed
+        final double loss = network.propagateBatch(inputs, expected);
+        final double[] gradients = network.getParameters().getGradients().clone();
+
+        for(int interval = 2; interval <= 5; interval++)
+        {
+            network.getParameters().zeroGradients();
+            network.setCheckpointInterval(interval);
+
+            assertEquals(loss, network.propagateBatch(inputs, expected), 0.0);
+            for(int i = 0; i < gradients.length; i++)
+                assertEquals(gradients[i], network.getParameters().getGradients()[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testMixedPrecisionStoresSinglePrecisionActivations()
+    {
+        final Random random = new Random(0);
+
+        FeedForwardNetwork.Builder builder = new FeedForwardNetwork.Builder(new Dimensions(32))
+                .fullyConnected(new Dimensions(32), Layer.ActivationFunctionType.TANH);
+        for(int i = 0; i < 10; i++)
+            builder = builder.fullyConnected(new Dimensions(32), Layer.ActivationFunctionType.TANH);
+        final FeedForwardNetwork network = builder.fullyConnected(new Dimensions(3), Layer.ActivationFunctionType.LINEAR)
+                .build(Layer.OutputFunctionType.SOFTMAX);
+
+        final ExecutionPlan plan = ExecutionPlan.compile(network.getParameters(), 1, ExecutionPlan.Precision.MIXED);
+        final ExecutionPlan reference = ExecutionPlan.compile(network.getParameters(), 1);
+        assertTrue(plan.getPlannedMemory() < reference.getPlannedMemory() * 3 / 4);
+
+        final Volume input = randomVolume(random, new Dimensions(32));
+        final Volume expected = new Volume(new Dimensions(3));
+        expected.set(1, 1.0);
+
+        final ExecutionContext context = reference.createContext(), mixed = plan.createContext();
+        context.forwardPropagation(input, true);
+        context.backwardPropagation(expected);
+        final double[] gradients = network.getParameters().getGradients().clone();
+
+        network.getParameters().zeroGradients();
+        mixed.forwardPropagation(input, true);
+        mixed.backwardPropagation(expected);
+
+        // The activations and their gradients went through single precision, the weights and their gradients did not
+        assertNotEquals(context.getLoss(), mixed.getLoss(), 0.0);
+        assertEquals(context.getLoss(), mixed.getLoss(), 1E-6);
+        for(int i = 0; i < gradients.length; i++)
+            assertEquals(gradients[i], network.getParameters().getGradients()[i], 1E-6);
+    }
+}
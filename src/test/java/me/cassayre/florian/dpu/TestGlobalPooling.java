@@ -0,0 +1,150 @@
+package me.cassayre.florian.dpu;
+
+import me.cassayre.florian.dpu.layer.GlobalAveragePoolingLayer;
+import me.cassayre.florian.dpu.layer.GlobalMaxPoolingLayer;
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestGlobalPooling
+{
+    private static final Dimensions DIMENSIONS = new Dimensions(4, 3, 5);
+
+    private static Volume randomVolume(Random random)
+    {
+        final Volume volume = new Volume(DIMENSIONS);
+        volume.fillValues(i -> random.nextDouble() - 0.5);
+        return volume;
+    }
+
+    // Compares the input gradient of the backward propagation with central differences of sum(output * output gradient)
+    private static void assertGradientsMatch(Layer layer, Volume input, Random random)
+    {
+        final double h = 1E-6;
+
+        final Volume output = new Volume(layer.getOutputDimensions());
+        output.fillGradients(i -> random.nextDouble() - 0.5);
+
+        layer.forwardPropagation(input, output);
+        layer.backwardPropagation(input, output);
+
+        for(int i = 0; i < input.getSize(); i++)
+        {
+            final double value = input.get(i);
+
+            input.set(i, value + h);
+            final double plus = weightedSum(layer, input, output);
+            input.set(i, value - h);
+            final double minus = weightedSum(layer, input, output);
+            input.set(i, value);
+
+            assertEquals((plus - minus) / (2 * h), input.getGradient(i), 1E-8);
+        }
+    }
+
+    private static double weightedSum(Layer layer, Volume input, Volume gradients)
+    {
+        final Volume output = new Volume(layer.getOutputDimensions());
+        layer.forwardPropagation(input, output);
+
+        double sum = 0.0;
+        for(int i = 0; i < output.getSize(); i++)
+            sum += output.get(i) * gradients.getGradient(i);
+        return sum;
+    }
+
+    @Test
+    public void testAverageForward()
+    {
+        final Volume input = randomVolume(new Random(0));
+        final GlobalAveragePoolingLayer layer = new GlobalAveragePoolingLayer(DIMENSIONS);
+
+        layer.forwardPropagation(input);
+
+        assertEquals(new Dimensions(DIMENSIONS.getDepth()), layer.getOutputDimensions());
+        for(int z = 0; z < DIMENSIONS.getDepth(); z++)
+        {
+            double sum = 0.0;
+            for(int y = 0; y < DIMENSIONS.getHeight(); y++)
+                for(int x = 0; x < DIMENSIONS.getWidth(); x++)
+                    sum += input.get(x, y, z);
+
+            assertEquals(sum / (DIMENSIONS.getWidth() * DIMENSIONS.getHeight()), layer.getOutput().get(z), 1E-12);
+        }
+    }
+
+    @Test
+    public void testAverageGradients()
+    {
+        final Random random = new Random(0);
+
+        assertGradientsMatch(new GlobalAveragePoolingLayer(DIMENSIONS), randomVolume(random), random);
+    }
+
+    @Test
+    public void testMaxForward()
+    {
+        final Volume input = randomVolume(new Random(0));
+        final GlobalMaxPoolingLayer layer = new GlobalMaxPoolingLayer(DIMENSIONS);
+
+        layer.forwardPropagation(input);
+
+        for(int z = 0; z < DIMENSIONS.getDepth(); z++)
+        {
+            double max = Double.NEGATIVE_INFINITY;
+            for(int y = 0; y < DIMENSIONS.getHeight(); y++)
+                for(int x = 0; x < DIMENSIONS.getWidth(); x++)
+                    max = Math.max(max, input.get(x, y, z));
+
+            assertEquals(max, layer.getOutput().get(z), 0.0);
+        }
+    }
+
+    @Test
+    public void testMaxGradients()
+    {
+        final Random random = new Random(0);
+
+        // Random values are distinct, so the maximum doesn't move by less than the step of the differences
+        assertGradientsMatch(new GlobalMaxPoolingLayer(DIMENSIONS), randomVolume(random), random);
+    }
+
+    @Test
+    public void testMaxTiesGiveTheGradientToTheFirstMaximum()
+    {
+        final GlobalMaxPoolingLayer layer = new GlobalMaxPoolingLayer(DIMENSIONS);
+        final Volume input = new Volume(DIMENSIONS);
+        input.fillValues(i -> -1.0);
+        input.fillGradients(i -> 1.0); // Stale gradients must be overwritten
+
+        // Channel 0 has a maximum at (2, 0) and (1, 2), the values of the other channels are all equal
+        input.set(2, 0, 0, 3.0);
+        input.set(1, 2, 0, 3.0);
+
+        layer.forwardPropagation(input);
+        layer.getOutput().fillGradients(i -> i + 1.0);
+        layer.backwardPropagation(input);
+
+        assertEquals(3.0, layer.getOutput().get(0), 0.0);
+        assertEquals(-1.0, layer.getOutput().get(1), 0.0);
+
+        for(int z = 0; z < DIMENSIONS.getDepth(); z++)
+        {
+            final int firstX = z == 0 ? 2 : 0;
+
+            for(int y = 0; y < DIMENSIONS.getHeight(); y++)
+            {
+                for(int x = 0; x < DIMENSIONS.getWidth(); x++)
+                {
+                    final double expected = x == firstX && y == 0 ? z + 1.0 : 0.0;
+                    assertEquals(expected, input.getGradient(x, y, z), 0.0);
+                }
+            }
+        }
+    }
+}
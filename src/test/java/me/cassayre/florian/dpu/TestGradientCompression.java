@@ -0,0 +1,149 @@
+package me.cassayre.florian.dpu;
+
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.network.architecture.FeedForwardNetwork;
+import me.cassayre.florian.dpu.network.trainer.AdamTrainer;
+import me.cassayre.florian.dpu.network.trainer.GradientCompressor;
+import me.cassayre.florian.dpu.network.trainer.ParallelTrainer;
+import me.cassayre.florian.dpu.network.trainer.QuantizationCompressor;
+import me.cassayre.florian.dpu.network.trainer.TopKCompressor;
+import me.cassayre.florian.dpu.network.trainer.TrainingEngine;
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestGradientCompression
+{
+    @Test
+    public void testTopKKeepsLargestComponents()
+    {
+        final double[] gradients = {0.1, -3.0, 0.5, 2.0, -0.2, 0.0, 1.0, -0.7};
+        final double[] decoded = new double[gradients.length];
+
+        new TopKCompressor(0.25, false).compress(gradients).addTo(decoded, 1.0);
+
+        assertArrayEquals(new double[] {0.0, -3.0, 0.0, 2.0, 0.0, 0.0, 0.0, 0.0}, decoded, 0.0);
+    }
+
+    @Test
+    public void testErrorFeedbackConservesGradients()
+    {
+        for(GradientCompressor compressor : new GradientCompressor[] {new TopKCompressor(0.1), new QuantizationCompressor(16, true)})
+        {
+            final Random random = new Random(0);
+            final double[] sent = new double[100], transmitted = new double[100];
+
+            for(int step = 0; step < 5; step++)
+            {
+                final double[] gradients = new double[100];
+                for(int k = 0; k < gradients.length; k++)
+                {
+                    gradients[k] = random.nextGaussian() * (k + 1);
+                    sent[k] += gradients[k];
+                }
+
+                compressor.compress(gradients).addTo(transmitted, 1.0);
+            }
+
+            // Whatever was not transmitted is still in the residual
+            for(int k = 0; k < sent.length; k++)
+                assertEquals(sent[k], transmitted[k] + compressor.getResidual()[k], 1E-9);
+        }
+    }
+
+    @Test
+    public void testMessagesSurviveSerialization()
+    {
+        final Random random = new Random(0);
+        final double[] gradients = new double[1000];
+        for(int k = 0; k < gradients.length; k++)
+            gradients[k] = random.nextGaussian();
+
+        for(GradientCompressor compressor : new GradientCompressor[] {new TopKCompressor(0.05), new QuantizationCompressor()})
+        {
+            final GradientCompressor.Message message = compressor.compress(gradients);
+
+            final ByteBuffer buffer = ByteBuffer.allocate(message.getSize());
+            message.write(buffer);
+            assertEquals(0, buffer.remaining());
+            buffer.flip();
+
+            final double[] expected = new double[gradients.length], actual = new double[gradients.length];
+            message.addTo(expected, 1.0);
+            compressor.read(buffer).addTo(actual, 1.0);
+
+            assertArrayEquals(expected, actual, 0.0);
+            assertTrue(message.getSize() < gradients.length * Double.BYTES / 4);
+        }
+    }
+
+    @Test
+    public void testConvergenceOnMnistNetwork()
+    {
+        final List<Volume> inputs = new ArrayList<>(), targets = new ArrayList<>();
+        createDigits(inputs, targets, 300);
+
+        // Trained on the first 200 digits, evaluated on the 100 others
+        final List<Volume> trainingInputs = inputs.subList(0, 200), trainingTargets = targets.subList(0, 200);
+        final List<Volume> testInputs = inputs.subList(200, 300), testTargets = targets.subList(200, 300);
+
+        final double reference = train(null, trainingInputs, trainingTargets, testInputs, testTargets);
+        final double topK = train(() -> new TopKCompressor(0.01), trainingInputs, trainingTargets, testInputs, testTargets);
+        final double quantized = train(QuantizationCompressor::new, trainingInputs, trainingTargets, testInputs, testTargets);
+
+        assertTrue(reference > 0.9);
+        assertTrue(topK > reference - 0.1);
+        assertTrue(quantized > reference - 0.05);
+    }
+
+    // The network of the MNIST example, trained by two replicas, returns the accuracy on the held-out digits
+    private static double train(Supplier<GradientCompressor> compressors, List<Volume> inputs, List<Volume> targets, List<Volume> testInputs, List<Volume> testTargets)
+    {
+        final FeedForwardNetwork network = MNISTConvolutional.createNetwork();
+
+        // Drawn like the default weights of the builder, but seeded
+        final Random random = new Random(0);
+        for(Layer layer : network.getLayers())
+            for(Volume volume : layer.getWeights())
+                volume.fillValues(i -> random.nextDouble() - 0.5);
+
+        final AdamTrainer trainer = new AdamTrainer(network, 0.005);
+        try(ParallelTrainer parallel = new ParallelTrainer(trainer, 2, compressors))
+        {
+            for(int epoch = 0; epoch < 6; epoch++)
+                for(int from = 0; from < inputs.size(); from += 10)
+                    parallel.trainBatch(inputs.subList(from, from + 10), targets.subList(from, from + 10));
+        }
+
+        return new TrainingEngine.Builder(trainer).build().accuracy(testInputs, testTargets);
+    }
+
+    // Synthetic digits: a bright square whose position depends on the class, over noise
+    private static void createDigits(List<Volume> inputs, List<Volume> targets, int n)
+    {
+        final Random random = new Random(1);
+        for(int i = 0; i < n; i++)
+        {
+            final int label = i % 10;
+            final int x0 = 2 + (label % 5) * 4, y0 = label < 5 ? 4 : 14;
+
+            final Volume input = new Volume(new Dimensions(24, 24, 1));
+            input.fillValues((x, y, z) -> (x >= x0 && x < x0 + 5 && y >= y0 && y < y0 + 5 ? 0.8 : 0.0) + random.nextDouble() * 0.3);
+            inputs.add(input);
+
+            final Volume target = new Volume(new Dimensions(10));
+            target.set(label, 1.0);
+            targets.add(target);
+        }
+    }
+}
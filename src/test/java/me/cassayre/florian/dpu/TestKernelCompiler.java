@@ -0,0 +1,59 @@
+package me.cassayre.florian.dpu;
+
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.network.architecture.FeedForwardNetwork;
+import me.cassayre.florian.dpu.network.execution.CompiledNetwork;
+import me.cassayre.florian.dpu.network.execution.KernelCompiler;
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestKernelCompiler
+{
+    @Test
+    public void testCompiledNetworkMatchesNetwork()
+    {
+        final Random random = new Random(0);
+        final FeedForwardNetwork network = new FeedForwardNetwork.Builder(new Dimensions(8, 8, 2))
+                .convolution(new Dimensions(3, 3, 4), 2, Layer.ActivationFunctionType.RELU)
+                .convolution(new Dimensions(3, 3, 3), 1, 0, 1, Layer.ActivationFunctionType.SIGMOID)
+                .fullyConnected(new Dimensions(6), Layer.ActivationFunctionType.TANH)
+                .fullyConnected(new Dimensions(3), Layer.ActivationFunctionType.LINEAR)
+                .build(Layer.OutputFunctionType.SOFTMAX);
+
+        for(Layer layer : network.getLayers())
+            for(Volume volume : layer.getWeights())
+                volume.fillValues(i -> random.nextDouble() - 0.5);
+
+        final CompiledNetwork compiled = KernelCompiler.compile(network);
+
+        final Volume input = new Volume(new Dimensions(8, 8, 2));
+        input.fillValues(i -> random.nextDouble());
+        final Volume expected = new Volume(new Dimensions(3));
+        expected.set(1, 1.0);
+
+        network.forwardPropagation(input);
+        network.backwardPropagation(expected);
+
+        final double loss = network.getLoss();
+        final double[] output = new double[3];
+        for(int i = 0; i < output.length; i++)
+            output[i] = network.getOutput().get(i);
+        final double[] gradients = network.getParameters().getGradients().clone();
+
+        network.getParameters().zeroGradients();
+
+        compiled.forwardPropagation(input);
+        compiled.backwardPropagation(expected);
+
+        assertEquals(loss, compiled.getLoss(), 1E-12);
+        for(int i = 0; i < output.length; i++)
+            assertEquals(output[i], compiled.getOutput().get(i), 1E-12);
+        for(int i = 0; i < gradients.length; i++)
+            assertEquals(gradients[i], network.getParameters().getGradients()[i], 1E-12);
+    }
+}
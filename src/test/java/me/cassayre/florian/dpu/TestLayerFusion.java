@@ -0,0 +1,74 @@
+package me.cassayre.florian.dpu;
+
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.network.architecture.FeedForwardNetwork;
+import me.cassayre.florian.dpu.network.architecture.LayerFusion;
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestLayerFusion
+{
+    private static List<double[]> gradients(FeedForwardNetwork network)
+    {
+        final List<double[]> list = new ArrayList<>();
+        for(Layer layer : network.getLayers())
+        {
+            for(Volume volume : layer.getWeights())
+            {
+                final double[] array = new double[volume.getSize()];
+                for(int i = 0; i < array.length; i++)
+                    array[i] = volume.getGradient(i);
+                list.add(array);
+                volume.fillGradients(i -> 0.0);
+            }
+        }
+        return list;
+    }
+
+    @Test
+    public void testFusedNetworkIsEquivalent()
+    {
+        final Random random = new Random(0);
+
+        final FeedForwardNetwork network = new FeedForwardNetwork.Builder(new Dimensions(6, 6, 2))
+                .convolution(new Dimensions(3, 3, 3), 1, Layer.ActivationFunctionType.RELU)
+                .reshape(new Dimensions(6 * 6 * 3))
+                .fullyConnected(new Dimensions(5), Layer.ActivationFunctionType.SIGMOID)
+                .fullyConnected(new Dimensions(4), Layer.ActivationFunctionType.LINEAR)
+                .activationFunction(Layer.ActivationFunctionType.TANH)
+                .build(Layer.OutputFunctionType.SOFTMAX);
+
+        final FeedForwardNetwork fused = LayerFusion.fuse(network); // Shares the weights
+        assertEquals(5, fused.getLayers().size());
+
+        final Volume input = new Volume(new Dimensions(6, 6, 2));
+        input.fillValues(i -> random.nextDouble() - 0.5);
+        final Volume expected = new Volume(new Dimensions(4));
+        expected.set(2, 1.0);
+
+        network.forwardPropagation(input);
+        network.backwardPropagation(expected);
+        final Volume output = network.getOutput().clone();
+        final List<double[]> reference = gradients(network);
+
+        fused.forwardPropagation(input);
+        fused.backwardPropagation(expected);
+        final List<double[]> actual = gradients(fused);
+
+        assertEquals(network.getLoss(), fused.getLoss(), 1E-12);
+        for(int i = 0; i < output.getSize(); i++)
+            assertEquals(output.get(i), fused.getOutput().get(i), 1E-12);
+
+        assertEquals(reference.size(), actual.size());
+        for(int i = 0; i < reference.size(); i++)
+            for(int j = 0; j < reference.get(i).length; j++)
+                assertEquals(reference.get(i)[j], actual.get(i)[j], 1E-12);
+    }
+}
@@ -0,0 +1,77 @@
+package me.cassayre.florian.dpu;
+
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.network.architecture.FeedForwardNetwork;
+import me.cassayre.florian.dpu.network.architecture.NetworkFile;
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TestNetworkFile
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSaveAndLoad() throws IOException
+    {
+        final Random random = new Random(0);
+        final FeedForwardNetwork network = new FeedForwardNetwork.Builder(new Dimensions(8, 8, 2))
+                .convolution(new Dimensions(3, 3, 4), 2, Layer.ActivationFunctionType.RELU)
+                .batchNormalization()
+                .upSample(2)
+                .globalAveragePool()
+                .fullyConnected(new Dimensions(5), Layer.ActivationFunctionType.TANH)
+                .fullyConnected(new Dimensions(3), Layer.ActivationFunctionType.LINEAR)
+                .fusion(true)
+                .build(Layer.OutputFunctionType.SOFTMAX);
+
+        for(Layer layer : network.getLayers())
+            for(Volume volume : layer.getWeights())
+                volume.fillValues(i -> random.nextDouble() - 0.5);
+        network.getLayers().get(1).setTrainable(false);
+
+        final Path path = folder.newFile().toPath();
+        NetworkFile.save(network, path);
+        final FeedForwardNetwork loaded = NetworkFile.load(path);
+
+        assertEquals(network.getLayers().size(), loaded.getLayers().size());
+        for(int l = 0; l < network.getLayers().size(); l++)
+        {
+            assertEquals(network.getLayers().get(l).getClass(), loaded.getLayers().get(l).getClass());
+            assertEquals(network.getLayers().get(l).isTrainable(), loaded.getLayers().get(l).isTrainable());
+        }
+        assertArrayEquals(network.getParameters().getValues(), loaded.getParameters().getValues(), 0.0);
+
+        final Volume input = new Volume(new Dimensions(8, 8, 2));
+        input.fillValues(i -> random.nextDouble());
+        assertArrayEquals(toArray(network.predict(input)), toArray(loaded.predict(input)), 0.0);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherFiles() throws IOException
+    {
+        final Path path = folder.newFile().toPath();
+        Files.write(path, new byte[64]);
+
+        NetworkFile.load(path);
+    }
+
+    private static double[] toArray(Volume volume)
+    {
+        final double[] array = new double[volume.getSize()];
+        for(int i = 0; i < array.length; i++)
+            array[i] = volume.get(i);
+        return array;
+    }
+}
@@ -0,0 +1,219 @@
+package me.cassayre.florian.dpu;
+
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.network.architecture.FeedForwardNetwork;
+import me.cassayre.florian.dpu.network.architecture.FrozenNetwork;
+import me.cassayre.florian.dpu.network.execution.Pipeline;
+import me.cassayre.florian.dpu.network.trainer.StochasticTrainer;
+import me.cassayre.florian.dpu.network.trainer.Trainer;
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestPrediction
+{
+    private static FeedForwardNetwork createNetwork()
+    {
+        return new FeedForwardNetwork.Builder(new Dimensions(8, 8, 1))
+                .convolution(new Dimensions(3, 3, 4), 2, Layer.ActivationFunctionType.RELU)
+                .fullyConnected(new Dimensions(3), Layer.ActivationFunctionType.LINEAR)
+                .build(Layer.OutputFunctionType.SOFTMAX);
+    }
+
+    private static List<Volume> randomInputs(int n)
+    {
+        final Random random = new Random(0);
+        final List<Volume> inputs = new ArrayList<>();
+        for(int i = 0; i < n; i++)
+        {
+            final Volume input = new Volume(new Dimensions(8, 8, 1));
+            input.fillValues(j -> random.nextDouble());
+            inputs.add(input);
+        }
+        return inputs;
+    }
+
+    private static void assertSameValues(Volume expected, Volume actual)
+    {
+        assertEquals(expected.getDimensions(), actual.getDimensions());
+        for(int i = 0; i < expected.getSize(); i++)
+            assertEquals(expected.get(i), actual.get(i), 0.0);
+    }
+
+    @Test
+    public void testConcurrentPrediction() throws Exception
+    {
+        final FeedForwardNetwork network = createNetwork();
+        final List<Volume> inputs = randomInputs(200);
+
+        final List<Volume> expected = new ArrayList<>();
+        for(Volume input : inputs)
+        {
+            network.forwardPropagation(input);
+            expected.add(network.getOutput().clone());
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            final List<Future<Volume>> futures = new ArrayList<>();
+            for(Volume input : inputs)
+                futures.add(executor.submit(() -> network.predict(input)));
+
+            for(int i = 0; i < inputs.size(); i++)
+                assertSameValues(expected.get(i), futures.get(i).get());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPipelinePreservesOrder()
+    {
+        final FeedForwardNetwork network = createNetwork();
+        final List<Volume> inputs = randomInputs(200);
+
+        final Pipeline pipeline = Pipeline.create(network, 3, inputs.get(0));
+        final List<Volume> outputs = pipeline.predictAll(inputs);
+
+        assertEquals(inputs.size(), outputs.size());
+        for(int i = 0; i < inputs.size(); i++)
+            assertSameValues(network.predict(inputs.get(i)), outputs.get(i));
+    }
+
+    @Test
+    public void testPredictAllPreservesOrder()
+    {
+        final FeedForwardNetwork network = createNetwork();
+        final List<Volume> inputs = randomInputs(200);
+
+        final ForkJoinPool pool = new ForkJoinPool(3);
+        try
+        {
+            final List<Volume> outputs = network.predictAll(inputs, pool);
+            final List<Volume> streamed = network.predictAll(inputs.parallelStream()).collect(Collectors.toList());
+
+            assertEquals(inputs.size(), outputs.size());
+            assertEquals(inputs.size(), streamed.size());
+            for(int i = 0; i < inputs.size(); i++)
+            {
+                final Volume expected = network.predict(inputs.get(i));
+                assertSameValues(expected, outputs.get(i));
+                assertSameValues(expected, streamed.get(i));
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testPartitionBalancesCosts()
+    {
+        assertArrayEquals(new int[] {0, 4}, Pipeline.partition(new long[] {1, 1, 1, 1, 4}, 2));
+        assertArrayEquals(new int[] {0, 2, 3}, Pipeline.partition(new long[] {3, 2, 5, 1, 4}, 3));
+        assertArrayEquals(new int[] {0}, Pipeline.partition(new long[] {1, 2}, 1));
+    }
+
+    @Test
+    public void testFrozenNetworkMatchesNetwork()
+    {
+        final Random random = new Random(1);
+        final FeedForwardNetwork network = new FeedForwardNetwork.Builder(new Dimensions(8, 8, 1))
+                .convolution(new Dimensions(3, 3, 4), 2, Layer.ActivationFunctionType.RELU)
+                .fullyConnected(new Dimensions(7), Layer.ActivationFunctionType.LINEAR)
+                .batchNormalization()
+                .activationFunction(Layer.ActivationFunctionType.TANH)
+                .fullyConnected(new Dimensions(3), Layer.ActivationFunctionType.LINEAR)
+                .build(Layer.OutputFunctionType.SOFTMAX);
+
+        for(Layer layer : network.getLayers())
+            for(Volume volume : layer.getWeights())
+                volume.fillValues(i -> random.nextDouble() - 0.5);
+
+        final FrozenNetwork frozen = network.freeze();
+
+        for(Volume input : randomInputs(20))
+        {
+            final Volume expected = network.predict(input), actual = frozen.predict(input);
+            for(int i = 0; i < expected.getSize(); i++)
+                assertEquals(expected.get(i), actual.get(i), 1E-9);
+        }
+    }
+
+    @Test
+    public void testFrozenNetworkDoesNotChangeWhenTrained()
+    {
+        final FeedForwardNetwork network = new FeedForwardNetwork.Builder(new Dimensions(8, 8, 1))
+                .convolution(new Dimensions(3, 3, 4), 2, Layer.ActivationFunctionType.RELU)
+                .batchNormalization() // Not folded, after an activation
+                .fullyConnected(new Dimensions(3), Layer.ActivationFunctionType.LINEAR)
+                .build(Layer.OutputFunctionType.SOFTMAX);
+
+        final FrozenNetwork frozen = network.freeze();
+        final List<Volume> inputs = randomInputs(10);
+
+        final List<Volume> expected = new ArrayList<>();
+        for(Volume input : inputs)
+            expected.add(frozen.predict(input).clone());
+
+        final Trainer trainer = new StochasticTrainer(network, 2, 0.1);
+        final Volume target = new Volume(new Dimensions(3));
+        target.set(0, 1.0);
+        for(Volume input : inputs)
+            trainer.train(input, target); // Updates both the weights and the running statistics
+
+        for(int i = 0; i < inputs.size(); i++)
+            assertSameValues(expected.get(i), frozen.predict(inputs.get(i)));
+    }
+
+    @Test
+    public void testFreezingDoesNotChangeTheNetwork()
+    {
+        final FeedForwardNetwork network = new FeedForwardNetwork.Builder(new Dimensions(8, 8, 1))
+                .convolution(new Dimensions(3, 3, 4), 2, Layer.ActivationFunctionType.RELU)
+                .batchNormalization()
+                .fullyConnected(new Dimensions(3), Layer.ActivationFunctionType.LINEAR)
+                .build(Layer.OutputFunctionType.SOFTMAX);
+
+        network.freeze();
+
+        // Including the layers without weights (activations, pooling), which the frozen network shares
+        for(Layer layer : network.getLayers())
+            assertTrue(layer.isTrainable());
+
+        final Trainer trainer = new StochasticTrainer(network, 0.1);
+        final double[] before = network.getParameters().getValues().clone();
+        final Volume target = new Volume(new Dimensions(3));
+        target.set(0, 1.0);
+        trainer.train(randomInputs(1).get(0), target);
+
+        assertNotEquals(before[0], network.getParameters().getValues()[0], 0.0);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testFrozenNetworkRejectsBackward()
+    {
+        final FrozenNetwork frozen = createNetwork().freeze();
+
+        frozen.forwardPropagation(randomInputs(1).get(0));
+        frozen.backwardPropagation(new Volume(new Dimensions(3)));
+    }
+}
@@ -0,0 +1,667 @@
+package me.cassayre.florian.dpu;
+
+import me.cassayre.florian.dpu.layer.BatchNormalizationLayer;
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.network.Parameters;
+import me.cassayre.florian.dpu.network.architecture.FeedForwardNetwork;
+import me.cassayre.florian.dpu.network.trainer.AdadeltaTrainer;
+import me.cassayre.florian.dpu.network.trainer.AdamTrainer;
+import me.cassayre.florian.dpu.network.trainer.Checkpointer;
+import me.cassayre.florian.dpu.network.trainer.HogwildTrainer;
+import me.cassayre.florian.dpu.network.trainer.LAMBTrainer;
+import me.cassayre.florian.dpu.network.trainer.LARSTrainer;
+import me.cassayre.florian.dpu.network.trainer.LearningRateSchedule;
+import me.cassayre.florian.dpu.network.trainer.MomentumTrainer;
+import me.cassayre.florian.dpu.network.trainer.ParallelTrainer;
+import me.cassayre.florian.dpu.network.trainer.StochasticTrainer;
+import me.cassayre.florian.dpu.network.trainer.Trainer;
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestTrainer
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static FeedForwardNetwork createNetwork(long seed)
+    {
+        final Random random = new Random(seed);
+        final FeedForwardNetwork network = new FeedForwardNetwork.Builder(new Dimensions(6, 6, 1))
+                .convolution(new Dimensions(3, 3, 3), 2, Layer.ActivationFunctionType.RELU)
+                .fullyConnected(new Dimensions(8), Layer.ActivationFunctionType.SIGMOID)
+                .fullyConnected(new Dimensions(3), Layer.ActivationFunctionType.LINEAR)
+                .build(Layer.OutputFunctionType.SOFTMAX);
+
+        for(Layer layer : network.getLayers())
+            for(Volume volume : layer.getWeights())
+                volume.fillValues(i -> random.nextDouble() - 0.5);
+
+        return network;
+    }
+
+    // The weight tensors of a network: {from, to, 1 if it is a vector}, the filters of a layer forming a single tensor
+    private static List<int[]> tensors(FeedForwardNetwork network)
+    {
+        final List<int[]> tensors = new ArrayList<>();
+        for(int l = 0; l < network.getLayers().size(); l++)
+        {
+            final Layer layer = network.getLayers().get(l);
+            final Volume[] weights = layer.getWeights();
+
+            int offset = network.getParameters().getOffset(l);
+            if(layer.getFilterCount() > 0)
+            {
+                final int from = offset;
+                for(int j = 0; j < layer.getFilterCount(); j++)
+                    offset += weights[j].getSize();
+                tensors.add(new int[] {from, offset, 0});
+            }
+
+            for(int j = layer.getFilterCount(); j < weights.length; j++)
+            {
+                tensors.add(new int[] {offset, offset + weights[j].getSize(), 1});
+                offset += weights[j].getSize();
+            }
+        }
+
+        return tensors;
+    }
+
+    private static FeedForwardNetwork createNormalizedNetwork(long seed)
+    {
+        final Random random = new Random(seed);
+        final FeedForwardNetwork network = new FeedForwardNetwork.Builder(new Dimensions(6, 6, 1))
+                .convolution(new Dimensions(3, 3, 3), 1, Layer.ActivationFunctionType.LINEAR)
+                .batchNormalization()
+                .activationFunction(Layer.ActivationFunctionType.RELU)
+                .maxPool(2)
+                .reshape(new Dimensions(3 * 3 * 3))
+                .fullyConnected(new Dimensions(3), Layer.ActivationFunctionType.LINEAR)
+                .build(Layer.OutputFunctionType.SOFTMAX);
+
+        for(Layer layer : network.getLayers())
+            if(!(layer instanceof BatchNormalizationLayer))
+                for(Volume volume : layer.getWeights())
+                    volume.fillValues(i -> random.nextDouble() - 0.5);
+
+        return network;
+    }
+
+    private static void assertSameStatistics(FeedForwardNetwork expected, FeedForwardNetwork actual, double delta)
+    {
+        for(int l = 0; l < expected.getLayers().size(); l++)
+        {
+            if(!(expected.getLayers().get(l) instanceof BatchNormalizationLayer))
+                continue;
+
+            final BatchNormalizationLayer a = (BatchNormalizationLayer) expected.getLayers().get(l), b = (BatchNormalizationLayer) actual.getLayers().get(l);
+            for(int z = 0; z < a.getMean().getSize(); z++)
+            {
+                assertNotEquals(0.0, a.getMean().get(z), 0.0);
+                assertEquals(a.getMean().get(z), b.getMean().get(z), delta);
+                assertEquals(a.getVariance().get(z), b.getVariance().get(z), delta);
+            }
+        }
+    }
+
+    private static List<Volume> inputs(int n)
+    {
+        final Random random = new Random(1);
+        final List<Volume> list = new ArrayList<>();
+        for(int i = 0; i < n; i++)
+        {
+            final Volume volume = new Volume(new Dimensions(6, 6, 1));
+            volume.fillValues(j -> random.nextDouble());
+            list.add(volume);
+        }
+        return list;
+    }
+
+    private static List<Volume> targets(int n)
+    {
+        final List<Volume> list = new ArrayList<>();
+        for(int i = 0; i < n; i++)
+        {
+            final Volume volume = new Volume(new Dimensions(3));
+            volume.set(i % 3, 1.0);
+            list.add(volume);
+        }
+        return list;
+    }
+
+    private static void assertSameWeights(FeedForwardNetwork expected, FeedForwardNetwork actual, double delta)
+    {
+        for(int l = 0; l < expected.getLayers().size(); l++)
+        {
+            final Volume[] a = expected.getLayers().get(l).getWeights(), b = actual.getLayers().get(l).getWeights();
+            for(int j = 0; j < a.length; j++)
+                for(int k = 0; k < a[j].getSize(); k++)
+                    assertEquals(a[j].get(k), b[j].get(k), delta);
+        }
+    }
+
+    @Test
+    public void testParallelTrainerMatchesSequentialBatch()
+    {
+        final List<Volume> inputs = inputs(20), targets = targets(20);
+
+        final FeedForwardNetwork sequential = createNetwork(0);
+        final Trainer trainer = new StochasticTrainer(sequential, 10, 0.1);
+        double sequentialLoss = 0.0;
+        for(int i = 0; i < 10; i++)
+        {
+            trainer.train(inputs.get(i), targets.get(i));
+            sequentialLoss += trainer.getLoss();
+        }
+        for(int i = 10; i < 20; i++)
+            trainer.train(inputs.get(i), targets.get(i));
+
+        final FeedForwardNetwork parallel = createNetwork(0);
+        try(ParallelTrainer parallelTrainer = new ParallelTrainer(new StochasticTrainer(parallel, 0.1), 4))
+        {
+            final double loss = parallelTrainer.trainBatch(inputs.subList(0, 10), targets.subList(0, 10));
+            parallelTrainer.trainBatch(inputs.subList(10, 20), targets.subList(10, 20));
+
+            assertEquals(sequentialLoss / 10, loss, 1E-12);
+            assertEquals(20, parallelTrainer.getTrainer().getSeen());
+        }
+
+        assertSameWeights(sequential, parallel, 1E-12);
+    }
+
+    @Test
+    public void testTrainBatchMatchesTrain()
+    {
+        final List<Volume> inputs = inputs(12), targets = targets(12);
+
+        final FeedForwardNetwork sequential = createNetwork(0);
+        final Trainer trainer = new AdadeltaTrainer(sequential, 6, 0.95, 1E-6);
+        for(int i = 0; i < 12; i++)
+            trainer.train(inputs.get(i), targets.get(i));
+
+        final FeedForwardNetwork batched = createNetwork(0);
+        final Trainer batchTrainer = new AdadeltaTrainer(batched, 0.95, 1E-6);
+        batchTrainer.trainBatch(inputs.subList(0, 6), targets.subList(0, 6));
+        batchTrainer.trainBatch(inputs.subList(6, 12).toArray(new Volume[6]), targets.subList(6, 12).toArray(new Volume[6]));
+
+        assertEquals(12, batchTrainer.getSeen());
+        assertSameWeights(sequential, batched, 0.0);
+    }
+
+    @Test
+    public void testTrainStepsAfterFullBatchesFollowingTrainBatch()
+    {
+        final List<Volume> inputs = inputs(5), targets = targets(5);
+
+        final FeedForwardNetwork expected = createNetwork(0);
+        final Trainer expectedTrainer = new StochasticTrainer(expected, 3, 0.1);
+        expectedTrainer.trainBatch(inputs.subList(0, 2), targets.subList(0, 2));
+        expectedTrainer.trainBatch(inputs.subList(2, 5), targets.subList(2, 5));
+
+        // The batch is only complete after the third sample, even though 3 samples were seen after the first one
+        final FeedForwardNetwork actual = createNetwork(0);
+        final Trainer trainer = new StochasticTrainer(actual, 3, 0.1);
+        trainer.trainBatch(inputs.subList(0, 2), targets.subList(0, 2));
+        for(int i = 2; i < 5; i++)
+            trainer.train(inputs.get(i), targets.get(i));
+
+        assertEquals(5, trainer.getSeen());
+        assertSameWeights(expected, actual, 0.0);
+    }
+
+    @Test
+    public void testTrainBatchRejectsPendingSamples()
+    {
+        final List<Volume> inputs = inputs(3), targets = targets(3);
+
+        final FeedForwardNetwork network = createNetwork(0);
+        final double[] before = network.getParameters().getValues().clone();
+        final Trainer trainer = new StochasticTrainer(network, 3, 0.1);
+        trainer.train(inputs.get(0), targets.get(0));
+
+        try
+        {
+            trainer.trainBatch(inputs.subList(1, 3), targets.subList(1, 3));
+            fail();
+        }
+        catch(IllegalStateException e)
+        {
+            // The gradients of the first sample would have been merged into the batch
+        }
+
+        assertEquals(1, trainer.getSeen());
+        for(int k = 0; k < before.length; k++)
+            assertEquals(before[k], network.getParameters().getValues()[k], 0.0);
+    }
+
+    @Test
+    public void testParallelTrainerIsDeterministic()
+    {
+        final List<Volume> inputs = inputs(30), targets = targets(30);
+        final FeedForwardNetwork[] networks = {createNetwork(0), createNetwork(0)};
+
+        for(FeedForwardNetwork network : networks)
+        {
+            try(ParallelTrainer trainer = new ParallelTrainer(new StochasticTrainer(network, 0.1), 3))
+            {
+                for(int i = 0; i < 3; i++)
+                    trainer.trainBatch(inputs.subList(10 * i, 10 * i + 10), targets.subList(10 * i, 10 * i + 10));
+            }
+        }
+
+        assertSameWeights(networks[0], networks[1], 0.0);
+    }
+
+    @Test
+    public void testParallelTrainerMergesStatistics()
+    {
+        final List<Volume> inputs = inputs(10), targets = targets(10);
+
+        final FeedForwardNetwork sequential = createNormalizedNetwork(0);
+        new StochasticTrainer(sequential, 0.1).trainBatch(inputs, targets);
+
+        // Each replica normalizes with the statistics of its shard, but the running statistics are the ones of the batch
+        final FeedForwardNetwork parallel = createNormalizedNetwork(0);
+        try(ParallelTrainer parallelTrainer = new ParallelTrainer(new StochasticTrainer(parallel, 0.1), 3))
+        {
+            parallelTrainer.trainBatch(inputs, targets);
+        }
+
+        assertSameStatistics(sequential, parallel, 1E-12);
+    }
+
+    @Test
+    public void testParallelTrainerWithOneReplicaNormalizesTheBatch()
+    {
+        final List<Volume> inputs = inputs(20), targets = targets(20);
+
+        final FeedForwardNetwork sequential = createNormalizedNetwork(0);
+        final Trainer trainer = new StochasticTrainer(sequential, 0.1);
+        for(int i = 0; i < 2; i++)
+            trainer.trainBatch(inputs.subList(10 * i, 10 * i + 10), targets.subList(10 * i, 10 * i + 10));
+
+        final FeedForwardNetwork parallel = createNormalizedNetwork(0);
+        try(ParallelTrainer parallelTrainer = new ParallelTrainer(new StochasticTrainer(parallel, 0.1), 1))
+        {
+            for(int i = 0; i < 2; i++)
+                parallelTrainer.trainBatch(inputs.subList(10 * i, 10 * i + 10), targets.subList(10 * i, 10 * i + 10));
+        }
+
+        assertSameWeights(sequential, parallel, 0.0);
+        assertSameStatistics(sequential, parallel, 0.0);
+    }
+
+    @Test
+    public void testHogwildTrainerWithOneThreadMatchesStochasticTrainer()
+    {
+        final List<Volume> inputs = inputs(15), targets = targets(15);
+
+        final FeedForwardNetwork sequential = createNormalizedNetwork(0);
+        final Trainer trainer = new StochasticTrainer(sequential, 0.1);
+        for(int i = 0; i < inputs.size(); i++)
+            trainer.train(inputs.get(i), targets.get(i));
+
+        final FeedForwardNetwork hogwild = createNormalizedNetwork(0);
+        try(HogwildTrainer hogwildTrainer = new HogwildTrainer(hogwild, 0.1, 1))
+        {
+            hogwildTrainer.train(inputs, targets);
+
+            assertEquals(inputs.size(), hogwildTrainer.getSeen());
+        }
+
+        assertSameWeights(sequential, hogwild, 1E-12);
+        assertSameStatistics(sequential, hogwild, 1E-12);
+    }
+
+    @Test
+    public void testWeightsAreViewsOfParameters()
+    {
+        final FeedForwardNetwork network = createNetwork(0);
+        final Parameters parameters = network.getParameters();
+
+        int total = 0;
+        for(int l = 0; l < network.getLayers().size(); l++)
+        {
+            int offset = parameters.getOffset(l);
+            assertEquals(total, offset);
+
+            for(Volume volume : network.getLayers().get(l).getWeights())
+            {
+                volume.set(0, 42.0 + l);
+                assertEquals(42.0 + l, parameters.getValues()[offset], 0.0);
+
+                offset += volume.getSize();
+                total += volume.getSize();
+            }
+        }
+
+        assertEquals(total, parameters.getSize());
+    }
+
+    @Test
+    public void testMixedPrecisionStaysCloseToDouble()
+    {
+        final List<Volume> inputs = inputs(20), targets = targets(20);
+
+        final FeedForwardNetwork reference = createNetwork(0), mixed = createNetwork(0);
+        mixed.setMixedPrecision(true);
+
+        final Trainer referenceTrainer = new AdadeltaTrainer(reference, 5, 0.95, 1E-6), mixedTrainer = new AdadeltaTrainer(mixed, 5, 0.95, 1E-6);
+        for(int i = 0; i < inputs.size(); i++)
+        {
+            referenceTrainer.train(inputs.get(i), targets.get(i));
+            mixedTrainer.train(inputs.get(i), targets.get(i));
+
+            assertEquals(referenceTrainer.getLoss(), mixedTrainer.getLoss(), 1E-4);
+        }
+
+        assertSameWeights(reference, mixed, 1E-4);
+    }
+
+    @Test
+    public void testMixedPrecisionSkipsOverflowingUpdates()
+    {
+        final FeedForwardNetwork network = createNetwork(0);
+        network.setMixedPrecision(true);
+
+        final double[] before = network.getParameters().getValues().clone();
+        final double scale = network.getLossScale();
+
+        final Volume target = targets(1).get(0);
+        target.set(0, 1E36); // The scaled gradient of the loss does not fit in single precision
+
+        new StochasticTrainer(network, 0.1).train(inputs(1).get(0), target);
+
+        assertEquals(scale / 2, network.getLossScale(), 0.0);
+        for(int k = 0; k < before.length; k++)
+            assertEquals(before[k], network.getParameters().getValues()[k], 0.0);
+    }
+
+    @Test
+    public void testResumeFromCheckpoint() throws IOException
+    {
+        final List<Volume> inputs = inputs(20), targets = targets(20);
+        final Path path = folder.getRoot().toPath().resolve("checkpoint");
+
+        final FeedForwardNetwork network = createNetwork(0);
+        final Trainer trainer = new AdadeltaTrainer(network, 5, 0.95, 1E-6);
+
+        final Checkpointer checkpointer = new Checkpointer(trainer, path, 5);
+        try
+        {
+            for(int i = 0; i < 10; i++)
+            {
+                trainer.train(inputs.get(i), targets.get(i));
+                checkpointer.update();
+            }
+        }
+        finally
+        {
+            checkpointer.close(); // Waits for the checkpoints to be written
+        }
+        assertEquals(10, checkpointer.getLastSeen());
+
+        final FeedForwardNetwork resumed = createNetwork(1);
+        final Trainer resumedTrainer = new AdadeltaTrainer(resumed, 5, 0.95, 1E-6);
+        assertTrue(Checkpointer.resume(resumedTrainer, path));
+        assertEquals(10, resumedTrainer.getSeen());
+
+        for(int i = 10; i < 20; i++)
+        {
+            trainer.train(inputs.get(i), targets.get(i));
+            resumedTrainer.train(inputs.get(i), targets.get(i));
+        }
+
+        assertSameWeights(network, resumed, 0.0);
+    }
+
+    @Test
+    public void testResumeRestoresRunningStatistics() throws IOException
+    {
+        final List<Volume> inputs = inputs(20), targets = targets(20);
+        final Path path = folder.getRoot().toPath().resolve("checkpoint");
+
+        final FeedForwardNetwork network = createNormalizedNetwork(0);
+        final Trainer trainer = new StochasticTrainer(network, 0.1);
+
+        try(Checkpointer checkpointer = new Checkpointer(trainer, path, 5))
+        {
+            trainer.trainBatch(inputs.subList(0, 10), targets.subList(0, 10));
+            checkpointer.checkpoint();
+        }
+
+        final FeedForwardNetwork resumed = createNormalizedNetwork(1);
+        final Trainer resumedTrainer = new StochasticTrainer(resumed, 0.1);
+        assertTrue(Checkpointer.resume(resumedTrainer, path));
+        assertSameStatistics(network, resumed, 0.0);
+
+        trainer.trainBatch(inputs.subList(10, 20), targets.subList(10, 20));
+        resumedTrainer.trainBatch(inputs.subList(10, 20), targets.subList(10, 20));
+
+        assertSameWeights(network, resumed, 0.0);
+        assertSameStatistics(network, resumed, 0.0);
+    }
+
+    @Test
+    public void testFirstAdamStepIsTheLearningRate()
+    {
+        final FeedForwardNetwork network = createNetwork(0);
+        final double[] before = network.getParameters().getValues().clone();
+
+        final Trainer trainer = new AdamTrainer(network, 0.01);
+        trainer.train(inputs(1).get(0), targets(1).get(0));
+
+        // The bias-corrected moments are the gradient and its square: weights move by at most the learning rate,
+        // and by the learning rate itself unless their gradient is close to epsilon
+        int moved = 0;
+        for(int k = 0; k < before.length; k++)
+        {
+            final double delta = Math.abs(network.getParameters().getValues()[k] - before[k]);
+            assertTrue(delta <= 0.01 + 1E-15);
+            if(Math.abs(delta - 0.01) < 1E-6)
+                moved++;
+        }
+        assertTrue(moved > before.length / 2);
+    }
+
+    @Test
+    public void testAdaptiveTrainersConvergeFaster()
+    {
+        final List<Volume> inputs = inputs(30), targets = targets(30);
+
+        final FeedForwardNetwork[] networks = {createNetwork(0), createNetwork(0), createNetwork(0), createNetwork(0)};
+        final Trainer[] trainers = {
+                new StochasticTrainer(networks[0], 5, 0.05),
+                new MomentumTrainer(networks[1], 5, 0.05, 0.9, true),
+                new AdamTrainer(networks[2], 5, 0.01),
+                new AdamTrainer(networks[3], 5, 0.01, 0.9, 0.999, 1E-8, 0.01)
+        };
+
+        final double[] losses = new double[trainers.length];
+        for(int t = 0; t < trainers.length; t++)
+        {
+            for(int epoch = 0; epoch < 20; epoch++)
+                for(int i = 0; i < inputs.size(); i++)
+                    trainers[t].train(inputs.get(i), targets.get(i));
+
+            for(int i = 0; i < inputs.size(); i++)
+            {
+                networks[t].forwardPropagation(inputs.get(i));
+                networks[t].backwardPropagation(targets.get(i));
+                losses[t] += networks[t].getLoss() / inputs.size();
+            }
+            networks[t].getParameters().zeroGradients();
+        }
+
+        for(int t = 1; t < trainers.length; t++)
+            assertTrue(losses[t] < losses[0]);
+    }
+
+    @Test
+    public void testSinglePrecisionAdadeltaStaysClose()
+    {
+        final List<Volume> inputs = inputs(20), targets = targets(20);
+
+        final FeedForwardNetwork reference = createNetwork(0), single = createNetwork(0);
+        final Trainer referenceTrainer = new AdadeltaTrainer(reference, 5, 0.95, 1E-6);
+        final Trainer singleTrainer = new AdadeltaTrainer(single, 5, 0.95, 1E-6, true);
+
+        for(int i = 0; i < inputs.size(); i++)
+        {
+            referenceTrainer.train(inputs.get(i), targets.get(i));
+            singleTrainer.train(inputs.get(i), targets.get(i));
+        }
+
+        assertSameWeights(reference, single, 1E-5);
+    }
+
+    @Test
+    public void testParallelUpdateOfLargeLayers()
+    {
+        final Random random = new Random(0);
+        final FeedForwardNetwork network = new FeedForwardNetwork.Builder(new Dimensions(300))
+                .fullyConnected(new Dimensions(200), Layer.ActivationFunctionType.TANH)
+                .fullyConnected(new Dimensions(3), Layer.ActivationFunctionType.LINEAR)
+                .build(Layer.OutputFunctionType.SOFTMAX);
+        for(Layer layer : network.getLayers())
+            for(Volume volume : layer.getWeights())
+                volume.fillValues(i -> random.nextDouble() - 0.5);
+        network.getLayers().get(3).setTrainable(false); // Last fully connected layer
+
+        final Volume input = new Volume(new Dimensions(300));
+        input.fillValues(i -> random.nextDouble());
+        final Volume target = targets(1).get(0);
+
+        // Expected update, computed sequentially
+        network.forwardPropagation(input);
+        network.backwardPropagation(target);
+        final Parameters parameters = network.getParameters();
+        final double[] expected = parameters.getValues().clone();
+        for(int k = 0; k < parameters.getOffset(3); k++)
+            expected[k] -= 0.1 * parameters.getGradients()[k];
+        parameters.zeroGradients();
+
+        new StochasticTrainer(network, 0.1).train(input, target);
+
+        for(int k = 0; k < expected.length; k++)
+        {
+            assertEquals(expected[k], parameters.getValues()[k], 0.0);
+            assertEquals(0.0, parameters.getGradients()[k], 0.0);
+        }
+    }
+
+    @Test
+    public void testLayerwiseStepsAreProportionalToWeights()
+    {
+        final Trainer[] trainers = new Trainer[2];
+        final FeedForwardNetwork lars = createNetwork(0), lamb = createNetwork(0);
+        trainers[0] = new LARSTrainer(lars, 1, LearningRateSchedule.constant(1.0), 0.0, 0.0, 0.001);
+        trainers[1] = new LAMBTrainer(lamb, 1, LearningRateSchedule.constant(0.1), 0.9, 0.999, 1E-6, 0.0);
+        final double[] ratios = {0.001, 0.1};
+
+        for(int t = 0; t < trainers.length; t++)
+        {
+            final Parameters parameters = (t == 0 ? lars : lamb).getParameters();
+            final double[] before = parameters.getValues().clone();
+
+            trainers[t].train(inputs(1).get(0), targets(1).get(0));
+
+            // The norm of the step of each tensor only depends on the norm of its weights
+            for(int[] tensor : tensors(t == 0 ? lars : lamb))
+            {
+                double weights = 0.0, step = 0.0;
+                for(int k = tensor[0]; k < tensor[1]; k++)
+                {
+                    weights += before[k] * before[k];
+                    step += (parameters.getValues()[k] - before[k]) * (parameters.getValues()[k] - before[k]);
+                }
+
+                assertEquals(ratios[t] * Math.sqrt(weights), Math.sqrt(step), 1E-9);
+            }
+        }
+    }
+
+    @Test
+    public void testLARSExcludesVectors()
+    {
+        final FeedForwardNetwork network = createNetwork(0), reference = createNetwork(0);
+        final double rate = 0.5, weightDecay = 0.1, eta = 0.001;
+        final LARSTrainer trainer = new LARSTrainer(network, 1, LearningRateSchedule.constant(rate), 0.0, weightDecay, eta);
+        trainer.setExcludingVectors(true);
+
+        final Volume input = inputs(1).get(0), target = targets(1).get(0);
+        reference.forwardPropagation(input, true);
+        reference.backwardPropagation(target);
+        final double[] before = reference.getParameters().getValues(), gradients = reference.getParameters().getGradients();
+
+        trainer.train(input, target);
+
+        final double[] after = network.getParameters().getValues();
+        for(int[] tensor : tensors(network))
+        {
+            double weights = 0.0, grads = 0.0;
+            for(int k = tensor[0]; k < tensor[1]; k++)
+            {
+                weights += before[k] * before[k];
+                grads += gradients[k] * gradients[k];
+            }
+
+            // The biases are updated without trust ratio nor weight decay
+            final boolean isVector = tensor[2] == 1;
+            final double ratio = isVector ? 1.0 : eta * Math.sqrt(weights) / (Math.sqrt(grads) + weightDecay * Math.sqrt(weights));
+            final double decay = isVector ? 0.0 : weightDecay;
+
+            for(int k = tensor[0]; k < tensor[1]; k++)
+                assertEquals(before[k] - rate * ratio * (gradients[k] + decay * before[k]), after[k], 1E-12);
+        }
+    }
+
+    @Test
+    public void testWarmupSchedules()
+    {
+        final LearningRateSchedule warmup = LearningRateSchedule.warmup(0.8, 4);
+        assertEquals(0.2, warmup.getLearningRate(0), 1E-15);
+        assertEquals(0.6, warmup.getLearningRate(2), 1E-15);
+        assertEquals(0.8, warmup.getLearningRate(4), 1E-15);
+        assertEquals(0.8, warmup.getLearningRate(100), 1E-15);
+
+        final LearningRateSchedule cosine = LearningRateSchedule.warmupCosine(0.8, 4, 8);
+        assertEquals(0.8, cosine.getLearningRate(4), 1E-15);
+        assertEquals(0.4, cosine.getLearningRate(6), 1E-15);
+        assertEquals(0.0, cosine.getLearningRate(8), 1E-15);
+    }
+
+    @Test
+    public void testLargeBatchLAMBConverges()
+    {
+        final List<Volume> inputs = inputs(30), targets = targets(30);
+        final FeedForwardNetwork network = createNetwork(0);
+
+        final Trainer trainer = new LAMBTrainer(network, 30, LearningRateSchedule.warmup(0.03, 10)); // Steps of 3% of the norm of each tensor
+
+        double first = 0.0, last = 0.0;
+        for(int epoch = 0; epoch < 100; epoch++)
+        {
+            final double loss = trainer.trainBatch(inputs, targets);
+            if(epoch == 0)
+                first = loss;
+            last = loss;
+        }
+
+        assertTrue(last < first / 4);
+    }
+}
@@ -0,0 +1,95 @@
+package me.cassayre.florian.dpu;
+
+import me.cassayre.florian.dpu.layer.Layer;
+import me.cassayre.florian.dpu.network.architecture.FeedForwardNetwork;
+import me.cassayre.florian.dpu.network.trainer.AdamTrainer;
+import me.cassayre.florian.dpu.network.trainer.StochasticTrainer;
+import me.cassayre.florian.dpu.network.trainer.TrainingEngine;
+import me.cassayre.florian.dpu.util.Utils;
+import me.cassayre.florian.dpu.util.volume.Dimensions;
+import me.cassayre.florian.dpu.util.volume.Volume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestTrainingEngine
+{
+    private final List<Volume> inputs = new ArrayList<>(), targets = new ArrayList<>();
+
+    public TestTrainingEngine()
+    {
+        // The class of each sample is the largest of its first three values
+        final Random random = new Random(1);
+        for(int i = 0; i < 60; i++)
+        {
+            final Volume input = new Volume(new Dimensions(6));
+            input.fillValues(j -> random.nextDouble());
+            inputs.add(input);
+
+            final Volume target = new Volume(new Dimensions(3));
+            target.set(Utils.argmax(new Volume(new Dimensions(3), input.get(0), input.get(1), input.get(2))), 1.0);
+            targets.add(target);
+        }
+    }
+
+    private static FeedForwardNetwork createNetwork()
+    {
+        final Random random = new Random(0);
+        final FeedForwardNetwork network = new FeedForwardNetwork.Builder(new Dimensions(6))
+                .fullyConnected(new Dimensions(8), Layer.ActivationFunctionType.TANH)
+                .fullyConnected(new Dimensions(3), Layer.ActivationFunctionType.LINEAR)
+                .build(Layer.OutputFunctionType.SOFTMAX);
+
+        for(Layer layer : network.getLayers())
+            for(Volume volume : layer.getWeights())
+                volume.fillValues(i -> random.nextDouble() - 0.5);
+
+        return network;
+    }
+
+    @Test
+    public void testReachesTargetAccuracy()
+    {
+        final List<TrainingEngine.Progress> reports = new ArrayList<>();
+        final TrainingEngine engine = new TrainingEngine.Builder(new AdamTrainer(createNetwork(), 0.01))
+                .epochs(200)
+                .validation(inputs, targets, 0)
+                .targetAccuracy(0.9)
+                .progress(20, reports::add)
+                .build();
+
+        final TrainingEngine.Result result = engine.train(inputs, targets);
+
+        assertTrue(result.isTargetReached());
+        assertTrue(result.getTimeToAccuracy() <= result.getNanoseconds());
+        assertTrue(result.getEpochs() < 200);
+        assertEquals(result.getEpochs(), result.getValidations());
+        assertEquals(result.getEpochs() * inputs.size(), result.getSamples());
+        assertEquals(result.getSamples() / 20, reports.size());
+        assertTrue(result.getSamplesPerSecond() > 0.0);
+        assertTrue(result.getValidationAccuracy() >= 0.9);
+    }
+
+    @Test
+    public void testStopsEarlyWithoutImprovement()
+    {
+        final TrainingEngine engine = new TrainingEngine.Builder(new StochasticTrainer(createNetwork(), 0.0))
+                .epochs(50)
+                .validation(inputs, targets, 30)
+                .earlyStopping(3)
+                .build();
+
+        final TrainingEngine.Result result = engine.train(inputs, targets);
+
+        assertTrue(result.isStoppedEarly());
+        assertFalse(result.isTargetReached());
+        assertEquals(4, result.getValidations()); // The first one sets the best accuracy
+        assertEquals(120, result.getSamples()); // Validated every 30 samples and at the end of each epoch
+    }
+}